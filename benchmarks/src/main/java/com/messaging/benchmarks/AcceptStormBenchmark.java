@@ -0,0 +1,97 @@
+package com.messaging.benchmarks;
+
+import com.messaging.server.service.ConnectionAcceptor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiempo en aceptar una ráfaga de conexiones, como la reconexión masiva después de un despliegue
+ * Cada invocación abre "connects" sockets desde varios hilos y espera a que el servidor los acepte todos.
+ * Los clientes cierran con SO_LINGER 0 para no agotar puertos efímeros en TIME_WAIT
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AcceptStormBenchmark {
+
+    private static final int CLIENT_THREADS = 16;
+    private static final int BACKLOG = 1024;
+
+    @Param({"1", "4"})
+    public int acceptorThreads;
+
+    @Param({"false", "true"})
+    public boolean reusePort;
+
+    @Param({"10000"})
+    public int connects;
+
+    private ConnectionAcceptor acceptor;
+    private ExecutorService clients;
+    private InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        acceptor = new ConnectionAcceptor(0, acceptorThreads, reusePort, BACKLOG, socket -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        acceptor.start();
+        clients = Executors.newFixedThreadPool(CLIENT_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "StormClient");
+            thread.setDaemon(true);
+            return thread;
+        });
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), acceptor.getLocalPort());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        acceptor.close();
+        clients.shutdownNow();
+    }
+
+    @Benchmark
+    public long storm() throws Exception {
+        long target = acceptor.getAccepted() + connects;
+
+        List<Future<?>> running = new ArrayList<>(CLIENT_THREADS);
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            int share = connects / CLIENT_THREADS + (t < connects % CLIENT_THREADS ? 1 : 0);
+            running.add(clients.submit(() -> {
+                for (int i = 0; i < share; i++) {
+                    try (Socket socket = new Socket()) {
+                        socket.setSoLinger(true, 0);
+                        socket.connect(address);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> client : running) {
+            client.get();
+        }
+
+        while (acceptor.getAccepted() < target) {
+            Thread.onSpinWait();
+        }
+        return acceptor.getAccepted();
+    }
+}
@@ -0,0 +1,52 @@
+package com.messaging.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codificación Base64 de archivos como en handleSendFile / handleDownloadFile
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Base64FileBenchmark {
+    
+    // 64 KB, 1 MB y el máximo permitido por el servidor (10 MB)
+    @Param({"65536", "1048576", "10485760"})
+    private int fileSize;
+    
+    private byte[] fileBytes;
+    private String encoded;
+    
+    @Setup
+    public void setup() {
+        fileBytes = BenchmarkData.fileContent(fileSize);
+        encoded = Base64.getEncoder().encodeToString(fileBytes);
+    }
+    
+    @Benchmark
+    public String encode() {
+        return Base64.getEncoder().encodeToString(fileBytes);
+    }
+    
+    @Benchmark
+    public byte[] decode() {
+        return Base64.getDecoder().decode(encoded);
+    }
+    
+    /**
+     * Recepción actual: la línea FILE_DATA se acumula en un StringBuilder antes de decodificar
+     */
+    @Benchmark
+    public byte[] receiveAndDecode() {
+        String line = "FILE_DATA:" + encoded;
+        StringBuilder fileData = new StringBuilder();
+        fileData.append(line.substring(10));
+        return Base64.getDecoder().decode(fileData.toString());
+    }
+}
@@ -0,0 +1,91 @@
+package com.messaging.benchmarks;
+
+import com.messaging.server.model.Message;
+import com.messaging.server.model.User;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Datos de prueba compartidos por los benchmarks
+ * Reproduce la forma de las filas que arma UserService a partir de la base de datos
+ */
+public final class BenchmarkData {
+    
+    private static final String[] WORDS = {
+        "hola", "mensaje", "archivo", "reunión", "mañana", "servidor", "cliente",
+        "proyecto", "entrega", "revisar", "imagen", "documento", "gracias", "listo"
+    };
+    
+    private BenchmarkData() {
+    }
+    
+    public static List<Message> conversation(int size) {
+        Random random = new Random(42);
+        LocalDateTime base = LocalDateTime.of(2025, 11, 18, 8, 0, 0);
+        List<Message> messages = new ArrayList<>(size);
+        
+        for (int i = 0; i < size; i++) {
+            boolean fromFirst = random.nextBoolean();
+            boolean isFile = i % 20 == 0;
+            Message message = Message.builder()
+                .id((long) i + 1)
+                .senderId(fromFirst ? 1L : 2L)
+                .receiverId(fromFirst ? 2L : 1L)
+                .messageType(isFile ? "IMAGE" : "TEXT")
+                .content(isFile ? "uploads/1/20251118_081932_perrito.jpeg" : sentence(random))
+                .fileName(isFile ? "perrito.jpeg" : null)
+                .createdAt(base.plusSeconds(i * 37L))
+                .senderUsername(fromFirst ? "admin" : "juan")
+                .receiverUsername(fromFirst ? "juan" : "admin")
+                .isRead(false)
+                .build();
+            messages.add(message);
+        }
+        
+        return messages;
+    }
+    
+    public static List<User> connectedUsers(int size) {
+        LocalDateTime base = LocalDateTime.of(2025, 11, 18, 8, 0, 0);
+        List<User> users = new ArrayList<>(size);
+        
+        for (int i = 0; i < size; i++) {
+            User user = new User();
+            user.setId((long) i + 1);
+            user.setUsername("usuario" + i);
+            user.setEmail("usuario" + i + "@messaging.com");
+            user.setStatus("APPROVED");
+            user.setCreatedAt(base.minusDays(i % 30));
+            user.setLastConnection(base.plusMinutes(i));
+            user.setConnected(true);
+            user.setConnectionCount(i % 7);
+            user.setMaxConnections(3);
+            user.setFilesSentCount(i % 10);
+            user.setMaxFilesPerDay(10);
+            users.add(user);
+        }
+        
+        return users;
+    }
+    
+    public static byte[] fileContent(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+    
+    private static String sentence(Random random) {
+        int words = 3 + random.nextInt(12);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+}
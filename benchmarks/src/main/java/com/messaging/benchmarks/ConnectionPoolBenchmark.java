@@ -0,0 +1,78 @@
+package com.messaging.benchmarks;
+
+import com.messaging.server.model.ClientConnection;
+import com.messaging.server.pool.ConnectionPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Operaciones de ConnectionPool bajo contención de varios hilos
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+    
+    private static final int PRELOADED_USERS = 1000;
+    
+    private ConnectionPool connectionPool;
+    private final AtomicLong sequence = new AtomicLong();
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        connectionPool = ConnectionPool.getInstance();
+        for (long userId = 1; userId <= PRELOADED_USERS; userId++) {
+            connectionPool.addConnection(connection("preloaded-" + userId, userId));
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionPool.shutdown();
+    }
+    
+    @State(Scope.Thread)
+    public static class ThreadState {
+        long userId;
+        long counter;
+        
+        @Setup(Level.Trial)
+        public void setup(ConnectionPoolBenchmark benchmark) {
+            // Usuarios propios de cada hilo, fuera del rango precargado
+            userId = PRELOADED_USERS + benchmark.sequence.incrementAndGet();
+        }
+    }
+    
+    @Benchmark
+    public void addRemove(ThreadState state) {
+        String connectionId = state.userId + "-" + state.counter++;
+        connectionPool.addConnection(connection(connectionId, state.userId));
+        connectionPool.removeConnection(connectionId);
+    }
+    
+    @Benchmark
+    public ClientConnection lookupById(ThreadState state) {
+        return connectionPool.getConnection("preloaded-" + (state.counter++ % PRELOADED_USERS + 1));
+    }
+    
+    @Benchmark
+    public Set<ClientConnection> lookupByUser(ThreadState state) {
+        return connectionPool.getUserConnections(state.counter++ % PRELOADED_USERS + 1);
+    }
+    
+    @Benchmark
+    public int activeConnections() {
+        return connectionPool.getActiveConnections();
+    }
+    
+    private static ClientConnection connection(String connectionId, long userId) {
+        return new ClientConnection(connectionId, userId, "usuario" + userId, null, "127.0.0.1", 3, 10);
+    }
+}
@@ -0,0 +1,120 @@
+package com.messaging.benchmarks;
+
+import com.messaging.server.codec.EncodedMessage;
+import com.messaging.server.codec.JsonCodec;
+import com.messaging.server.codec.PayloadFormat;
+import com.messaging.server.model.ClientConnection;
+import com.messaging.server.model.Message;
+import com.messaging.server.pool.ConnectionPool;
+import com.messaging.server.service.GroupFanout;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de repartir un mensaje de grupo a todos sus miembros conectados
+ * fanOut usa GroupFanout (serializa una vez y recorre el índice por usuario);
+ * encodePerMember es la línea base que serializa el mensaje para cada conexión
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupFanoutBenchmark {
+
+    private static final long FIRST_MEMBER = 1_000_000L;
+
+    @Param({"10", "100", "1000"})
+    public int groupSize;
+
+    private ConnectionPool connectionPool;
+    private GroupFanout groupFanout;
+    private JsonCodec jsonCodec;
+    private long[] members;
+    private Message message;
+    // Bytes "escritos" por las conexiones simuladas; evita que el JIT descarte la serialización
+    private long written;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        connectionPool = ConnectionPool.getInstance();
+        groupFanout = new GroupFanout(connectionPool, 1);
+        jsonCodec = JsonCodec.getInstance();
+
+        members = new long[groupSize];
+        for (int i = 0; i < groupSize; i++) {
+            long userId = FIRST_MEMBER + i;
+            members[i] = userId;
+            ClientConnection connection = new ClientConnection(
+                "fanout-" + userId, userId, "usuario" + userId, null, "127.0.0.1", 3, 10);
+            connection.setPushChannel(new SinkChannel());
+            connectionPool.addConnection(connection);
+        }
+
+        message = BenchmarkData.conversation(1).get(0);
+        message.setId(1L);
+        message.setReceiverId(null);
+        message.setGroupId(1L);
+        message.setSenderId(members[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        groupFanout.shutdown();
+        connectionPool.shutdown();
+    }
+
+    @Benchmark
+    public long fanOut() {
+        groupFanout.deliver(message, members);
+        return written;
+    }
+
+    @Benchmark
+    public long encodePerMember() {
+        for (long memberId : members) {
+            if (memberId == message.getSenderId()) {
+                continue;
+            }
+            for (ClientConnection connection : connectionPool.getUserConnections(memberId)) {
+                connection.deliver(message);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Conexión sin socket: serializa como lo haría el handler y descarta los bytes
+     */
+    private final class SinkChannel implements ClientConnection.PushChannel {
+        @Override
+        public void deliver(Message message) {
+            try {
+                written += jsonCodec.encodeMessages(List.of(message), PayloadFormat.JSON)
+                    .getBytes(StandardCharsets.UTF_8).length;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void deliver(EncodedMessage message) {
+            try {
+                written += message.line(PayloadFormat.JSON).length;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void push(String command, String data) {
+            written += data.length();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.messaging.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.messaging.server.codec.JsonCodec;
+import com.messaging.server.codec.PayloadFormat;
+import com.messaging.server.model.Message;
+import com.messaging.server.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialización de listas como en UserService.getMessagesWithUser / getConnectedUsers
+ * y su lectura del lado del cliente
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+    
+    @Param({"10", "100", "1000"})
+    private int size;
+    
+    private ObjectMapper serverMapper;
+    private ObjectMapper clientMapper;
+    private JsonCodec jsonCodec;
+    private List<Message> messages;
+    private List<User> users;
+    private String messagesJson;
+    private String usersJson;
+    
+    @Setup
+    public void setup() throws Exception {
+        // Misma configuración que UserService
+        serverMapper = new ObjectMapper();
+        serverMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        serverMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        
+        // Misma configuración que NetworkService en el cliente
+        clientMapper = new ObjectMapper();
+        clientMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        
+        jsonCodec = JsonCodec.getInstance();
+        
+        messages = BenchmarkData.conversation(size);
+        users = BenchmarkData.connectedUsers(size);
+        messagesJson = serverMapper.writeValueAsString(messages);
+        usersJson = serverMapper.writeValueAsString(users);
+    }
+    
+    @Benchmark
+    public String writeMessages() throws Exception {
+        return serverMapper.writeValueAsString(messages);
+    }
+    
+    @Benchmark
+    public String writeUsers() throws Exception {
+        return serverMapper.writeValueAsString(users);
+    }
+    
+    @Benchmark
+    public List<Message> readMessages() throws Exception {
+        return clientMapper.readValue(messagesJson,
+            clientMapper.getTypeFactory().constructCollectionType(List.class, Message.class));
+    }
+    
+    @Benchmark
+    public List<User> readUsers() throws Exception {
+        return clientMapper.readValue(usersJson,
+            clientMapper.getTypeFactory().constructCollectionType(List.class, User.class));
+    }
+    
+    /**
+     * Costo de crear y configurar un ObjectMapper, como hace cada ClientHandlerService
+     */
+    @Benchmark
+    public ObjectMapper createMapperPerConnection() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        return mapper;
+    }
+    
+    @Benchmark
+    public String codecWriteMessages() throws Exception {
+        return jsonCodec.writeMessages(messages);
+    }
+    
+    @Benchmark
+    public String codecWriteUsers() throws Exception {
+        return jsonCodec.writeUsers(users);
+    }
+    
+    @Benchmark
+    public List<Message> codecReadMessages() throws Exception {
+        return jsonCodec.readMessages(messagesJson);
+    }
+    
+    @Benchmark
+    public List<User> codecReadUsers() throws Exception {
+        return jsonCodec.readUsers(usersJson);
+    }
+    
+    /**
+     * Escritura en streaming como en ClientHandlerService.sendStreamedResponse:
+     * elemento por elemento hacia la salida, sin String intermedio
+     */
+    @Benchmark
+    public long codecStreamMessages() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        try (SequenceWriter sequence = jsonCodec.openMessageArray(out, PayloadFormat.JSON)) {
+            for (Message message : messages) {
+                sequence.write(message);
+            }
+        }
+        return out.count;
+    }
+    
+    /**
+     * Salida que solo cuenta bytes, en lugar del socket
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.messaging.benchmarks;
+
+import com.messaging.server.codec.JsonCodec;
+import com.messaging.server.codec.PayloadFormat;
+import com.messaging.server.model.Message;
+import com.messaging.server.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparación JSON contra Smile (en Base64) para las respuestas MESSAGES y USERS
+ * El tamaño en la línea de cada formato se imprime al preparar el estado
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadFormatBenchmark {
+    
+    @Param({"JSON", "SMILE"})
+    private PayloadFormat format;
+    
+    @Param({"100", "1000"})
+    private int size;
+    
+    private JsonCodec jsonCodec;
+    private List<Message> messages;
+    private List<User> users;
+    private String encodedMessages;
+    private String encodedUsers;
+    
+    @Setup
+    public void setup() throws Exception {
+        jsonCodec = JsonCodec.getInstance();
+        messages = BenchmarkData.conversation(size);
+        users = BenchmarkData.connectedUsers(size);
+        encodedMessages = jsonCodec.encodeMessages(messages, format);
+        encodedUsers = jsonCodec.encodeUsers(users, format);
+        
+        System.out.printf("%n[%s, %d] MESSAGES: %d caracteres, USERS: %d caracteres%n",
+            format, size, encodedMessages.length(), encodedUsers.length());
+    }
+    
+    @Benchmark
+    public String encodeMessages() throws Exception {
+        return jsonCodec.encodeMessages(messages, format);
+    }
+    
+    @Benchmark
+    public String encodeUsers() throws Exception {
+        return jsonCodec.encodeUsers(users, format);
+    }
+    
+    @Benchmark
+    public List<Message> decodeMessages() throws Exception {
+        return jsonCodec.decodeMessages(encodedMessages, format);
+    }
+    
+    @Benchmark
+    public List<User> decodeUsers() throws Exception {
+        return jsonCodec.decodeUsers(encodedUsers, format);
+    }
+}
@@ -0,0 +1,82 @@
+package com.messaging.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.messaging.server.model.Message;
+import com.messaging.server.protocol.ProtocolCommand;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Análisis de las líneas del protocolo tal como lo hace ClientHandlerService.processMessage
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProtocolParsingBenchmark {
+    
+    private ObjectMapper objectMapper;
+    private String sendMessageLine;
+    private String sendFileLine;
+    private String pingLine;
+    
+    @Setup
+    public void setup() throws Exception {
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        
+        Message message = new Message();
+        message.setReceiverId(2L);
+        message.setMessageType("TEXT");
+        message.setContent("Hola, ¿ya revisaste el documento de la entrega de mañana?");
+        
+        sendMessageLine = "SEND_MESSAGE:" + objectMapper.writeValueAsString(message);
+        sendFileLine = "SEND_FILE:2:Taller Calculo Estocastico.pdf:1048576";
+        pingLine = "PING:";
+    }
+    
+    /**
+     * Forma original: split con expresión sobre la línea completa
+     */
+    @Benchmark
+    public void splitCommand(Blackhole blackhole) {
+        String[] parts = sendMessageLine.split(":", 2);
+        blackhole.consume(parts[0]);
+        blackhole.consume(parts.length > 1 ? parts[1] : "");
+    }
+    
+    @Benchmark
+    public ProtocolCommand parseSendMessage() {
+        return ProtocolCommand.parse(sendMessageLine);
+    }
+    
+    @Benchmark
+    public ProtocolCommand parsePing() {
+        return ProtocolCommand.parse(pingLine);
+    }
+    
+    /**
+     * Cabecera de SEND_FILE: receiverId:fileName:fileSize
+     */
+    @Benchmark
+    public void parseSendFileHeader(Blackhole blackhole) {
+        String data = ProtocolCommand.parse(sendFileLine).getData();
+        String[] parts = data.split(":", 3);
+        blackhole.consume(Long.parseLong(parts[0]));
+        blackhole.consume(parts[1]);
+        blackhole.consume(Long.parseLong(parts[2]));
+    }
+    
+    /**
+     * Comando completo: separar la línea y deserializar el JSON del mensaje
+     */
+    @Benchmark
+    public Message decodeSendMessage() throws Exception {
+        String data = ProtocolCommand.parse(sendMessageLine).getData();
+        return objectMapper.readValue(data, Message.class);
+    }
+}
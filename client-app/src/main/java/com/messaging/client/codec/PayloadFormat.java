@@ -0,0 +1,25 @@
+package com.messaging.client.codec;
+
+/**
+ * Formato de los datos estructurados negociado en AUTH
+ * JSON es el formato por defecto y el de los clientes antiguos
+ */
+public enum PayloadFormat {
+    
+    JSON,
+    SMILE;
+    
+    /**
+     * Interpretar el formato pedido por el cliente, con JSON como respaldo
+     */
+    public static PayloadFormat fromName(String name) {
+        if (name != null) {
+            for (PayloadFormat format : values()) {
+                if (format.name().equalsIgnoreCase(name.trim())) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -2,6 +2,7 @@ package com.messaging.client.controller;
 
 import com.messaging.client.model.Message;
 import com.messaging.client.model.User;
+import com.messaging.client.service.MessageCache;
 import com.messaging.client.service.NetworkService;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -16,8 +17,6 @@ import javafx.scene.layout.VBox;
 import javafx.scene.layout.HBox;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.geometry.Insets;
-import javafx.geometry.Pos;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
@@ -25,8 +24,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -34,9 +38,14 @@ import java.util.concurrent.TimeUnit;
 public class MainController implements Initializable {
     
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
+    private static final int THUMBNAIL_CACHE_SIZE = 200;
+    private static final double THUMBNAIL_WIDTH = 240;
+    private static final int MESSAGE_PAGE_SIZE = 500;
     
     private final NetworkService networkService;
     private final ScheduledExecutorService scheduler;
+    private final ExecutorService mediaExecutor;
+    private final Map<String, Image> thumbnailCache;
     
     private Stage primaryStage;
     
@@ -59,8 +68,7 @@ public class MainController implements Initializable {
     @FXML private Label selectedUserLabel;
     @FXML private Label userStatusLabel;
     @FXML private Label onlineIndicator;
-    @FXML private ScrollPane messagesScrollPane;
-    @FXML private VBox messagesContainer;
+    @FXML private ListView<Message> messagesListView;
     @FXML private VBox messageInputPanel;
     @FXML private TextArea messageTextArea;
     @FXML private Button sendMessageButton;
@@ -69,25 +77,80 @@ public class MainController implements Initializable {
     
     // Datos observables
     private final ObservableList<User> connectedUsers;
+    // Confirmaciones recibidas por contacto: hasta qué id entregó y leyó nuestros mensajes
+    private final Map<Long, Long> deliveredUpTo;
+    private final Map<Long, Long> readUpTo;
+    // Último READ_UP_TO informado por conversación, para no repetirlo en cada refresco
+    private final Map<Long, Long> reportedReadUpTo;
+    // Mensajes sin leer por contacto, según el servidor
+    private final Map<Long, Integer> unreadCounts;
     private final ObservableList<Message> messages;
+    // Ventana de la conversación actual que muestra la lista (desde loadedFrom hasta el final)
+    private final ObservableList<Message> conversationItems;
+    private List<Message> conversationSource;
+    private int loadedFrom;
     private User currentUser;
+    private volatile MessageCache messageCache;
     private User selectedUser;
     
     public MainController() {
         this.networkService = NetworkService.getInstance();
         this.scheduler = Executors.newScheduledThreadPool(2);
+        this.mediaExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MediaLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Miniaturas ya descargadas, para no pedirlas en cada refresco del chat
+        this.thumbnailCache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                return size() > THUMBNAIL_CACHE_SIZE;
+            }
+        };
         this.connectedUsers = FXCollections.observableArrayList();
+        this.deliveredUpTo = new ConcurrentHashMap<>();
+        this.readUpTo = new ConcurrentHashMap<>();
+        this.reportedReadUpTo = new ConcurrentHashMap<>();
+        this.unreadCounts = new ConcurrentHashMap<>();
         this.messages = FXCollections.observableArrayList();
+        this.conversationItems = FXCollections.observableArrayList();
+        this.conversationSource = List.of();
     }
     
     @Override
     public void initialize(URL location, ResourceBundle resources) {
         setupUI();
         setupEventHandlers();
+        networkService.addConnectionListener(this::handleConnectionChange);
+        networkService.addIncomingMessagesListener(this::handleIncomingMessages);
+        networkService.addPushListener("RECEIPT", this::handleReceipt);
+        networkService.addPresenceListener(this::handlePresenceDelta);
         startPeriodicUpdates();
     }
     
     private void setupUI() {
+        // Chat virtualizado: solo existen las celdas visibles y se reciclan al hacer scroll
+        messagesListView.setItems(conversationItems);
+        messagesListView.setCellFactory(listView -> new MessageCell(
+            THUMBNAIL_WIDTH,
+            () -> currentUser != null ? currentUser.getId() : null,
+            this::loadThumbnail,
+            this::openOriginalImage,
+            this::handleDownloadFile,
+            this::deliveryStatus));
+        messagesListView.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            for (javafx.scene.Node node : messagesListView.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar bar && bar.getOrientation() == javafx.geometry.Orientation.VERTICAL) {
+                    bar.valueProperty().addListener((o, oldValue, value) -> {
+                        if (value.doubleValue() <= bar.getMin() && oldValue.doubleValue() > bar.getMin()) {
+                            loadOlderMessages();
+                        }
+                    });
+                }
+            }
+        });
+        
         // Configurar lista de usuarios con formato personalizado
         usersListView.setItems(connectedUsers);
         usersListView.setCellFactory(listView -> new ListCell<User>() {
@@ -109,7 +172,21 @@ public class MainController implements Initializable {
                         "-fx-text-fill: #8696A0; -fx-font-size: 12px;");
                     
                     vbox.getChildren().addAll(nameLabel, statusLabel);
-                    setGraphic(vbox);
+                    
+                    int unread = unreadCounts.getOrDefault(user.getId(), 0);
+                    if (unread > 0) {
+                        Label badge = new Label(unread > 99 ? "99+" : String.valueOf(unread));
+                        badge.setStyle("-fx-background-color: #00A884; -fx-text-fill: white; " +
+                                      "-fx-font-size: 11px; -fx-font-weight: bold; " +
+                                      "-fx-background-radius: 10; -fx-padding: 1 6 1 6;");
+                        javafx.scene.layout.Region spacer = new javafx.scene.layout.Region();
+                        HBox.setHgrow(spacer, javafx.scene.layout.Priority.ALWAYS);
+                        HBox row = new HBox(vbox, spacer, badge);
+                        row.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
+                        setGraphic(row);
+                    } else {
+                        setGraphic(vbox);
+                    }
                 }
             }
         });
@@ -175,6 +252,7 @@ public class MainController implements Initializable {
                 User user = getValue();
                 if (user != null) {
                     currentUser = user;
+                    cacheFor(user.getId());
                     logger.info("Usuario autenticado: {} con ID: {}", currentUser.getUsername(), currentUser.getId());
                     showChatPane();
                     loadInitialData();
@@ -376,23 +454,47 @@ public class MainController implements Initializable {
         loadUserMessages();
     }
     
+    /**
+     * Foto de usuarios conectados y suscripción a los cambios de presencia
+     * Se pide al iniciar sesión y al reanudarla; después la lista se mantiene con PRESENCE_DELTA
+     */
     private void loadConnectedUsers() {
-        Task<List<User>> loadUsersTask = new Task<List<User>>() {
-            @Override
-            protected List<User> call() throws Exception {
-                return networkService.getConnectedUsers();
+        // La respuesta llega por el hilo lector de NetworkService; no hace falta un hilo esperando
+        networkService.subscribePresenceAsync().thenAccept(users -> Platform.runLater(() -> {
+            connectedUsers.clear();
+            connectedUsers.addAll(users);
+            filterUsers(searchUserField.getText());
+        }));
+        loadUnreadCounts();
+    }
+    
+    private void handlePresenceDelta(List<User> online, List<Long> offline) {
+        Platform.runLater(() -> {
+            connectedUsers.removeIf(user -> offline.contains(user.getId()));
+            for (User user : online) {
+                boolean known = connectedUsers.stream().anyMatch(existing -> existing.getId().equals(user.getId()));
+                if (!known) {
+                    connectedUsers.add(0, user);
+                }
             }
-            
-            @Override
-            protected void succeeded() {
-                Platform.runLater(() -> {
-                    connectedUsers.clear();
-                    connectedUsers.addAll(getValue());
-                });
+            filterUsers(searchUserField.getText());
+        });
+    }
+    
+    /**
+     * Contadores de no leídos: el servidor los responde desde memoria, así que pedirlos
+     * de nuevo es más barato que llevar la cuenta en el cliente
+     */
+    private void loadUnreadCounts() {
+        networkService.getUnreadCountsAsync().thenAccept(counts -> Platform.runLater(() -> {
+            // La conversación abierta ya está leída aunque el READ_UP_TO siga en camino
+            if (selectedUser != null) {
+                counts.remove(selectedUser.getId());
             }
-        };
-        
-        new Thread(loadUsersTask).start();
+            unreadCounts.clear();
+            unreadCounts.putAll(counts);
+            usersListView.refresh();
+        }));
     }
     
     private void loadUserMessages() {
@@ -414,122 +516,169 @@ public class MainController implements Initializable {
         new Thread(loadMessagesTask).start();
     }
     
+    /**
+     * Muestra primero la conversación guardada en disco y luego pide al servidor
+     * solo los mensajes con id mayor al último guardado
+     */
     private void loadMessagesWithUser(Long userId) {
+        MessageCache cache = messageCache;
+        
         Task<List<Message>> loadMessagesTask = new Task<List<Message>>() {
             @Override
             protected List<Message> call() throws Exception {
-                return networkService.getMessagesWithUser(userId);
+                if (cache == null) {
+                    return networkService.getMessagesWithUser(userId);
+                }
+                
+                List<Message> cached = cache.getConversation(userId);
+                if (!cached.isEmpty()) {
+                    Platform.runLater(() -> showConversation(userId, cached));
+                }
+                
+                List<Message> newer = networkService.getMessagesWithUser(userId, cache.getLastMessageId(userId));
+                if (newer.isEmpty() && !cached.isEmpty()) {
+                    return null;
+                }
+                cache.append(userId, newer);
+                return cache.getConversation(userId);
             }
             
             @Override
             protected void succeeded() {
-                Platform.runLater(() -> {
-                    messages.clear();
-                    messages.addAll(getValue());
-                    displayMessages(getValue());
-                });
+                if (getValue() != null) {
+                    showConversation(userId, getValue());
+                }
             }
         };
         
         new Thread(loadMessagesTask).start();
     }
     
+    private void showConversation(Long userId, List<Message> conversation) {
+        // Ignorar respuestas de un contacto que ya no está seleccionado
+        if (selectedUser == null || !userId.equals(selectedUser.getId())) {
+            return;
+        }
+        messages.setAll(conversation);
+        displayMessages(conversation);
+        reportRead(userId, conversation);
+    }
+    
+    /**
+     * Actualiza la lista virtualizada del chat
+     * Si la conversación mostrada es un prefijo de la nueva solo se agregan los mensajes nuevos;
+     * en otro caso se muestra la última página y las anteriores se anteponen al llegar arriba
+     */
     private void displayMessages(List<Message> messagesList) {
-        messagesContainer.getChildren().clear();
-        
-        for (Message msg : messagesList) {
-            // Determinar si el mensaje fue enviado por el usuario actual
-            boolean isSent = msg.getSenderId() != null && 
-                           currentUser != null && 
-                           currentUser.getId() != null && 
-                           msg.getSenderId().equals(currentUser.getId());
-            
-            // Crear la burbuja del mensaje
-            VBox messageBox = new VBox(5);
-            messageBox.setMaxWidth(450);
-            messageBox.setStyle(isSent ? 
-                "-fx-background-color: #D9FDD3; -fx-background-radius: 8px; -fx-padding: 10px;" :
-                "-fx-background-color: #FFFFFF; -fx-background-radius: 8px; -fx-padding: 10px;");
+        int shown = conversationItems.size();
+        boolean continues = shown > 0
+            && messagesList.size() >= loadedFrom + shown
+            && sameMessage(messagesList.get(loadedFrom), conversationItems.get(0))
+            && sameMessage(messagesList.get(loadedFrom + shown - 1), conversationItems.get(shown - 1));
+        
+        conversationSource = messagesList;
+        
+        if (continues) {
+            List<Message> newer = messagesList.subList(loadedFrom + shown, messagesList.size());
+            if (newer.isEmpty()) {
+                return;
+            }
+            conversationItems.addAll(newer);
+        } else {
+            loadedFrom = Math.max(0, messagesList.size() - MESSAGE_PAGE_SIZE);
+            conversationItems.setAll(messagesList.subList(loadedFrom, messagesList.size()));
+        }
+        
+        // Auto-scroll al final
+        messagesListView.scrollTo(conversationItems.size() - 1);
+    }
+    
+    /**
+     * Antepone la página anterior de la conversación cuando el usuario llega al inicio de la lista
+     */
+    private void loadOlderMessages() {
+        if (loadedFrom == 0) {
+            return;
+        }
+        
+        int from = Math.max(0, loadedFrom - MESSAGE_PAGE_SIZE);
+        List<Message> older = conversationSource.subList(from, loadedFrom);
+        conversationItems.addAll(0, older);
+        loadedFrom = from;
+        
+        // Mantener a la vista el mensaje que estaba arriba
+        messagesListView.scrollTo(older.size());
+    }
+    
+    private static boolean sameMessage(Message a, Message b) {
+        return a == b || (a.getId() != null && a.getId().equals(b.getId()));
+    }
+    
+    private void loadThumbnail(String serverFilePath, ImageView target) {
+        Image cached = thumbnailCache.get(serverFilePath);
+        if (cached != null) {
+            target.setImage(cached);
+            return;
+        }
+        
+        Task<byte[]> thumbnailTask = new Task<byte[]>() {
+            @Override
+            protected byte[] call() throws Exception {
+                return networkService.downloadThumbnail(serverFilePath);
+            }
             
-            // Si es un archivo o imagen, mostrar información del archivo
-            if (("FILE".equals(msg.getMessageType()) || "IMAGE".equals(msg.getMessageType())) 
-                && msg.getFileName() != null) {
-                
-                // Verificar si es una imagen
-                String fileName = msg.getFileName().toLowerCase();
-                boolean isImage = fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") || 
-                                fileName.endsWith(".png") || fileName.endsWith(".gif") || 
-                                fileName.endsWith(".bmp");
-                
-                // Información del archivo
-                HBox fileInfo = new HBox(8);
-                fileInfo.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
-                fileInfo.setStyle("-fx-cursor: hand; -fx-padding: 5px; -fx-background-color: rgba(0,0,0,0.05); -fx-background-radius: 5px;");
-                
-                Label fileIcon = new Label(isImage ? "🖼️" : "📎");
-                fileIcon.setStyle("-fx-font-size: 24px;");
-                
-                VBox fileDetails = new VBox(2);
-                Label fileNameLabel = new Label(msg.getFileName());
-                fileNameLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 13px; -fx-text-fill: #111B21;");
-                
-                Label fileInfoLabel = new Label(isImage ? "Imagen enviada - Click para descargar" : "Archivo enviado - Click para descargar");
-                fileInfoLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #667781;");
-                
-                fileDetails.getChildren().addAll(fileNameLabel, fileInfoLabel);
-                fileInfo.getChildren().addAll(fileIcon, fileDetails);
-                
-                // Click para descargar
-                fileInfo.setOnMouseClicked(e -> handleDownloadFile(msg));
-                
-                // Tooltip informativo
-                javafx.scene.control.Tooltip tooltip = new javafx.scene.control.Tooltip(
-                    "Click para descargar: " + msg.getFileName());
-                javafx.scene.control.Tooltip.install(fileInfo, tooltip);
-                
-                messageBox.getChildren().add(fileInfo);
-                
-                // Contenido adicional si existe
-                if (msg.getContent() != null && !msg.getContent().trim().isEmpty() 
-                    && !msg.getContent().startsWith("uploads/")) {
-                    Label contentLabel = new Label(msg.getContent());
-                    contentLabel.setWrapText(true);
-                    contentLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #111B21; -fx-padding: 5 0 0 0;");
-                    messageBox.getChildren().add(contentLabel);
+            @Override
+            protected void succeeded() {
+                byte[] bytes = getValue();
+                if (bytes != null) {
+                    Image image = new Image(new java.io.ByteArrayInputStream(bytes));
+                    thumbnailCache.put(serverFilePath, image);
+                    // La celda pudo reciclarse para otro mensaje mientras se descargaba
+                    if (serverFilePath.equals(target.getUserData())) {
+                        target.setImage(image);
+                    }
                 }
-            } else {
-                // Mensaje de texto normal
-                Label contentLabel = new Label(msg.getContent() != null ? msg.getContent() : "");
-                contentLabel.setWrapText(true);
-                contentLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #111B21;");
-                messageBox.getChildren().add(contentLabel);
             }
-            
-            // Hora del mensaje
-            Label timeLabel = new Label(msg.getFormattedTimestamp());
-            timeLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #667781;");
-            messageBox.getChildren().add(timeLabel);
-            
-            // Contenedor para alinear el mensaje (derecha si es enviado, izquierda si es recibido)
-            HBox container = new HBox();
-            container.setPadding(new Insets(5));
-            
-            if (isSent) {
-                // Mensajes enviados: alineados a la DERECHA
-                container.setAlignment(javafx.geometry.Pos.CENTER_RIGHT);
-            } else {
-                // Mensajes recibidos: alineados a la IZQUIERDA
-                container.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
+        };
+        
+        mediaExecutor.submit(thumbnailTask);
+    }
+    
+    /**
+     * Descarga el original a la carpeta local de la aplicación (si no está ya) y lo muestra
+     */
+    private void openOriginalImage(Message message) {
+        String serverPath = message.getContent();
+        String localName = serverPath.substring(serverPath.lastIndexOf('/') + 1);
+        String fileName = message.getFileName();
+        int extension = fileName.lastIndexOf('.');
+        if (extension >= 0 && !localName.endsWith(fileName.substring(extension))) {
+            localName += fileName.substring(extension);
+        }
+        File imageFile = new File(new File(System.getProperty("user.home"), ".messaging-client/images"), localName);
+        
+        Task<Boolean> originalTask = new Task<Boolean>() {
+            @Override
+            protected Boolean call() throws Exception {
+                if (imageFile.exists()) {
+                    return true;
+                }
+                imageFile.getParentFile().mkdirs();
+                return networkService.downloadFile(serverPath, imageFile);
             }
             
-            container.getChildren().add(messageBox);
-            messagesContainer.getChildren().add(container);
-        }
+            @Override
+            protected void succeeded() {
+                if (getValue()) {
+                    showImageFullScreen(imageFile.getAbsolutePath());
+                } else {
+                    imageFile.delete();
+                    showStatus("Error descargando imagen", false);
+                }
+            }
+        };
         
-        // Auto-scroll al final
-        Platform.runLater(() -> {
-            messagesScrollPane.setVvalue(1.0);
-        });
+        mediaExecutor.submit(originalTask);
     }
     
     private void showImageFullScreen(String imagePath) {
@@ -578,14 +727,157 @@ public class MainController implements Initializable {
         alert.showAndWait();
     }
     
-    private void startPeriodicUpdates() {
-        // Actualizar usuarios conectados cada 30 segundos
-        scheduler.scheduleAtFixedRate(() -> {
-            if (currentUser != null) {
-                Platform.runLater(this::loadConnectedUsers);
+    /**
+     * Caché del usuario autenticado; los mensajes pendientes pueden llegar antes de que el login
+     * termine en el hilo de JavaFX, así que ambos caminos la obtienen por aquí
+     */
+    private synchronized MessageCache cacheFor(Long userId) {
+        if (messageCache == null) {
+            messageCache = new MessageCache(userId);
+        }
+        return messageCache;
+    }
+    
+    /**
+     * Mensajes recibidos mientras se estaba desconectado o en vivo; se guardan antes de
+     * que NetworkService confirme la entrega al servidor
+     */
+    private void handleIncomingMessages(List<Message> delivered) {
+        Map<Long, List<Message>> byPeer = new LinkedHashMap<>();
+        MessageCache cache = null;
+        for (Message message : delivered) {
+            // Los mensajes de grupo (sin receptor) todavía no tienen vista en esta ventana
+            if (message.getReceiverId() == null || message.getSenderId() == null) {
+                continue;
+            }
+            if (cache == null) {
+                cache = cacheFor(message.getReceiverId());
             }
-        }, 30, 30, TimeUnit.SECONDS);
+            byPeer.computeIfAbsent(message.getSenderId(), id -> new ArrayList<>()).add(message);
+        }
+        if (cache == null) {
+            return;
+        }
+        
+        // Solo los que no estaban guardados: un lote repetido tras reconectar no se vuelve a mostrar
+        Map<Long, List<Message>> added = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<Message>> entry : byPeer.entrySet()) {
+            added.put(entry.getKey(), cache.storeDelivered(entry.getKey(), entry.getValue()));
+        }
         
+        Platform.runLater(() -> {
+            if (selectedUser != null && byPeer.containsKey(selectedUser.getId())) {
+                appendToConversation(selectedUser.getId(), added.get(selectedUser.getId()));
+            }
+            if (selectedUser == null || byPeer.size() > 1 || !byPeer.containsKey(selectedUser.getId())) {
+                loadUnreadCounts();
+            }
+        });
+    }
+    
+    /**
+     * Agrega a la vista solo los mensajes entregados, sin copiar ni recorrer la conversación guardada
+     * Un id menor al último mostrado (confirmado tarde en el servidor) se inserta en su lugar
+     */
+    private void appendToConversation(Long peerId, List<Message> delivered) {
+        if (delivered.isEmpty()) {
+            return;
+        }
+        for (Message message : delivered) {
+            insertById(conversationItems, message);
+            insertById(messages, message);
+        }
+        messagesListView.scrollTo(conversationItems.size() - 1);
+        reportRead(peerId, conversationItems);
+    }
+    
+    private static void insertById(List<Message> target, Message message) {
+        int position = target.size();
+        while (position > 0 && target.get(position - 1).getId() != null
+               && target.get(position - 1).getId() > message.getId()) {
+            position--;
+        }
+        target.add(position, message);
+    }
+    
+    /**
+     * RECEIPT:<DELIVERED|READ>:<contacto>:<hastaId>
+     */
+    private void handleReceipt(String data) {
+        String[] parts = data.split(":");
+        if (parts.length != 3) {
+            return;
+        }
+        try {
+            Long peerId = Long.parseLong(parts[1]);
+            long upTo = Long.parseLong(parts[2]);
+            Map<Long, Long> target = "READ".equals(parts[0]) ? readUpTo : deliveredUpTo;
+            target.merge(peerId, upTo, Math::max);
+            if ("READ".equals(parts[0])) {
+                // Leído implica entregado
+                deliveredUpTo.merge(peerId, upTo, Math::max);
+            }
+            
+            Platform.runLater(() -> {
+                if (selectedUser != null && peerId.equals(selectedUser.getId())) {
+                    messagesListView.refresh();
+                }
+            });
+        } catch (NumberFormatException e) {
+            logger.warn("Confirmación inválida: {}", data);
+        }
+    }
+    
+    private MessageCell.Status deliveryStatus(Message message) {
+        Long peerId = message.getReceiverId();
+        if (message.isRead() || readUpTo.getOrDefault(peerId, 0L) >= message.getId()) {
+            return MessageCell.Status.READ;
+        }
+        if (deliveredUpTo.getOrDefault(peerId, 0L) >= message.getId()) {
+            return MessageCell.Status.DELIVERED;
+        }
+        return MessageCell.Status.SENT;
+    }
+    
+    /**
+     * Informa al servidor hasta qué mensaje recibido se vio la conversación abierta
+     * Un solo READ_UP_TO por conversación, sin importar cuántos mensajes tenga
+     */
+    private void reportRead(Long peerId, List<Message> conversation) {
+        long lastReceived = 0L;
+        for (int i = conversation.size() - 1; i >= 0; i--) {
+            Message message = conversation.get(i);
+            if (peerId.equals(message.getSenderId()) && message.getId() != null) {
+                lastReceived = message.getId();
+                break;
+            }
+        }
+        if (unreadCounts.remove(peerId) != null) {
+            usersListView.refresh();
+        }
+        if (lastReceived > reportedReadUpTo.getOrDefault(peerId, 0L)) {
+            reportedReadUpTo.put(peerId, lastReceived);
+            networkService.sendReadUpTo(peerId, lastReceived);
+        }
+    }
+    
+    /**
+     * Estado de la sesión: al reanudarse se piden solo los mensajes posteriores al último guardado
+     */
+    private void handleConnectionChange(boolean connectedNow) {
+        Platform.runLater(() -> {
+            connectionStatusLabel.setText(connectedNow ? "Conectado" : "Reconectando...");
+            if (connectedNow && currentUser != null) {
+                loadConnectedUsers();
+                if (selectedUser != null) {
+                    loadMessagesWithUser(selectedUser.getId());
+                }
+            }
+        });
+    }
+    
+    private void startPeriodicUpdates() {
+        // La lista de usuarios ya no se consulta periódicamente: llega por PRESENCE_DELTA
         // Enviar ping cada 60 segundos
         scheduler.scheduleAtFixedRate(() -> {
             if (currentUser != null) {
@@ -611,7 +903,7 @@ public class MainController implements Initializable {
         noSelectionPane.setManaged(true);
         chatHeader.setVisible(false);
         messageInputPanel.setVisible(false);
-        messagesScrollPane.setVisible(false);
+        messagesListView.setVisible(false);
     }
     
     private void showChatWithUser(User user) {
@@ -619,7 +911,7 @@ public class MainController implements Initializable {
         noSelectionPane.setManaged(false);
         chatHeader.setVisible(true);
         messageInputPanel.setVisible(true);
-        messagesScrollPane.setVisible(true);
+        messagesListView.setVisible(true);
         
         selectedUserLabel.setText(user.getUsername());
         userStatusLabel.setText("Haz clic aquí para ver información");
@@ -633,7 +925,9 @@ public class MainController implements Initializable {
             onlineIndicator.setStyle("-fx-text-fill: #8696A0;");
         }
         
-        messagesContainer.getChildren().clear();
+        conversationItems.clear();
+        conversationSource = List.of();
+        loadedFrom = 0;
     }
     
     private void filterUsers(String searchText) {
@@ -671,6 +965,7 @@ public class MainController implements Initializable {
     
     public void shutdown() {
         scheduler.shutdown();
+        mediaExecutor.shutdownNow();
         networkService.disconnect();
         logger.info("Controlador principal cerrado");
     }
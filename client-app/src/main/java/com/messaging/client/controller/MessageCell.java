@@ -0,0 +1,193 @@
+package com.messaging.client.controller;
+
+import com.messaging.client.model.Message;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.Tooltip;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Celda reutilizable de la lista de mensajes del chat
+ * Los nodos de la burbuja se crean una sola vez por celda y en cada updateItem
+ * solo se cambian textos, estilos y visibilidad, así la lista solo tiene en memoria las celdas visibles
+ */
+public class MessageCell extends ListCell<Message> {
+
+    private static final String SENT_STYLE =
+        "-fx-background-color: #D9FDD3; -fx-background-radius: 8px; -fx-padding: 10px;";
+    private static final String RECEIVED_STYLE =
+        "-fx-background-color: #FFFFFF; -fx-background-radius: 8px; -fx-padding: 10px;";
+
+    /**
+     * Estado de un mensaje enviado según las confirmaciones del destinatario
+     */
+    public enum Status {
+        SENT, DELIVERED, READ
+    }
+
+    private final Supplier<Long> currentUserId;
+    private final BiConsumer<String, ImageView> thumbnailLoader;
+    private final Function<Message, Status> statusResolver;
+
+    private final HBox container;
+    private final VBox bubble;
+    private final ImageView preview;
+    private final HBox fileInfo;
+    private final Label fileIcon;
+    private final Label fileNameLabel;
+    private final Label fileInfoLabel;
+    private final Tooltip fileTooltip;
+    private final Label contentLabel;
+    private final Label timeLabel;
+    private final Label statusLabel;
+
+    public MessageCell(double thumbnailWidth, Supplier<Long> currentUserId,
+                       BiConsumer<String, ImageView> thumbnailLoader,
+                       Consumer<Message> onOpenImage, Consumer<Message> onDownload,
+                       Function<Message, Status> statusResolver) {
+        this.currentUserId = currentUserId;
+        this.thumbnailLoader = thumbnailLoader;
+        this.statusResolver = statusResolver;
+
+        preview = new ImageView();
+        preview.setPreserveRatio(true);
+        preview.setFitWidth(thumbnailWidth);
+        preview.setStyle("-fx-cursor: hand;");
+        preview.setOnMouseClicked(e -> {
+            if (getItem() != null) {
+                onOpenImage.accept(getItem());
+            }
+        });
+
+        fileIcon = new Label();
+        fileIcon.setStyle("-fx-font-size: 24px;");
+        fileNameLabel = new Label();
+        fileNameLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 13px; -fx-text-fill: #111B21;");
+        fileInfoLabel = new Label();
+        fileInfoLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #667781;");
+
+        fileInfo = new HBox(8, fileIcon, new VBox(2, fileNameLabel, fileInfoLabel));
+        fileInfo.setAlignment(Pos.CENTER_LEFT);
+        fileInfo.setStyle("-fx-cursor: hand; -fx-padding: 5px; -fx-background-color: rgba(0,0,0,0.05); -fx-background-radius: 5px;");
+        fileInfo.setOnMouseClicked(e -> {
+            if (getItem() != null) {
+                onDownload.accept(getItem());
+            }
+        });
+        fileTooltip = new Tooltip();
+        Tooltip.install(fileInfo, fileTooltip);
+
+        contentLabel = new Label();
+        contentLabel.setWrapText(true);
+
+        timeLabel = new Label();
+        timeLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #667781;");
+        statusLabel = new Label();
+
+        HBox footer = new HBox(4, timeLabel, statusLabel);
+        footer.setAlignment(Pos.CENTER_RIGHT);
+        bubble = new VBox(5, preview, fileInfo, contentLabel, footer);
+        bubble.setMaxWidth(450);
+
+        container = new HBox(bubble);
+        container.setPadding(new Insets(5));
+
+        setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        setStyle("-fx-background-color: transparent; -fx-padding: 0;");
+        // Evita que el ancho preferido de los textos largos genere scroll horizontal
+        setPrefWidth(0);
+    }
+
+    @Override
+    protected void updateItem(Message msg, boolean empty) {
+        super.updateItem(msg, empty);
+
+        if (empty || msg == null) {
+            preview.setImage(null);
+            preview.setUserData(null);
+            setGraphic(null);
+            return;
+        }
+
+        // Determinar si el mensaje fue enviado por el usuario actual
+        Long userId = currentUserId.get();
+        boolean isSent = msg.getSenderId() != null && userId != null && msg.getSenderId().equals(userId);
+
+        bubble.setStyle(isSent ? SENT_STYLE : RECEIVED_STYLE);
+        // Mensajes enviados a la derecha, recibidos a la izquierda
+        container.setAlignment(isSent ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+
+        boolean isFile = ("FILE".equals(msg.getMessageType()) || "IMAGE".equals(msg.getMessageType()))
+            && msg.getFileName() != null;
+
+        if (isFile) {
+            String fileName = msg.getFileName().toLowerCase();
+            boolean isImage = fileName.endsWith(".jpg") || fileName.endsWith(".jpeg") ||
+                            fileName.endsWith(".png") || fileName.endsWith(".gif") ||
+                            fileName.endsWith(".bmp");
+
+            show(preview, isImage);
+            if (isImage) {
+                // La celda puede reciclarse antes de que llegue la miniatura: se marca qué imagen espera
+                if (!msg.getContent().equals(preview.getUserData())) {
+                    preview.setImage(null);
+                    preview.setUserData(msg.getContent());
+                    thumbnailLoader.accept(msg.getContent(), preview);
+                }
+            } else {
+                preview.setImage(null);
+                preview.setUserData(null);
+            }
+
+            show(fileInfo, true);
+            fileIcon.setText(isImage ? "🖼️" : "📎");
+            fileNameLabel.setText(msg.getFileName());
+            fileInfoLabel.setText(isImage ? "Imagen enviada - Click para descargar" : "Archivo enviado - Click para descargar");
+            fileTooltip.setText("Click para descargar: " + msg.getFileName());
+
+            // Contenido adicional si existe
+            boolean hasCaption = msg.getContent() != null && !msg.getContent().trim().isEmpty()
+                && !msg.getContent().startsWith("uploads/");
+            show(contentLabel, hasCaption);
+            if (hasCaption) {
+                contentLabel.setText(msg.getContent());
+                contentLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #111B21; -fx-padding: 5 0 0 0;");
+            }
+        } else {
+            // Mensaje de texto normal
+            show(preview, false);
+            preview.setImage(null);
+            preview.setUserData(null);
+            show(fileInfo, false);
+            show(contentLabel, true);
+            contentLabel.setText(msg.getContent() != null ? msg.getContent() : "");
+            contentLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #111B21;");
+        }
+
+        timeLabel.setText(msg.getFormattedTimestamp());
+        show(statusLabel, isSent);
+        if (isSent) {
+            Status status = msg.getId() != null ? statusResolver.apply(msg) : Status.SENT;
+            statusLabel.setText(status == Status.SENT ? "✓" : "✓✓");
+            statusLabel.setStyle(status == Status.READ
+                ? "-fx-font-size: 11px; -fx-text-fill: #53BDEB;"
+                : "-fx-font-size: 11px; -fx-text-fill: #667781;");
+        }
+        setGraphic(container);
+    }
+
+    private static void show(javafx.scene.Node node, boolean visible) {
+        node.setVisible(visible);
+        node.setManaged(visible);
+    }
+}
@@ -0,0 +1,108 @@
+package com.messaging.client.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias con cubetas log-lineales (precisión ~3%)
+ * Es seguro para registrar desde muchos hilos sin bloqueos
+ */
+public class LatencyHistogram {
+    
+    // 32 subcubetas por potencia de dos, de 1 µs hasta ~2^36 µs
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 36;
+    
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong maxMicros;
+    
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+        this.count = new AtomicLong();
+        this.maxMicros = new AtomicLong();
+    }
+    
+    public void record(long micros) {
+        long value = Math.max(1, micros);
+        buckets.incrementAndGet(indexFor(value));
+        count.incrementAndGet();
+        maxMicros.accumulateAndGet(value, Math::max);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+    
+    /**
+     * Valor aproximado del percentil indicado (0-100) en microsegundos
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(upperBoundFor(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+    
+    /**
+     * Copiar y reiniciar el histograma, usado para los reportes por intervalo
+     */
+    public LatencyHistogram drain() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < buckets.length(); i++) {
+            long value = buckets.getAndSet(i, 0);
+            if (value > 0) {
+                snapshot.buckets.set(i, value);
+            }
+        }
+        snapshot.count.set(count.getAndSet(0));
+        snapshot.maxMicros.set(maxMicros.getAndSet(0));
+        return snapshot;
+    }
+    
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < buckets.length(); i++) {
+            long value = other.buckets.get(i);
+            if (value > 0) {
+                buckets.addAndGet(i, value);
+            }
+        }
+        count.addAndGet(other.count.get());
+        maxMicros.accumulateAndGet(other.maxMicros.get(), Math::max);
+    }
+    
+    private static int indexFor(long value) {
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        int index = (shift + 1) * SUB_BUCKETS + subBucket;
+        return Math.min(index, MAGNITUDES * SUB_BUCKETS - 1);
+    }
+    
+    private static long upperBoundFor(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
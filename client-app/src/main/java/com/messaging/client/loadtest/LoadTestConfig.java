@@ -0,0 +1,172 @@
+package com.messaging.client.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Parámetros del generador de carga, leídos de la línea de comandos
+ */
+public class LoadTestConfig {
+    
+    private String host = "localhost";
+    private int port = 9999;
+    private int clients = 100;
+    private String usernamePrefix = "loadtest";
+    private String password = "loadtest";
+    private double rate = 200.0;
+    private int durationSeconds = 60;
+    private int rampUpSeconds = 10;
+    private int reportIntervalSeconds = 5;
+    private int workers = 64;
+    private int fileSize = 64 * 1024;
+    private final Map<Operation, Integer> mix;
+    
+    public LoadTestConfig() {
+        this.mix = new EnumMap<>(Operation.class);
+        mix.put(Operation.SEND_MESSAGE, 60);
+        mix.put(Operation.GET_MESSAGES_WITH_USER, 20);
+        mix.put(Operation.GET_USERS, 10);
+        mix.put(Operation.PING, 8);
+        mix.put(Operation.SEND_FILE, 2);
+    }
+    
+    public static LoadTestConfig fromArgs(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ("--help".equals(option)) {
+                throw new IllegalArgumentException(usage());
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Falta el valor de " + option + "\n" + usage());
+            }
+            String value = args[++i];
+            
+            switch (option) {
+                case "--host":
+                    config.host = value;
+                    break;
+                case "--port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "--clients":
+                    config.clients = Integer.parseInt(value);
+                    break;
+                case "--user-prefix":
+                    config.usernamePrefix = value;
+                    break;
+                case "--password":
+                    config.password = value;
+                    break;
+                case "--rate":
+                    config.rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    config.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--ramp-up":
+                    config.rampUpSeconds = Integer.parseInt(value);
+                    break;
+                case "--report-interval":
+                    config.reportIntervalSeconds = Integer.parseInt(value);
+                    break;
+                case "--workers":
+                    config.workers = Integer.parseInt(value);
+                    break;
+                case "--file-size":
+                    config.fileSize = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    config.parseMix(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + option + "\n" + usage());
+            }
+        }
+        
+        if (config.clients < 2) {
+            throw new IllegalArgumentException("Se necesitan al menos 2 clientes para enviar mensajes entre ellos");
+        }
+        return config;
+    }
+    
+    /**
+     * Formato: send=60,history=20,users=10,ping=8,file=2
+     */
+    private void parseMix(String value) {
+        mix.clear();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Mezcla inválida: " + entry);
+            }
+            Operation operation = Operation.fromAlias(parts[0].trim());
+            mix.put(operation, Integer.parseInt(parts[1].trim()));
+        }
+    }
+    
+    public static String usage() {
+        return "Uso: java -cp messaging-client-1.0.jar com.messaging.client.loadtest.LoadTestRunner [opciones]\n" +
+               "  --host <host>             servidor (localhost)\n" +
+               "  --port <puerto>           puerto (9999)\n" +
+               "  --clients <n>             sesiones concurrentes autenticadas (100)\n" +
+               "  --user-prefix <prefijo>   usuarios <prefijo>1..<prefijo>N (loadtest)\n" +
+               "  --password <clave>        clave de los usuarios (loadtest)\n" +
+               "  --rate <ops/s>            tasa objetivo total (200)\n" +
+               "  --duration <s>            duración de la medición (60)\n" +
+               "  --ramp-up <s>             tiempo para abrir las sesiones (10)\n" +
+               "  --report-interval <s>     intervalo de reporte (5)\n" +
+               "  --workers <n>             hilos que ejecutan operaciones (64)\n" +
+               "  --file-size <bytes>       tamaño de los archivos enviados (65536)\n" +
+               "  --mix send=60,history=20,users=10,ping=8,file=2";
+    }
+    
+    public String getHost() {
+        return host;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public int getClients() {
+        return clients;
+    }
+    
+    public String getUsernamePrefix() {
+        return usernamePrefix;
+    }
+    
+    public String getPassword() {
+        return password;
+    }
+    
+    public double getRate() {
+        return rate;
+    }
+    
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+    
+    public int getRampUpSeconds() {
+        return rampUpSeconds;
+    }
+    
+    public int getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+    
+    public int getWorkers() {
+        return workers;
+    }
+    
+    public int getFileSize() {
+        return fileSize;
+    }
+    
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+}
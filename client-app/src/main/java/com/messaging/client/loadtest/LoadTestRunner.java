@@ -0,0 +1,235 @@
+package com.messaging.client.loadtest;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generador de carga sin interfaz gráfica
+ * Abre N sesiones autenticadas contra MessagingServer y ejecuta una mezcla
+ * configurable de comandos a una tasa objetivo, reportando percentiles de latencia
+ * 
+ * Los usuarios se crean con database/loadtest-users.sql
+ */
+public class LoadTestRunner {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestRunner.class);
+    private static final long TICK_MILLIS = 10;
+    private static final int ACQUIRE_ATTEMPTS = 4;
+    
+    private final LoadTestConfig config;
+    private final LoadTestStats stats;
+    private final List<LoadTestSession> sessions;
+    private final Operation[] weightedOperations;
+    
+    private File attachment;
+    
+    public LoadTestRunner(LoadTestConfig config) {
+        this.config = config;
+        this.stats = new LoadTestStats();
+        this.sessions = Collections.synchronizedList(new ArrayList<>());
+        this.weightedOperations = buildWeightedOperations(config.getMix());
+    }
+    
+    public void run() throws Exception {
+        attachment = createAttachment(config.getFileSize());
+        
+        try {
+            openSessions();
+            if (sessions.size() < 2) {
+                System.err.println("No se pudieron autenticar suficientes sesiones, abortando");
+                return;
+            }
+            generateLoad();
+        } finally {
+            sessions.forEach(LoadTestSession::close);
+            Files.deleteIfExists(attachment.toPath());
+        }
+    }
+    
+    /**
+     * Abrir las sesiones repartidas a lo largo del tiempo de ramp-up
+     */
+    private void openSessions() throws InterruptedException {
+        int clients = config.getClients();
+        long spacingMicros = TimeUnit.SECONDS.toMicros(config.getRampUpSeconds()) / clients;
+        AtomicInteger failures = new AtomicInteger();
+        
+        ExecutorService connectors = Executors.newFixedThreadPool(Math.min(clients, 32));
+        long start = System.nanoTime();
+        
+        System.out.printf("Abriendo %d sesiones contra %s:%d...%n", clients, config.getHost(), config.getPort());
+        
+        for (int i = 1; i <= clients; i++) {
+            String username = config.getUsernamePrefix() + i;
+            long dueNanos = start + TimeUnit.MICROSECONDS.toNanos(spacingMicros * (i - 1));
+            connectors.submit(() -> {
+                sleepUntil(dueNanos);
+                LoadTestSession session = new LoadTestSession(username, config.getHost(), config.getPort());
+                if (session.open(config.getPassword())) {
+                    sessions.add(session);
+                } else {
+                    failures.incrementAndGet();
+                }
+            });
+        }
+        
+        connectors.shutdown();
+        connectors.awaitTermination(config.getRampUpSeconds() + 120L, TimeUnit.SECONDS);
+        
+        System.out.printf("Sesiones abiertas: %d, fallidas: %d (%.1f s)%n",
+            sessions.size(), failures.get(), (System.nanoTime() - start) / 1e9);
+    }
+    
+    /**
+     * Carga de lazo abierto: las operaciones se programan según la tasa objetivo
+     * y la latencia se mide desde el instante programado, no desde el inicio real
+     */
+    private void generateLoad() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(config.getWorkers());
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        
+        long start = System.nanoTime();
+        double nanosPerOperation = 1e9 / config.getRate();
+        long[] scheduled = {0};
+        
+        scheduler.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            long due = (long) ((now - start) / nanosPerOperation);
+            while (scheduled[0] < due) {
+                long intendedStart = start + (long) (scheduled[0] * nanosPerOperation);
+                scheduled[0]++;
+                dispatch(workers, intendedStart);
+            }
+        }, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        
+        int interval = config.getReportIntervalSeconds();
+        scheduler.scheduleAtFixedRate(() -> stats.reportInterval(
+            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), interval),
+            interval, interval, TimeUnit.SECONDS);
+        
+        System.out.printf("Generando %.1f ops/s durante %d s con %d sesiones%n",
+            config.getRate(), config.getDurationSeconds(), sessions.size());
+        
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.getDurationSeconds()));
+        
+        scheduler.shutdownNow();
+        // Un reporte de intervalo en curso debe terminar antes de sumar lo que queda
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        workers.shutdown();
+        workers.awaitTermination(60, TimeUnit.SECONDS);
+        
+        stats.reportSummary(config.getDurationSeconds());
+    }
+    
+    private void dispatch(ExecutorService workers, long intendedStart) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LoadTestSession session = acquireSession(random);
+        if (session == null) {
+            stats.recordDropped();
+            return;
+        }
+        
+        Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+        Long peerId = pickPeer(session, random);
+        
+        workers.submit(() -> {
+            try {
+                boolean ok = session.execute(operation, peerId, attachment);
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+                if (ok) {
+                    stats.recordSuccess(operation, micros);
+                } else {
+                    stats.recordError(operation);
+                }
+            } catch (Exception e) {
+                logger.debug("Error en operación {}: {}", operation, e.getMessage());
+                stats.recordError(operation);
+            } finally {
+                session.release();
+            }
+        });
+    }
+    
+    private LoadTestSession acquireSession(Random random) {
+        for (int attempt = 0; attempt < ACQUIRE_ATTEMPTS; attempt++) {
+            LoadTestSession candidate = sessions.get(random.nextInt(sessions.size()));
+            if (candidate.tryAcquire()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+    
+    private Long pickPeer(LoadTestSession session, Random random) {
+        LoadTestSession peer;
+        do {
+            peer = sessions.get(random.nextInt(sessions.size()));
+        } while (peer == session);
+        return peer.getUserId();
+    }
+    
+    private static Operation[] buildWeightedOperations(Map<Operation, Integer> mix) {
+        List<Operation> weighted = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("La mezcla de operaciones está vacía");
+        }
+        return weighted.toArray(new Operation[0]);
+    }
+    
+    private static File createAttachment(int size) throws IOException {
+        File file = File.createTempFile("loadtest-", ".bin");
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+    
+    private static void sleepUntil(long dueNanos) {
+        long remaining = dueNanos - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        
+        // El logging por operación de NetworkService distorsiona la medición
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.messaging")).setLevel(Level.WARN);
+        
+        new LoadTestRunner(config).run();
+        System.exit(0);
+    }
+}
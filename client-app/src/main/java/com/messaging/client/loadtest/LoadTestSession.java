@@ -0,0 +1,91 @@
+package com.messaging.client.loadtest;
+
+import com.messaging.client.model.User;
+import com.messaging.client.service.NetworkService;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sesión autenticada simulada, reutiliza el protocolo de NetworkService
+ * Una sesión ejecuta una sola operación a la vez, igual que el cliente real
+ */
+public class LoadTestSession {
+    
+    private static final long RESPONSE_TIMEOUT_SECONDS = 30;
+    
+    private final String username;
+    private final NetworkService networkService;
+    private final AtomicBoolean busy;
+    private Long userId;
+    
+    public LoadTestSession(String username, String host, int port) {
+        this.username = username;
+        this.networkService = new NetworkService(host, port);
+        this.busy = new AtomicBoolean(false);
+    }
+    
+    public boolean open(String password) {
+        User user = networkService.authenticateAndGetUser(username, password);
+        if (user == null || user.getId() == null) {
+            networkService.disconnect();
+            return false;
+        }
+        userId = user.getId();
+        return true;
+    }
+    
+    public boolean tryAcquire() {
+        return busy.compareAndSet(false, true);
+    }
+    
+    public void release() {
+        busy.set(false);
+    }
+    
+    /**
+     * Ejecutar una operación y devolver si el servidor respondió correctamente
+     */
+    public boolean execute(Operation operation, Long peerId, File attachment) {
+        switch (operation) {
+            case SEND_MESSAGE:
+                // Lo que solo quedó en la bandeja de salida no es un envío exitoso
+                return networkService.sendMessageWithResult(peerId, "carga " + System.nanoTime())
+                    == NetworkService.SendResult.SENT;
+            case GET_MESSAGES_WITH_USER:
+                // Solo cuenta si llegó MESSAGES:, aunque la conversación esté vacía
+                try {
+                    networkService.getMessagesWithUserAsync(peerId, 0L).get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (Exception e) {
+                    return false;
+                }
+            case GET_USERS:
+                // La propia sesión está conectada, una lista vacía indica error
+                return !networkService.getConnectedUsers().isEmpty();
+            case PING:
+                // El ping no bloquea por sí mismo: se espera su PONG para medirlo
+                return networkService.sendPing().join();
+            case SEND_FILE:
+                return networkService.sendFile(peerId, attachment);
+            default:
+                return false;
+        }
+    }
+    
+    public void close() {
+        networkService.disconnect();
+    }
+    
+    public String getUsername() {
+        return username;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+}
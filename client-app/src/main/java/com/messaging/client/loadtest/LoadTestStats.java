@@ -0,0 +1,119 @@
+package com.messaging.client.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Métricas del generador de carga: latencias, errores y operaciones descartadas
+ */
+public class LoadTestStats {
+    
+    private final Map<Operation, LatencyHistogram> intervalLatencies;
+    private final Map<Operation, LatencyHistogram> totalLatencies;
+    private final Map<Operation, AtomicLong> intervalErrors;
+    private final Map<Operation, AtomicLong> totalErrors;
+    private final AtomicLong intervalDropped;
+    private final AtomicLong totalDropped;
+    
+    public LoadTestStats() {
+        this.intervalLatencies = new EnumMap<>(Operation.class);
+        this.totalLatencies = new EnumMap<>(Operation.class);
+        this.intervalErrors = new EnumMap<>(Operation.class);
+        this.totalErrors = new EnumMap<>(Operation.class);
+        this.intervalDropped = new AtomicLong();
+        this.totalDropped = new AtomicLong();
+        
+        for (Operation operation : Operation.values()) {
+            intervalLatencies.put(operation, new LatencyHistogram());
+            totalLatencies.put(operation, new LatencyHistogram());
+            intervalErrors.put(operation, new AtomicLong());
+            totalErrors.put(operation, new AtomicLong());
+        }
+    }
+    
+    public void recordSuccess(Operation operation, long micros) {
+        intervalLatencies.get(operation).record(micros);
+    }
+    
+    public void recordError(Operation operation) {
+        intervalErrors.get(operation).incrementAndGet();
+    }
+    
+    /**
+     * Operación que no pudo iniciarse porque todas las sesiones elegidas estaban ocupadas
+     */
+    public void recordDropped() {
+        intervalDropped.incrementAndGet();
+    }
+    
+    /**
+     * Imprimir el intervalo actual y acumularlo en los totales
+     */
+    public void reportInterval(long elapsedSeconds, int intervalSeconds) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%n[t=%ds]%n", elapsedSeconds));
+        appendHeader(report);
+        
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram interval = intervalLatencies.get(operation).drain();
+            long errors = intervalErrors.get(operation).getAndSet(0);
+            totalLatencies.get(operation).add(interval);
+            totalErrors.get(operation).addAndGet(errors);
+            appendRow(report, operation, interval, errors, intervalSeconds);
+        }
+        
+        long dropped = intervalDropped.getAndSet(0);
+        totalDropped.addAndGet(dropped);
+        report.append(String.format("descartadas (sesiones ocupadas): %d%n", dropped));
+        System.out.print(report);
+    }
+    
+    /**
+     * Imprimir los totales; antes se suma lo registrado después del último intervalo,
+     * incluidas las operaciones que seguían en curso al terminar la prueba
+     */
+    public void reportSummary(int durationSeconds) {
+        for (Operation operation : Operation.values()) {
+            totalLatencies.get(operation).add(intervalLatencies.get(operation).drain());
+            totalErrors.get(operation).addAndGet(intervalErrors.get(operation).getAndSet(0));
+        }
+        totalDropped.addAndGet(intervalDropped.getAndSet(0));
+        
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%n=== RESUMEN (%ds) ===%n", durationSeconds));
+        appendHeader(report);
+        
+        long operations = 0;
+        long errors = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram total = totalLatencies.get(operation);
+            long operationErrors = totalErrors.get(operation).get();
+            operations += total.getCount();
+            errors += operationErrors;
+            appendRow(report, operation, total, operationErrors, durationSeconds);
+        }
+        
+        report.append(String.format("total: %d ok, %d errores, %d descartadas, %.1f ops/s%n",
+            operations, errors, totalDropped.get(), operations / (double) Math.max(1, durationSeconds)));
+        System.out.print(report);
+    }
+    
+    private static void appendHeader(StringBuilder report) {
+        report.append(String.format("%-24s %9s %9s %8s %10s %10s %10s %10s%n",
+            "operación", "ok", "errores", "ops/s", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)"));
+    }
+    
+    private static void appendRow(StringBuilder report, Operation operation, LatencyHistogram histogram,
+                                  long errors, int seconds) {
+        report.append(String.format("%-24s %9d %9d %8.1f %10.2f %10.2f %10.2f %10.2f%n",
+            operation.name(),
+            histogram.getCount(),
+            errors,
+            histogram.getCount() / (double) Math.max(1, seconds),
+            histogram.percentile(50) / 1000.0,
+            histogram.percentile(95) / 1000.0,
+            histogram.percentile(99) / 1000.0,
+            histogram.getMaxMicros() / 1000.0));
+    }
+}
@@ -0,0 +1,32 @@
+package com.messaging.client.loadtest;
+
+/**
+ * Operaciones del protocolo que ejecuta el generador de carga
+ */
+public enum Operation {
+    
+    SEND_MESSAGE("send"),
+    GET_MESSAGES_WITH_USER("history"),
+    GET_USERS("users"),
+    PING("ping"),
+    SEND_FILE("file");
+    
+    private final String alias;
+    
+    Operation(String alias) {
+        this.alias = alias;
+    }
+    
+    public String getAlias() {
+        return alias;
+    }
+    
+    public static Operation fromAlias(String alias) {
+        for (Operation operation : values()) {
+            if (operation.alias.equalsIgnoreCase(alias) || operation.name().equalsIgnoreCase(alias)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Operación desconocida: " + alias);
+    }
+}
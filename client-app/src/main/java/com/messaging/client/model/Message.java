@@ -9,8 +9,12 @@ import java.time.LocalDateTime;
 public class Message {
     
     private Long id;
+    // Clave de idempotencia generada por el cliente; permite reenviar sin duplicar
+    private String clientMessageId;
     private Long senderId;
     private Long receiverId;
+    // Solo en mensajes de grupo (sin receptor)
+    private Long groupId;
     private String messageType;
     private String content;
     private String fileName;
@@ -45,6 +49,14 @@ public class Message {
         this.id = id;
     }
     
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+    
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+    
     public Long getSenderId() {
         return senderId;
     }
@@ -61,6 +73,14 @@ public class Message {
         this.receiverId = receiverId;
     }
     
+    public Long getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+    
     public String getMessageType() {
         return messageType;
     }
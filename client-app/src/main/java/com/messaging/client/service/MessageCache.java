@@ -0,0 +1,235 @@
+package com.messaging.client.service;
+
+import com.messaging.client.codec.JsonCodec;
+import com.messaging.client.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caché local de conversaciones en disco
+ * Cada conversación es un archivo JSON Lines (un mensaje por línea) en
+ * ~/.messaging-client/cache/<usuario>/<contacto>.jsonl, indexado en memoria por id de mensaje
+ * Los mensajes entregados en vivo pueden dejar huecos (p. ej. lo enviado desde otro equipo), por eso
+ * la sincronización incremental usa una marca aparte (<contacto>.synced) y no el mayor id guardado
+ */
+public class MessageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageCache.class);
+
+    private final Path userDirectory;
+    private final JsonCodec jsonCodec;
+    private final Map<Long, Conversation> conversations;
+
+    public MessageCache(Long userId) {
+        this(Paths.get(System.getProperty("user.home"), ".messaging-client", "cache", String.valueOf(userId)));
+    }
+
+    public MessageCache(Path userDirectory) {
+        this.userDirectory = userDirectory;
+        this.jsonCodec = JsonCodec.getInstance();
+        this.conversations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Mensajes guardados de la conversación, en orden de id
+     */
+    public List<Message> getConversation(Long peerId) {
+        Conversation conversation = load(peerId);
+        synchronized (conversation) {
+            return new ArrayList<>(conversation.messages.values());
+        }
+    }
+
+    /**
+     * Id hasta el que la conversación está completa; el servidor solo debe enviar lo posterior
+     */
+    public long getLastMessageId(Long peerId) {
+        Conversation conversation = load(peerId);
+        synchronized (conversation) {
+            return conversation.syncedUpTo;
+        }
+    }
+
+    /**
+     * Agrega el resultado de una sincronización con el servidor (todo lo posterior a getLastMessageId)
+     * y avanza la marca de sincronización
+     */
+    public void append(Long peerId, List<Message> messages) {
+        Conversation conversation = load(peerId);
+
+        synchronized (conversation) {
+            store(peerId, conversation, messages);
+
+            long synced = conversation.syncedUpTo;
+            for (Message message : messages) {
+                if (message.getId() != null) {
+                    synced = Math.max(synced, message.getId());
+                }
+            }
+            if (synced != conversation.syncedUpTo) {
+                conversation.syncedUpTo = synced;
+                writeSyncMark(peerId, synced);
+            }
+        }
+    }
+
+    /**
+     * Guarda mensajes entregados en vivo sin mover la marca: puede haber anteriores aún no descargados
+     *
+     * @return los que no estaban guardados, en el orden recibido
+     */
+    public List<Message> storeDelivered(Long peerId, List<Message> messages) {
+        Conversation conversation = load(peerId);
+        synchronized (conversation) {
+            return store(peerId, conversation, messages);
+        }
+    }
+
+    /**
+     * Agrega los mensajes nuevos a memoria y al final del archivo; ignora ids ya guardados
+     */
+    private List<Message> store(Long peerId, Conversation conversation, List<Message> messages) {
+        List<Message> added = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.getId() != null && !conversation.messages.containsKey(message.getId())) {
+                conversation.messages.put(message.getId(), message);
+                added.add(message);
+            }
+        }
+
+        if (added.isEmpty()) {
+            return added;
+        }
+
+        try {
+            Files.createDirectories(userDirectory);
+            try (BufferedWriter writer = Files.newBufferedWriter(conversationFile(peerId), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Message message : added) {
+                    writer.write(jsonCodec.writeMessage(message));
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo guardar la caché de la conversación {}: {}", peerId, e.getMessage());
+        }
+        return added;
+    }
+
+    private Conversation load(Long peerId) {
+        return conversations.computeIfAbsent(peerId, id -> {
+            TreeMap<Long, Message> conversation = new TreeMap<>();
+            Path file = conversationFile(id);
+            if (!Files.exists(file)) {
+                return new Conversation(conversation, 0L);
+            }
+
+            boolean damaged = false;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        Message message = jsonCodec.readMessage(line);
+                        if (message.getId() != null) {
+                            conversation.put(message.getId(), message);
+                        }
+                    } catch (IOException e) {
+                        // Una línea cortada (cierre abrupto) no invalida el resto
+                        logger.debug("Línea inválida en caché {}: {}", file, e.getMessage());
+                        damaged = true;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("No se pudo leer la caché {}: {}", file, e.getMessage());
+            }
+
+            if (damaged) {
+                rewrite(file, conversation);
+            }
+            return new Conversation(conversation, readSyncMark(id, conversation));
+        });
+    }
+
+    /**
+     * Cachés anteriores a la marca solo tenían mensajes sincronizados: se usa el mayor id
+     */
+    private long readSyncMark(Long peerId, TreeMap<Long, Message> conversation) {
+        Path mark = syncMarkFile(peerId);
+        try {
+            if (Files.exists(mark)) {
+                return Long.parseLong(Files.readString(mark, StandardCharsets.UTF_8).trim());
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.debug("Marca de sincronización inválida {}: {}", mark, e.getMessage());
+            return 0L;
+        }
+        return conversation.isEmpty() ? 0L : conversation.lastKey();
+    }
+
+    private void writeSyncMark(Long peerId, long syncedUpTo) {
+        try {
+            Files.createDirectories(userDirectory);
+            Files.writeString(syncMarkFile(peerId), Long.toString(syncedUpTo), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("No se pudo guardar la marca de sincronización {}: {}", peerId, e.getMessage());
+        }
+    }
+
+    /**
+     * Reescribe el archivo sin las líneas dañadas para que los próximos append no queden pegados a ellas
+     */
+    private void rewrite(Path file, TreeMap<Long, Message> conversation) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Message message : conversation.values()) {
+                writer.write(jsonCodec.writeMessage(message));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo reparar la caché {}: {}", file, e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("No se pudo reemplazar la caché {}: {}", file, e.getMessage());
+        }
+    }
+
+    private Path conversationFile(Long peerId) {
+        return userDirectory.resolve(peerId + ".jsonl");
+    }
+
+    private Path syncMarkFile(Long peerId) {
+        return userDirectory.resolve(peerId + ".synced");
+    }
+
+    private static final class Conversation {
+        private final TreeMap<Long, Message> messages;
+        private long syncedUpTo;
+
+        private Conversation(TreeMap<Long, Message> messages, long syncedUpTo) {
+            this.messages = messages;
+            this.syncedUpTo = syncedUpTo;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.messaging.client.service;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Genera las claves de idempotencia de los mensajes como UUIDv7 (RFC 9562)
+ * 48 bits de milisegundos, 12 bits de secuencia y 62 bits aleatorios: se asignan sin
+ * consultar la base y quedan ordenados por tiempo de creación
+ */
+public final class MessageIdGenerator {
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static long lastMillis;
+    private static int sequence;
+
+    private MessageIdGenerator() {
+    }
+
+    public static String next() {
+        long millis;
+        int seq;
+        synchronized (MessageIdGenerator.class) {
+            millis = System.currentTimeMillis();
+            if (millis <= lastMillis) {
+                // Mismo milisegundo (o reloj atrasado): la secuencia mantiene el orden
+                millis = lastMillis;
+                sequence++;
+                if (sequence > 0xFFF) {
+                    millis++;
+                    sequence = 0;
+                }
+            } else {
+                sequence = random.nextInt(0x800);
+            }
+            lastMillis = millis;
+            seq = sequence;
+        }
+
+        long mostSigBits = (millis & 0xFFFFFFFFFFFFL) << 16 | 0x7000L | seq;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
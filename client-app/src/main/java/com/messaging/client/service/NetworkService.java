@@ -1,6 +1,9 @@
 package com.messaging.client.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.messaging.client.codec.JsonCodec;
+import com.messaging.client.codec.PayloadFormat;
 import com.messaging.client.model.Message;
 import com.messaging.client.model.User;
 import org.slf4j.Logger;
@@ -8,10 +11,48 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Conexión con el servidor multiplexada
+ * Un único hilo lector recibe todas las líneas: las respuestas completan en orden (FIFO)
+ * los CompletableFuture de las solicitudes pendientes y los avisos del servidor (push)
+ * se entregan a los listeners registrados por prefijo
+ * Las escrituras pasan por un lock justo, así solicitud y registro de su future son atómicos
+ * Si la conexión se pierde después de autenticarse, reconecta con backoff exponencial
+ * con jitter, vuelve a autenticar y reenvía los mensajes sin confirmar
+ * Los mensajes recibidos llegan como aviso PENDING_MESSAGES y se confirman con ACK_DELIVERED
+ */
 public class NetworkService {
 
     private static final Logger logger = LoggerFactory.getLogger(NetworkService.class);
@@ -19,19 +60,86 @@ public class NetworkService {
 
     private final String serverHost;
     private final int serverPort;
-    private final ObjectMapper objectMapper;
+    private final JsonCodec jsonCodec;
+    private final PayloadFormat preferredFormat;
+
+    private static final long REQUEST_TIMEOUT_SECONDS = 30;
+    private static final long TRANSFER_TIMEOUT_SECONDS = 120;
+    private static final long RECONNECT_BASE_MILLIS = 500;
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+    private static final int MAX_OUTBOX_SIZE = 500;
+    private static final int SEND_ATTEMPTS = 2;
 
-    private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private volatile Connection connection;
     private final AtomicBoolean connected;
+    private volatile PayloadFormat payloadFormat;
+
+    // Protege la escritura en el socket y el tramo exclusivo de las transferencias; nunca se
+    // retiene mientras se espera una respuesta
+    private final ReentrantLock writeLock;
+    private final Condition exclusiveReleased;
+    // Hilo que tiene la conexión para sí entre el inicio de una transferencia y su última línea
+    private Thread exclusiveOwner;
+    // Líneas sin respuesta retenidas durante ese tramo; salen en orden al terminarlo
+    private final List<String> heldLines;
+    private final Map<String, List<Consumer<String>>> pushListeners;
+    // Los listeners corren fuera del hilo lector, que nunca debe bloquearse
+    private final ExecutorService pushExecutor;
+    private final List<Consumer<List<Message>>> incomingListeners;
+    // Identifica este equipo ante el servidor: cada dispositivo tiene su propio cursor de entrega
+    private final String deviceId;
+
+    // Sesión a reanudar tras una caída: credenciales y mensajes enviados sin MESSAGE_SENT
+    private volatile String sessionUsername;
+    private volatile String sessionPassword;
+    private final AtomicBoolean reconnectScheduled;
+    private final AtomicInteger reconnectAttempts;
+    // Instante hasta el que el servidor pidió no reintentar (SERVER_BUSY, SERVER_DRAINING)
+    private volatile long busyUntilMillis;
+    private final ScheduledExecutorService reconnectScheduler;
+    private final Map<String, Message> outbox;
+    private final List<Consumer<Boolean>> connectionListeners;
+    private final List<BiConsumer<List<User>, List<Long>>> presenceListeners;
 
     private NetworkService() {
-        this.serverHost = "192.168.137.1"; // En producción sería configurable
-        this.serverPort = 9999; // Puerto del servidor
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        this("192.168.137.1", 9999); // En producción sería configurable
+    }
+
+    /**
+     * Conexión independiente del singleton de la interfaz
+     * Usada por herramientas sin interfaz gráfica como el generador de carga
+     */
+    public NetworkService(String serverHost, int serverPort) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.jsonCodec = JsonCodec.getInstance();
+        // Smile por defecto; -Dmessaging.payload.format=JSON para depurar el tráfico
+        this.preferredFormat = PayloadFormat.fromName(System.getProperty("messaging.payload.format", "SMILE"));
+        this.payloadFormat = PayloadFormat.JSON;
         this.connected = new AtomicBoolean(false);
+        this.writeLock = new ReentrantLock(true);
+        this.exclusiveReleased = writeLock.newCondition();
+        this.heldLines = new ArrayList<>();
+        this.pushListeners = new ConcurrentHashMap<>();
+        this.pushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NetworkPush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.incomingListeners = new CopyOnWriteArrayList<>();
+        this.deviceId = loadDeviceId();
+        this.reconnectScheduled = new AtomicBoolean(false);
+        this.reconnectAttempts = new AtomicInteger(0);
+        this.reconnectScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NetworkReconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.outbox = Collections.synchronizedMap(new LinkedHashMap<>());
+        this.connectionListeners = new CopyOnWriteArrayList<>();
+        this.presenceListeners = new CopyOnWriteArrayList<>();
+        addPushListener("PENDING_MESSAGES", this::handlePendingMessages);
+        addPushListener("PRESENCE_DELTA", this::handlePresenceDelta);
     }
 
     public static NetworkService getInstance() {
@@ -46,16 +154,27 @@ public class NetworkService {
     }
 
     /**
-     * Conectar al servidor
+     * Conectar al servidor y arrancar el hilo lector
      */
-    public boolean connect() {
+    public synchronized boolean connect() {
+        if (isConnected()) {
+            return true;
+        }
+
         try {
             logger.info("Intentando conectar al servidor: {}:{}", serverHost, serverPort);
-            socket = new Socket(serverHost, serverPort);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+            // Las solicitudes de una conexión anterior no pueden recibir respuestas de la nueva
+            closeConnection(new IOException("Conexión reemplazada"));
+
+            Connection newConnection = new Connection(new Socket(serverHost, serverPort));
+            connection = newConnection;
+            payloadFormat = PayloadFormat.JSON;
             connected.set(true);
 
+            Thread readerThread = new Thread(() -> readLoop(newConnection), "NetworkReader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+
             logger.info("Conectado exitosamente al servidor: {}:{}", serverHost, serverPort);
             return true;
 
@@ -69,22 +188,53 @@ public class NetworkService {
     /**
      * Desconectar del servidor
      */
-    public void disconnect() {
+    public synchronized void disconnect() {
+        // Desconexión pedida por el usuario: no se reanuda la sesión
+        sessionUsername = null;
+        sessionPassword = null;
+        outbox.clear();
         connected.set(false);
+        closeConnection(new IOException("Desconectado del servidor"));
+        logger.info("Desconectado del servidor");
+    }
 
-        try {
-            if (writer != null)
-                writer.close();
-            if (reader != null)
-                reader.close();
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-        } catch (IOException e) {
-            logger.error("Error desconectando: " + e.getMessage());
+    /**
+     * Registrar un listener para los avisos que el servidor envía sin solicitud previa
+     * Se invoca en orden desde el hilo de avisos; lo que toque la interfaz va por Platform.runLater
+     */
+    public void addPushListener(String prefix, Consumer<String> listener) {
+        pushListeners.computeIfAbsent(prefix, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void removePushListener(String prefix, Consumer<String> listener) {
+        List<Consumer<String>> listeners = pushListeners.get(prefix);
+        if (listeners != null) {
+            listeners.remove(listener);
         }
+    }
 
-        logger.info("Desconectado del servidor");
+    /**
+     * Registrar un listener de mensajes recibidos (historial pendiente y entregas en vivo)
+     * Al volver del listener el lote se confirma al servidor, así que debe dejarlo guardado
+     */
+    public void addIncomingMessagesListener(Consumer<List<Message>> listener) {
+        incomingListeners.add(listener);
+    }
+
+    /**
+     * Registrar un listener de estado de la sesión: false al perder la conexión, true al reanudarla
+     * Se invoca fuera del hilo de JavaFX
+     */
+    public void addConnectionListener(Consumer<Boolean> listener) {
+        connectionListeners.add(listener);
+    }
+
+    /**
+     * Registrar un listener de cambios de presencia: usuarios que se conectaron y ids de los que salieron
+     * Solo llegan después de subscribePresenceAsync; se invoca fuera del hilo de JavaFX
+     */
+    public void addPresenceListener(BiConsumer<List<User>, List<Long>> listener) {
+        presenceListeners.add(listener);
     }
 
     /**
@@ -97,23 +247,28 @@ public class NetworkService {
         }
 
         try {
-            String authRequest = "AUTH:" + username + ":" + password;
-            logger.debug("Enviando solicitud de autenticación: {}", authRequest);
-            writer.println(authRequest);
-            writer.flush();
+            String authRequest = "AUTH:" + username + ":" + password + ":" + preferredFormat.name() + ":" + deviceId;
+            logger.debug("Enviando solicitud de autenticación para: {}", username);
 
-            String response = reader.readLine();
+            String response = await(request(authRequest), REQUEST_TIMEOUT_SECONDS);
             logger.debug("Respuesta de autenticación: {}", response);
 
             if (response != null && response.startsWith("AUTH_SUCCESS")) {
-                // Extraer el JSON del usuario de la respuesta
+                // Extraer los datos del usuario de la respuesta
                 String[] parts = response.split(":", 2);
                 if (parts.length > 1) {
-                    String userJson = parts[1];
+                    String userData = parts[1];
                     try {
-                        // Intentar parsear como JSON
-                        User user = objectMapper.readValue(userJson, User.class);
-                        logger.info("Autenticación exitosa con JSON - Usuario: {} ID: {}", username, user.getId());
+                        // AUTH_SUCCESS:<formato>:<datos>, o JSON sin prefijo en servidores antiguos
+                        PayloadFormat negotiated = negotiatedFormat(response);
+                        int separator = userData.indexOf(':');
+                        if (!userData.startsWith("{") && separator > 0) {
+                            userData = userData.substring(separator + 1);
+                        }
+                        User user = jsonCodec.decodeUser(userData, negotiated);
+                        payloadFormat = negotiated;
+                        rememberSession(username, password);
+                        logger.info("Autenticación exitosa ({}) - Usuario: {} ID: {}", negotiated, username, user.getId());
                         return user;
                     } catch (Exception jsonEx) {
                         // Si falla el JSON, es respuesta legacy (servidor antiguo)
@@ -128,6 +283,7 @@ public class NetworkService {
                 for (User u : users) {
                     if (username.equals(u.getUsername())) {
                         logger.info("Usuario encontrado en lista: {} con ID: {}", username, u.getId());
+                        rememberSession(username, password);
                         return u;
                     }
                 }
@@ -137,7 +293,13 @@ public class NetworkService {
                 User user = new User();
                 user.setUsername(username);
                 user.setId(1L); // ID temporal, debería venir del servidor
+                rememberSession(username, password);
                 return user;
+            } else if (response != null && response.startsWith("SERVER_BUSY")) {
+                // El servidor rechazó el socket por sobrecarga antes de leer el AUTH
+                busyUntilMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(parseRetryAfter(response));
+                logger.warn("Servidor ocupado, reintentar después de {}", response.substring(response.indexOf(':') + 1));
+                return null;
             } else {
                 logger.warn("Autenticación fallida para usuario: {} - Respuesta: {}", username, response);
                 return null;
@@ -149,6 +311,14 @@ public class NetworkService {
         }
     }
     
+    private long parseRetryAfter(String response) {
+        try {
+            return Long.parseLong(response.substring(response.indexOf(':') + 1).trim());
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return RECONNECT_MAX_MILLIS / 1000;
+        }
+    }
+    
     /**
      * Autenticar usuario (método legacy para compatibilidad)
      */
@@ -166,12 +336,9 @@ public class NetworkService {
 
         try {
             User user = new User(username, password, email);
-            String userJson = objectMapper.writeValueAsString(user);
-
-            String registerRequest = "REGISTER:" + userJson;
-            writer.println(registerRequest);
+            String userJson = jsonCodec.writeUser(user);
 
-            String response = reader.readLine();
+            String response = await(request("REGISTER:" + userJson), REQUEST_TIMEOUT_SECONDS);
             if (response != null && response.startsWith("REGISTER_SUCCESS")) {
                 logger.info("Registro exitoso para usuario: {}", username);
                 return true;
@@ -188,34 +355,132 @@ public class NetworkService {
 
     /**
      * Enviar mensaje
+     * Devuelve true si el servidor lo confirmó o si quedó en la bandeja de salida
+     * porque la conexión se perdió; en ese caso se reenvía con la misma clave al reanudar la sesión
      */
     public boolean sendMessage(Long receiverId, String content) {
+        return sendMessageWithResult(receiverId, content) != SendResult.REJECTED;
+    }
+
+    /**
+     * Igual que sendMessage pero distingue lo confirmado de lo que solo quedó en la bandeja de salida
+     */
+    public SendResult sendMessageWithResult(Long receiverId, String content) {
+        Message message = new Message();
+        message.setClientMessageId(MessageIdGenerator.next());
+        message.setReceiverId(receiverId);
+        message.setMessageType("TEXT");
+        message.setContent(content);
+        return send(message);
+    }
+
+    /**
+     * Resultado de un envío: confirmado con MESSAGE_SENT, pendiente de reenvío o rechazado
+     */
+    public enum SendResult {
+        SENT, QUEUED, REJECTED
+    }
+
+    /**
+     * Enviar mensaje a un grupo; el servidor lo guarda una vez y lo reparte a los miembros
+     */
+    public boolean sendGroupMessage(Long groupId, String content) {
+        Message message = new Message();
+        message.setClientMessageId(MessageIdGenerator.next());
+        message.setGroupId(groupId);
+        message.setMessageType("TEXT");
+        message.setContent(content);
+        return send(message) != SendResult.REJECTED;
+    }
+
+    private SendResult send(Message message) {
+        boolean resumable = sessionUsername != null;
+        SendResult unconfirmed = resumable ? SendResult.QUEUED : SendResult.REJECTED;
+        if (resumable) {
+            if (outbox.size() >= MAX_OUTBOX_SIZE) {
+                logger.warn("Bandeja de salida llena, mensaje descartado");
+                return SendResult.REJECTED;
+            }
+            outbox.put(message.getClientMessageId(), message);
+        }
+
         if (!ensureConnection()) {
-            return false;
+            return unconfirmed;
         }
 
         try {
-            Message message = new Message();
-            message.setReceiverId(receiverId);
-            message.setMessageType("TEXT");
-            message.setContent(content);
+            String response = null;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    response = await(submit(message), REQUEST_TIMEOUT_SECONDS);
+                    break;
+                } catch (JsonProcessingException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // La clave hace seguro reintentar: el servidor no duplica si el primero sí llegó
+                    if (attempt >= SEND_ATTEMPTS || !isConnected()) {
+                        throw e;
+                    }
+                    logger.debug("Reintentando mensaje {}: {}", message.getClientMessageId(), e.getMessage());
+                }
+            }
+            // Con respuesta el resultado es definitivo; sin ella el mensaje queda para reenvío
+            outbox.remove(message.getClientMessageId());
+            return response != null && response.startsWith("MESSAGE_SENT") ? SendResult.SENT : SendResult.REJECTED;
+
+        } catch (JsonProcessingException e) {
+            outbox.remove(message.getClientMessageId());
+            logger.error("Error codificando mensaje: " + e.getMessage());
+            return SendResult.REJECTED;
+        } catch (IOException e) {
+            logger.warn("Mensaje sin confirmar, se reenviará al reconectar: " + e.getMessage());
+            return unconfirmed;
+        } catch (Exception e) {
+            outbox.remove(message.getClientMessageId());
+            logger.error("Error enviando mensaje: " + e.getMessage());
+            return SendResult.REJECTED;
+        }
+    }
 
-            String messageJson = objectMapper.writeValueAsString(message);
-            String request = "SEND_MESSAGE:" + messageJson;
+    private CompletableFuture<String> submit(Message message) throws IOException {
+        String messageData = jsonCodec.encodeMessage(message, payloadFormat);
+        String command = message.getGroupId() != null ? "SEND_GROUP_MESSAGE:" : "SEND_MESSAGE:";
+        return request(command + messageData);
+    }
 
-            writer.println(request);
+    /**
+     * Crear un grupo con los miembros indicados (el creador se agrega solo)
+     * Devuelve el id del grupo o null si no se pudo crear
+     */
+    public Long createGroup(String name, List<Long> memberIds) {
+        if (!ensureConnection()) {
+            return null;
+        }
 
-            String response = reader.readLine();
-            return response != null && response.startsWith("MESSAGE_SENT");
+        StringBuilder members = new StringBuilder();
+        for (Long memberId : memberIds) {
+            if (members.length() > 0) {
+                members.append(',');
+            }
+            members.append(memberId);
+        }
 
+        try {
+            String response = await(request("CREATE_GROUP:" + name + ":" + members), REQUEST_TIMEOUT_SECONDS);
+            if (response != null && response.startsWith("GROUP_CREATED:")) {
+                return Long.parseLong(response.substring(14).trim());
+            }
+            logger.warn("No se pudo crear el grupo: {}", response);
         } catch (Exception e) {
-            logger.error("Error enviando mensaje: " + e.getMessage());
-            return false;
+            logger.error("Error creando grupo: " + e.getMessage());
         }
+        return null;
     }
 
     /**
      * Enviar archivo
+     * El servidor lee las líneas FILE_DATA/FILE_END justo después de SEND_FILE, así que hasta
+     * FILE_END la conexión queda reservada; FILE_SENT se espera ya sin reservarla
      */
     public boolean sendFile(Long receiverId, File file) {
         if (!ensureConnection()) {
@@ -229,36 +494,38 @@ public class NetworkService {
                 return false;
             }
 
-            // Enviar información del archivo
-            String fileInfo = String.format("SEND_FILE:%d:%s:%d",
-                    receiverId, file.getName(), file.length());
-            writer.println(fileInfo);
-            writer.flush();
-
-            String response = reader.readLine();
-            logger.debug("Respuesta FILE_ACCEPTED: {}", response);
-            
-            if (response != null && response.startsWith("FILE_ACCEPTED")) {
-                // Leer todo el archivo en memoria y convertir a Base64
-                byte[] fileBytes = java.nio.file.Files.readAllBytes(file.toPath());
-                String base64Content = java.util.Base64.getEncoder().encodeToString(fileBytes);
-                
-                logger.info("Archivo leído: {} bytes, Base64: {} caracteres", fileBytes.length, base64Content.length());
-                
-                // Enviar contenido del archivo en Base64
-                writer.println("FILE_DATA:" + base64Content);
-                writer.flush();
-
-                // Confirmar fin de archivo
-                writer.println("FILE_END");
-                writer.flush();
+            // Leer todo el archivo en memoria y convertir a Base64 antes de ocupar la conexión
+            byte[] fileBytes = java.nio.file.Files.readAllBytes(file.toPath());
+            String base64Content = Base64.getEncoder().encodeToString(fileBytes);
+            logger.info("Archivo leído: {} bytes, Base64: {} caracteres", fileBytes.length, base64Content.length());
+
+            CompletableFuture<String> sent;
+            beginExclusive();
+            try {
+                // Enviar información del archivo
+                String fileInfo = String.format("SEND_FILE:%d:%s:%d",
+                        receiverId, file.getName(), file.length());
+                String response = await(request(fileInfo), REQUEST_TIMEOUT_SECONDS);
+                logger.debug("Respuesta FILE_ACCEPTED: {}", response);
+
+                if (response != null && response.startsWith("FILE_BUSY")) {
+                    logger.warn("Servidor ocupado con otras transferencias: {}", file.getName());
+                    return false;
+                }
+                if (response == null || !response.startsWith("FILE_ACCEPTED")) {
+                    return false;
+                }
 
-                response = reader.readLine();
-                logger.debug("Respuesta FILE_SENT: {}", response);
-                return response != null && response.startsWith("FILE_SENT");
+                // Enviar contenido del archivo en Base64 y confirmar fin de archivo
+                writeExclusive("FILE_DATA:" + base64Content);
+                sent = request("FILE_END");
+            } finally {
+                endExclusive();
             }
 
-            return false;
+            String response = await(sent, TRANSFER_TIMEOUT_SECONDS);
+            logger.debug("Respuesta FILE_SENT: {}", response);
+            return response != null && response.startsWith("FILE_SENT");
 
         } catch (Exception e) {
             logger.error("Error enviando archivo: " + e.getMessage(), e);
@@ -276,51 +543,54 @@ public class NetworkService {
 
         try {
             logger.info("Solicitando descarga de: {}", serverFilePath);
-            
-            // Solicitar archivo al servidor
-            writer.println("DOWNLOAD_FILE:" + serverFilePath);
-            writer.flush();
-
-            String response = reader.readLine();
-            logger.debug("Respuesta servidor: {}", response);
-            
-            if (response != null && response.startsWith("FILE_INFO")) {
+
+            List<CompletableFuture<String>> replies;
+            beginExclusive();
+            try {
+                // Solicitar archivo al servidor
+                String response = await(request("DOWNLOAD_FILE:" + serverFilePath), REQUEST_TIMEOUT_SECONDS);
+                logger.debug("Respuesta servidor: {}", response);
+
+                if (response != null && response.startsWith("FILE_NOT_FOUND")) {
+                    logger.warn("Archivo no encontrado en servidor: {}", serverFilePath);
+                    return false;
+                }
+                if (response != null && response.startsWith("DOWNLOAD_BUSY")) {
+                    logger.warn("Servidor ocupado con otras transferencias: {}", serverFilePath);
+                    return false;
+                }
+                if (response == null || !response.startsWith("FILE_INFO")) {
+                    return false;
+                }
+
                 // Parsear: FILE_INFO:fileName:fileSize
                 String[] parts = response.split(":", 3);
                 if (parts.length < 3) {
                     logger.error("Formato de FILE_INFO inválido");
                     return false;
                 }
-                
-                String fileName = parts[1];
-                long fileSize = Long.parseLong(parts[2]);
-                
-                logger.info("Recibiendo archivo: {} ({} bytes)", fileName, fileSize);
-                
-                // Confirmar que estamos listos
-                writer.println("FILE_READY");
-                writer.flush();
-                
-                // Recibir datos en Base64
-                response = reader.readLine();
-                if (response != null && response.startsWith("FILE_DATA:")) {
-                    String base64Content = response.substring(10); // Remover "FILE_DATA:"
-                    
-                    // Decodificar y guardar
-                    byte[] fileBytes = java.util.Base64.getDecoder().decode(base64Content);
-                    java.nio.file.Files.write(destinationFile.toPath(), fileBytes);
-                    
-                    logger.info("Archivo guardado en: {}", destinationFile.getAbsolutePath());
-                    
-                    // Esperar confirmación de fin
-                    response = reader.readLine();
-                    return response != null && response.startsWith("FILE_COMPLETE");
-                }
-            } else if (response != null && response.startsWith("FILE_NOT_FOUND")) {
-                logger.warn("Archivo no encontrado en servidor: {}", serverFilePath);
+                logger.info("Recibiendo archivo: {} ({} bytes)", parts[1], Long.parseLong(parts[2]));
+
+                // Tras FILE_READY llegan dos líneas: FILE_DATA y FILE_COMPLETE
+                replies = write("FILE_READY", 2);
+            } finally {
+                endExclusive();
             }
 
-            return false;
+            // El servidor ya no lee hasta terminar de enviar: otras solicitudes pueden encolarse
+            String response = await(replies.get(0), TRANSFER_TIMEOUT_SECONDS);
+            String completion = await(replies.get(1), TRANSFER_TIMEOUT_SECONDS);
+            if (response == null || !response.startsWith("FILE_DATA:")) {
+                return false;
+            }
+            String base64Content = response.substring(10); // Remover "FILE_DATA:"
+
+            // Decodificar y guardar
+            byte[] fileBytes = Base64.getDecoder().decode(base64Content);
+            java.nio.file.Files.write(destinationFile.toPath(), fileBytes);
+            logger.info("Archivo guardado en: {}", destinationFile.getAbsolutePath());
+
+            return completion != null && completion.startsWith("FILE_COMPLETE");
 
         } catch (Exception e) {
             logger.error("Error descargando archivo: " + e.getMessage(), e);
@@ -328,51 +598,81 @@ public class NetworkService {
         }
     }
 
+    /**
+     * Descargar la miniatura de una imagen (una sola línea THUMBNAIL:<base64>)
+     */
+    public byte[] downloadThumbnail(String serverFilePath) {
+        if (!ensureConnection()) {
+            return null;
+        }
+
+        try {
+            String response = await(request("DOWNLOAD_THUMBNAIL:" + serverFilePath), REQUEST_TIMEOUT_SECONDS);
+            if (response != null && response.startsWith("THUMBNAIL:")) {
+                return Base64.getDecoder().decode(response.substring(10));
+            }
+
+            logger.debug("Miniatura no disponible para {}: {}", serverFilePath, response);
+            return null;
+
+        } catch (Exception e) {
+            logger.error("Error descargando miniatura: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Obtener usuarios conectados
      */
     public List<User> getConnectedUsers() {
-        if (!ensureConnection()) {
-            logger.warn("No se pudo establecer conexión para obtener usuarios");
+        try {
+            return getConnectedUsersAsync().get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.error("Error obteniendo usuarios: {}", e.getMessage());
             return new ArrayList<>();
         }
+    }
 
-        try {
-            logger.debug("Solicitando lista de usuarios conectados...");
-            writer.println("GET_USERS:");
-            writer.flush();
+    /**
+     * Obtener usuarios conectados sin bloquear al llamador
+     */
+    public CompletableFuture<List<User>> getConnectedUsersAsync() {
+        return requestUsers("GET_USERS:");
+    }
+
+    /**
+     * Foto de los usuarios conectados; desde ahí el servidor solo envía PRESENCE_DELTA
+     * Reemplaza consultar la lista completa de forma periódica
+     */
+    public CompletableFuture<List<User>> subscribePresenceAsync() {
+        return requestUsers("SUBSCRIBE_PRESENCE:");
+    }
 
-            String response = reader.readLine();
-            logger.debug("Respuesta completa del servidor: {}", response);
+    private CompletableFuture<List<User>> requestUsers(String line) {
+        if (!ensureConnection()) {
+            logger.warn("No se pudo establecer conexión para obtener usuarios");
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
 
+        logger.debug("Solicitando lista de usuarios conectados...");
+        return request(line).thenApply(response -> {
             if (response != null && response.startsWith("USERS:")) {
-                String usersJson = response.substring(6); // Remover "USERS:"
-                logger.debug("JSON de usuarios recibido (length={}): {}", usersJson.length(), usersJson);
+                String usersData = response.substring(6); // Remover "USERS:"
+                logger.debug("Usuarios recibidos en {} (length={})", payloadFormat, usersData.length());
 
-                // Intentar parsear
                 try {
-                    List<User> users = objectMapper.readValue(usersJson,
-                            objectMapper.getTypeFactory().constructCollectionType(List.class, User.class));
-
+                    List<User> users = jsonCodec.decodeUsers(usersData, payloadFormat);
                     logger.info("Se parsearon exitosamente {} usuarios", users.size());
-                    for (User user : users) {
-                        logger.debug("Usuario parseado: {}", user);
-                    }
-
                     return users;
                 } catch (Exception parseEx) {
-                    logger.error("Error parseando JSON de usuarios: {}", parseEx.getMessage(), parseEx);
-                    logger.error("JSON que falló: {}", usersJson);
+                    logger.error("Error parseando usuarios: {}", parseEx.getMessage(), parseEx);
+                    logger.error("Datos que fallaron: {}", usersData);
                 }
             } else {
                 logger.warn("Respuesta inesperada del servidor: {}", response);
             }
-
-        } catch (Exception e) {
-            logger.error("Error obteniendo usuarios: {}", e.getMessage(), e);
-        }
-
-        return new ArrayList<>();
+            return new ArrayList<>();
+        });
     }
 
     /**
@@ -384,70 +684,570 @@ public class NetworkService {
         }
 
         try {
-            writer.println("GET_MESSAGES:");
-            String response = reader.readLine();
-
-            if (response != null && response.startsWith("MESSAGES:")) {
-                String messagesJson = response.substring(9); // Remover "MESSAGES:"
-                return objectMapper.readValue(messagesJson,
-                        objectMapper.getTypeFactory().constructCollectionType(List.class, Message.class));
-            }
-
+            String response = await(request("GET_MESSAGES:"), REQUEST_TIMEOUT_SECONDS);
+            return parseMessages(response);
         } catch (Exception e) {
             logger.error("Error obteniendo mensajes: " + e.getMessage());
+            return new ArrayList<>();
         }
-
-        return new ArrayList<>();
     }
 
     /**
      * Obtener mensajes con un usuario específico
      */
     public List<Message> getMessagesWithUser(Long userId) {
-        if (!ensureConnection()) {
-            return new ArrayList<>();
-        }
+        return getMessagesWithUser(userId, 0L);
+    }
 
+    /**
+     * Obtener solo los mensajes de la conversación con id mayor a afterId (sincronización incremental)
+     */
+    public List<Message> getMessagesWithUser(Long userId, long afterId) {
         try {
-            String request = "GET_MESSAGES_WITH_USER:" + userId;
-            writer.println(request);
-            String response = reader.readLine();
-
-            if (response != null && response.startsWith("MESSAGES:")) {
-                String messagesJson = response.substring(9);
-                return objectMapper.readValue(messagesJson,
-                        objectMapper.getTypeFactory().constructCollectionType(List.class, Message.class));
-            }
-
+            return getMessagesWithUserAsync(userId, afterId).get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
         } catch (Exception e) {
             logger.error("Error obteniendo mensajes con usuario: " + e.getMessage());
+            return new ArrayList<>();
         }
+    }
 
-        return new ArrayList<>();
+    /**
+     * Falla si el servidor no responde MESSAGES: o la lista no se puede decodificar,
+     * así una conversación vacía se distingue de un error
+     */
+    public CompletableFuture<List<Message>> getMessagesWithUserAsync(Long userId, long afterId) {
+        if (!ensureConnection()) {
+            return CompletableFuture.failedFuture(new IOException("Sin conexión con el servidor"));
+        }
+        return request("GET_MESSAGES_WITH_USER:" + userId + ":" + afterId).thenApply(response -> {
+            if (response == null || !response.startsWith("MESSAGES:")) {
+                throw new CompletionException(new IOException("Respuesta inesperada: " + response));
+            }
+            try {
+                return jsonCodec.decodeMessages(response.substring(9), payloadFormat);
+            } catch (Exception e) {
+                throw new CompletionException(new IOException("Error parseando mensajes: " + e.getMessage(), e));
+            }
+        });
+    }
+
+    /**
+     * Mensajes sin leer por contacto (UNREAD_COUNTS:<contacto>:<cantidad>,...)
+     */
+    public CompletableFuture<Map<Long, Integer>> getUnreadCountsAsync() {
+        if (!ensureConnection()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        return request("GET_UNREAD_COUNTS:").thenApply(response -> {
+            Map<Long, Integer> counts = new HashMap<>();
+            if (response == null || !response.startsWith("UNREAD_COUNTS:")) {
+                logger.warn("Respuesta inesperada del servidor: {}", response);
+                return counts;
+            }
+            String data = response.substring(14);
+            if (data.isEmpty()) {
+                return counts;
+            }
+            try {
+                for (String entry : data.split(",")) {
+                    int separator = entry.indexOf(':');
+                    counts.put(Long.parseLong(entry.substring(0, separator)),
+                               Integer.parseInt(entry.substring(separator + 1)));
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error parseando mensajes sin leer: " + e.getMessage());
+            }
+            return counts;
+        });
     }
 
     /**
      * Enviar ping al servidor
+     * No bloquea: el future indica si llegó el PONG; un ping fallido cierra la conexión para reconectar
      */
-    public void sendPing() {
+    public CompletableFuture<Boolean> sendPing() {
         if (!ensureConnection()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return request("PING:")
+            .orTimeout(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .handle((response, error) -> {
+                if (error == null && response != null && response.startsWith("PONG")) {
+                    logger.debug("Ping exitoso");
+                    return true;
+                }
+                logger.warn("Ping fallido: {}", error != null ? error.getMessage() : response);
+                dropConnection();
+                return false;
+            });
+    }
+
+    /**
+     * Informa que la conversación con el remitente se leyó hasta messageId (READ_UP_TO, sin respuesta)
+     * No espera: durante una transferencia la línea queda retenida hasta que libere la conexión
+     */
+    public void sendReadUpTo(Long senderId, long messageId) {
+        if (!isConnected()) {
             return;
         }
+        post("READ_UP_TO:" + senderId + ":" + messageId);
+    }
 
+    private List<Message> parseMessages(String response) {
+        if (response != null && response.startsWith("MESSAGES:")) {
+            String messagesData = response.substring(9); // Remover "MESSAGES:"
+            try {
+                return jsonCodec.decodeMessages(messagesData, payloadFormat);
+            } catch (Exception e) {
+                logger.error("Error parseando mensajes: " + e.getMessage());
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Enviar una solicitud de una línea; el future se completa con la respuesta
+     */
+    private CompletableFuture<String> request(String line) {
+        List<CompletableFuture<String>> replies = write(line, 1);
+        return replies.get(0);
+    }
+
+    /**
+     * Escribe una línea y registra en orden los futures de las respuestas que generará
+     * Un future que vence no se retira de la cola: su respuesta tardía lo completa sin desalinear las demás
+     */
+    private List<CompletableFuture<String>> write(String line, int expectedResponses) {
+        List<CompletableFuture<String>> replies = new ArrayList<>(expectedResponses);
+        writeLock.lock();
         try {
-            writer.println("PING:");
-            String response = reader.readLine();
+            if (!awaitExclusiveReleased()) {
+                CompletableFuture<String> failed = CompletableFuture.failedFuture(new IOException("Conexión ocupada por una transferencia"));
+                return Collections.nCopies(Math.max(1, expectedResponses), failed);
+            }
+            Connection current = connection;
+            if (current == null || !connected.get()) {
+                CompletableFuture<String> failed = CompletableFuture.failedFuture(new IOException("Sin conexión con el servidor"));
+                return Collections.nCopies(Math.max(1, expectedResponses), failed);
+            }
 
-            if (response != null && response.startsWith("PONG")) {
-                logger.debug("Ping exitoso");
-            } else {
-                logger.warn("Ping fallido");
+            for (int i = 0; i < expectedResponses; i++) {
+                CompletableFuture<String> reply = new CompletableFuture<>();
+                current.pending.add(reply);
+                replies.add(reply);
+            }
+            if (!writeLine(current, line)) {
+                IOException error = new IOException("Error escribiendo en la conexión");
+                replies.forEach(reply -> reply.completeExceptionally(error));
+            }
+            return replies;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Escribe una línea sin respuesta (ACK_DELIVERED, READ_UP_TO) sin esperar a nadie:
+     * si una transferencia tiene reservada la conexión, queda retenida hasta que la libere
+     */
+    private void post(String line) {
+        writeLock.lock();
+        try {
+            if (exclusiveOwner != null && exclusiveOwner != Thread.currentThread()) {
+                heldLines.add(line);
+                return;
+            }
+            Connection current = connection;
+            if (current != null && connected.get()) {
+                writeLine(current, line);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reserva la conexión para las líneas de una transferencia; las demás solicitudes esperan
+     * y las líneas sin respuesta se retienen hasta endExclusive
+     */
+    private void beginExclusive() throws IOException {
+        writeLock.lock();
+        try {
+            if (!awaitExclusiveReleased()) {
+                throw new IOException("Conexión ocupada por otra transferencia");
+            }
+            exclusiveOwner = Thread.currentThread();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void endExclusive() {
+        writeLock.lock();
+        try {
+            exclusiveOwner = null;
+            Connection current = connection;
+            if (current != null && connected.get()) {
+                for (String line : heldLines) {
+                    if (!writeLine(current, line)) {
+                        break;
+                    }
+                }
+            }
+            heldLines.clear();
+            exclusiveReleased.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Línea larga de quien tiene la conexión reservada; se escribe sin el lock para que
+     * las líneas sin respuesta de otros hilos se retengan en lugar de esperar
+     */
+    private void writeExclusive(String line) throws IOException {
+        Connection current = connection;
+        if (current == null || !connected.get()) {
+            throw new IOException("Sin conexión con el servidor");
+        }
+        if (!writeLine(current, line)) {
+            throw new IOException("Error escribiendo en la conexión");
+        }
+    }
+
+    /**
+     * Espera, soltando el lock, a que otro hilo libere la conexión reservada
+     */
+    private boolean awaitExclusiveReleased() {
+        long remaining = TimeUnit.SECONDS.toNanos(REQUEST_TIMEOUT_SECONDS);
+        while (exclusiveOwner != null && exclusiveOwner != Thread.currentThread()) {
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                remaining = exclusiveReleased.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean writeLine(Connection current, String line) {
+        current.writer.println(line);
+        current.writer.flush();
+        if (current.writer.checkError()) {
+            connected.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hilo lector: demultiplexa avisos del servidor y respuestas a solicitudes
+     */
+    private void readLoop(Connection own) {
+        try {
+            String line;
+            while ((line = own.reader.readLine()) != null) {
+                if (line.startsWith("AUTH_SUCCESS:")) {
+                    // Los pendientes llegan justo después: el formato debe quedar fijado antes de decodificarlos
+                    payloadFormat = negotiatedFormat(line);
+                }
+                if (line.startsWith("SERVER_DRAINING")) {
+                    // El servidor va a cerrar; se fija aquí y no en un listener para que ya valga
+                    // cuando el cierre programe la reconexión
+                    long reconnectAfter = parseRetryAfter(line);
+                    busyUntilMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(reconnectAfter);
+                    logger.info("Servidor en mantenimiento, reconexión en {} s", reconnectAfter);
+                    continue;
+                }
+                if (!dispatchPush(line)) {
+                    CompletableFuture<String> reply = own.pending.poll();
+                    if (reply != null) {
+                        reply.complete(line);
+                    } else {
+                        logger.warn("Línea del servidor sin solicitud pendiente: {}",
+                            line.length() > 80 ? line.substring(0, 80) + "..." : line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (connection == own && connected.get()) {
+                logger.error("Error leyendo del servidor: " + e.getMessage());
+            }
+        }
+
+        // Solo la conexión vigente marca la desconexión
+        boolean lost;
+        synchronized (this) {
+            lost = connection == own;
+            if (lost) {
                 connected.set(false);
             }
+        }
+        own.failPending(new IOException("Conexión cerrada por el servidor"));
+        logger.debug("Hilo lector finalizado");
+
+        if (lost && sessionUsername != null) {
+            notifyConnectionListeners(false);
+            scheduleReconnect();
+        }
+    }
 
+    /**
+     * Cierra el socket vigente sin terminar la sesión; el hilo lector programa la reconexión
+     */
+    private void dropConnection() {
+        Connection current = connection;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.socket.close();
         } catch (IOException e) {
-            logger.error("Error enviando ping: " + e.getMessage());
-            connected.set(false);
+            logger.debug("Error cerrando conexión: " + e.getMessage());
+        }
+    }
+
+    private void rememberSession(String username, String password) {
+        sessionUsername = username;
+        sessionPassword = password;
+        reconnectAttempts.set(0);
+    }
+
+    /**
+     * Programa un intento de reconexión con backoff exponencial y jitter completo:
+     * espera aleatoria entre 0 y min(máximo, base * 2^intento), así los clientes
+     * que perdieron el mismo servidor no vuelven todos en el mismo segundo
+     */
+    private void scheduleReconnect() {
+        if (!reconnectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        int attempt = reconnectAttempts.getAndIncrement();
+        long ceiling = Math.min(RECONNECT_MAX_MILLIS, RECONNECT_BASE_MILLIS << Math.min(attempt, 16));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        // Si el servidor pidió esperar, no antes de lo indicado
+        delay = Math.max(delay, busyUntilMillis - System.currentTimeMillis());
+
+        logger.info("Reconectando en {} ms (intento {})", delay, attempt + 1);
+        reconnectScheduler.schedule(this::resumeSession, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void resumeSession() {
+        reconnectScheduled.set(false);
+        String username = sessionUsername;
+        String password = sessionPassword;
+        if (username == null || isConnected()) {
+            return;
+        }
+
+        if (!connect() || authenticateAndGetUser(username, password) == null) {
+            // Servidor aún caído o rechazando conexiones; la sesión se conserva
+            if (sessionUsername != null) {
+                dropConnection();
+                connected.set(false);
+                scheduleReconnect();
+            }
+            return;
+        }
+
+        logger.info("Sesión reanudada para {}", username);
+        resendOutbox();
+        notifyConnectionListeners(true);
+    }
+
+    /**
+     * Reenvía en orden los mensajes sin confirmar, con su clave de idempotencia original
+     */
+    private void resendOutbox() {
+        List<Message> unacknowledged;
+        synchronized (outbox) {
+            unacknowledged = new ArrayList<>(outbox.values());
+        }
+
+        for (Message message : unacknowledged) {
+            try {
+                String response = await(submit(message), REQUEST_TIMEOUT_SECONDS);
+                outbox.remove(message.getClientMessageId());
+                if (response == null || !response.startsWith("MESSAGE_SENT")) {
+                    logger.warn("Reenvío rechazado por el servidor: {}", response);
+                }
+            } catch (JsonProcessingException e) {
+                outbox.remove(message.getClientMessageId());
+                logger.error("Error codificando mensaje pendiente: " + e.getMessage());
+            } catch (IOException e) {
+                // Se cayó de nuevo: lo que queda se reintenta en la próxima reanudación
+                logger.warn("Reenvío interrumpido: " + e.getMessage());
+                return;
+            }
+        }
+        if (!unacknowledged.isEmpty()) {
+            logger.info("Reenviados {} mensajes pendientes", unacknowledged.size());
+        }
+    }
+
+    private void notifyConnectionListeners(boolean connectedNow) {
+        for (Consumer<Boolean> listener : connectionListeners) {
+            try {
+                listener.accept(connectedNow);
+            } catch (Exception e) {
+                logger.error("Error en listener de conexión: " + e.getMessage());
+            }
+        }
+    }
+
+    private boolean dispatchPush(String line) {
+        int separator = line.indexOf(':');
+        String prefix = separator >= 0 ? line.substring(0, separator) : line;
+        List<Consumer<String>> listeners = pushListeners.get(prefix);
+        if (listeners == null || listeners.isEmpty()) {
+            return false;
+        }
+
+        String data = separator >= 0 ? line.substring(separator + 1) : "";
+        pushExecutor.execute(() -> {
+            for (Consumer<String> listener : listeners) {
+                try {
+                    listener.accept(data);
+                } catch (Exception e) {
+                    logger.error("Error en listener de {}: {}", prefix, e.getMessage());
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * PRESENCE_DELTA:{"online":[{"id":..,"username":..}],"offline":[..]} (siempre JSON)
+     */
+    private void handlePresenceDelta(String data) {
+        List<User> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        try {
+            JsonNode delta = jsonCodec.getObjectMapper().readTree(data);
+            for (JsonNode node : delta.path("online")) {
+                User user = new User();
+                user.setId(node.path("id").asLong());
+                user.setUsername(node.path("username").asText());
+                user.setConnected(true);
+                online.add(user);
+            }
+            for (JsonNode node : delta.path("offline")) {
+                offline.add(node.asLong());
+            }
+        } catch (JsonProcessingException e) {
+            logger.warn("PRESENCE_DELTA inválido: {}", e.getMessage());
+            return;
+        }
+
+        for (BiConsumer<List<User>, List<Long>> listener : presenceListeners) {
+            try {
+                listener.accept(online, offline);
+            } catch (Exception e) {
+                logger.error("Error en listener de presencia: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * PENDING_MESSAGES:[...] entrega mensajes recibidos; un lote vacío indica que no queda historial
+     * Se confirma el último id después de que los listeners los guardaron
+     */
+    private void handlePendingMessages(String data) {
+        List<Message> delivered;
+        try {
+            delivered = jsonCodec.decodeMessages(data, payloadFormat);
+        } catch (Exception e) {
+            logger.error("Error decodificando mensajes pendientes: " + e.getMessage());
+            return;
+        }
+        if (delivered.isEmpty()) {
+            return;
+        }
+
+        for (Consumer<List<Message>> listener : incomingListeners) {
+            try {
+                listener.accept(delivered);
+            } catch (Exception e) {
+                logger.error("Error en listener de mensajes: " + e.getMessage());
+            }
+        }
+
+        long lastId = 0L;
+        for (Message message : delivered) {
+            if (message.getId() != null) {
+                lastId = Math.max(lastId, message.getId());
+            }
+        }
+        // Sin respuesta del servidor; no espera a una transferencia en curso
+        post("ACK_DELIVERED:" + lastId);
+        logger.debug("Recibidos {} mensajes, confirmado hasta {}", delivered.size(), lastId);
+    }
+
+    /**
+     * Formato de AUTH_SUCCESS:<formato>:<datos>; JSON sin prefijo en servidores antiguos
+     */
+    private static PayloadFormat negotiatedFormat(String authResponse) {
+        String userData = authResponse.substring(authResponse.indexOf(':') + 1);
+        int separator = userData.indexOf(':');
+        if (!userData.startsWith("{") && separator > 0) {
+            return PayloadFormat.fromName(userData.substring(0, separator));
+        }
+        return PayloadFormat.JSON;
+    }
+
+    /**
+     * Id de dispositivo persistente en ~/.messaging-client/device-id
+     */
+    private static String loadDeviceId() {
+        Path file = Paths.get(System.getProperty("user.home"), ".messaging-client", "device-id");
+        try {
+            if (Files.exists(file)) {
+                String stored = Files.readString(file, StandardCharsets.UTF_8).trim();
+                if (!stored.isEmpty()) {
+                    return stored;
+                }
+            }
+            String generated = UUID.randomUUID().toString();
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, generated, StandardCharsets.UTF_8);
+            return generated;
+        } catch (IOException e) {
+            logger.warn("No se pudo guardar el id de dispositivo: " + e.getMessage());
+            return "default";
+        }
+    }
+
+    private void closeConnection(IOException reason) {
+        Connection current = connection;
+        if (current == null) {
+            return;
+        }
+        connection = null;
+        try {
+            // Cerrar el socket despierta al hilo lector de esa conexión
+            current.socket.close();
+        } catch (IOException e) {
+            logger.error("Error desconectando: " + e.getMessage());
+        }
+        current.failPending(reason);
+    }
+
+    private static String await(CompletableFuture<String> reply, long timeoutSeconds) throws IOException {
+        try {
+            return reply.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Tiempo de espera agotado esperando respuesta del servidor");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Solicitud interrumpida");
         }
     }
 
@@ -455,17 +1255,48 @@ public class NetworkService {
      * Verificar y mantener conexión
      */
     private boolean ensureConnection() {
-        if (!connected.get() || socket == null || socket.isClosed()) {
-            logger.info("Intentando reconectar al servidor...");
-            return connect();
+        if (isConnected()) {
+            return true;
         }
-        return true;
+        if (sessionUsername != null) {
+            // Con sesión iniciada una conexión sin autenticar no sirve: se reanuda en segundo plano
+            scheduleReconnect();
+            return false;
+        }
+        logger.info("Intentando reconectar al servidor...");
+        return connect();
     }
 
     /**
      * Verificar si está conectado
      */
     public boolean isConnected() {
-        return connected.get() && socket != null && !socket.isClosed();
+        Connection current = connection;
+        return connected.get() && current != null && !current.socket.isClosed();
+    }
+
+    /**
+     * Socket con sus streams y la cola de respuestas esperadas
+     * El servidor responde las solicitudes de una conexión en el orden en que llegan
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final PrintWriter writer;
+        private final Queue<CompletableFuture<String>> pending;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+            this.pending = new ConcurrentLinkedQueue<>();
+        }
+
+        private void failPending(IOException error) {
+            CompletableFuture<String> reply;
+            while ((reply = pending.poll()) != null) {
+                reply.completeExceptionally(error);
+            }
+        }
     }
 }
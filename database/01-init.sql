@@ -13,9 +13,28 @@ CREATE TABLE IF NOT EXISTS users (
     connection_count INTEGER DEFAULT 0,
     max_connections INTEGER DEFAULT 3,
     files_sent_count INTEGER DEFAULT 0,
+    files_count_date DATE,
     max_files_per_day INTEGER DEFAULT 10
 );
 
+-- Bases creadas antes del cupo diario persistente
+ALTER TABLE users ADD COLUMN IF NOT EXISTS files_count_date DATE;
+
+-- Conversaciones de grupo
+CREATE TABLE IF NOT EXISTS groups (
+    id BIGSERIAL PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    created_by BIGINT REFERENCES users(id),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS group_members (
+    group_id BIGINT REFERENCES groups(id) ON DELETE CASCADE,
+    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE,
+    joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (group_id, user_id)
+);
+
 -- Tabla de mensajes
 CREATE TABLE IF NOT EXISTS messages (
     id BIGSERIAL PRIMARY KEY,
@@ -27,7 +46,35 @@ CREATE TABLE IF NOT EXISTS messages (
     file_path VARCHAR(500),
     file_size BIGINT,
     sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    is_read BOOLEAN DEFAULT FALSE
+    is_read BOOLEAN DEFAULT FALSE,
+    client_message_id UUID,
+    -- Mensaje de grupo: una sola fila, sin receiver_id
+    group_id BIGINT REFERENCES groups(id)
+);
+
+-- Bases creadas antes de los reintentos idempotentes
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS client_message_id UUID;
+
+-- Bases creadas antes de los grupos
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS group_id BIGINT REFERENCES groups(id);
+
+-- Adjuntos direccionados por contenido (uploads/blobs/ab/cd/<sha256>)
+CREATE TABLE IF NOT EXISTS attachment_blobs (
+    sha256 CHAR(64) PRIMARY KEY,
+    blob_path VARCHAR(500) NOT NULL,
+    size_bytes BIGINT NOT NULL,
+    ref_count INTEGER NOT NULL DEFAULT 0,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_referenced_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Cursor de entrega por dispositivo (último mensaje recibido confirmado)
+CREATE TABLE IF NOT EXISTS delivery_cursors (
+    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE,
+    device_id VARCHAR(64) NOT NULL,
+    delivered_up_to BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, device_id)
 );
 
 -- Tabla de conexiones activas
@@ -64,6 +111,13 @@ CREATE INDEX IF NOT EXISTS idx_users_status ON users(status);
 CREATE INDEX IF NOT EXISTS idx_messages_sender ON messages(sender_id);
 CREATE INDEX IF NOT EXISTS idx_messages_receiver ON messages(receiver_id);
 CREATE INDEX IF NOT EXISTS idx_messages_sent_at ON messages(sent_at);
+CREATE INDEX IF NOT EXISTS idx_messages_conversation ON messages(sender_id, receiver_id, id);
+CREATE UNIQUE INDEX IF NOT EXISTS idx_messages_client_id ON messages(sender_id, client_message_id);
+CREATE INDEX IF NOT EXISTS idx_messages_inbox ON messages(receiver_id, id);
+CREATE INDEX IF NOT EXISTS idx_messages_unread ON messages(receiver_id, sender_id, id) WHERE is_read = FALSE;
+CREATE INDEX IF NOT EXISTS idx_messages_group ON messages(group_id, id) WHERE group_id IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_group_members_user ON group_members(user_id);
+CREATE INDEX IF NOT EXISTS idx_attachment_blobs_orphans ON attachment_blobs(ref_count) WHERE ref_count <= 0;
 CREATE INDEX IF NOT EXISTS idx_active_connections_user ON active_connections(user_id);
 CREATE INDEX IF NOT EXISTS idx_connection_history_user ON connection_history(user_id);
 
@@ -0,0 +1,10 @@
+-- Usuarios para el generador de carga (loadtest1 .. loadtest5000, clave: loadtest)
+-- docker exec -i messaging_db psql -U messaging_user -d messaging_app < database/loadtest-users.sql
+
+INSERT INTO users (username, password, email, status, max_connections, max_files_per_day)
+SELECT 'loadtest' || n, 'loadtest', 'loadtest' || n || '@loadtest.local', 'APPROVED', 3, 1000000
+FROM generate_series(1, 5000) AS n
+ON CONFLICT (username) DO NOTHING;
+
+-- Limpiar los datos generados por una corrida anterior
+-- DELETE FROM messages WHERE sender_id IN (SELECT id FROM users WHERE username LIKE 'loadtest%');
@@ -5,7 +5,11 @@
 DROP TABLE IF EXISTS server_logs CASCADE;
 DROP TABLE IF EXISTS connection_history CASCADE;
 DROP TABLE IF EXISTS active_connections CASCADE;
+DROP TABLE IF EXISTS delivery_cursors CASCADE;
 DROP TABLE IF EXISTS messages CASCADE;
+DROP TABLE IF EXISTS group_members CASCADE;
+DROP TABLE IF EXISTS groups CASCADE;
+DROP TABLE IF EXISTS attachment_blobs CASCADE;
 DROP TABLE IF EXISTS users CASCADE;
 
 -- Eliminar funciones y triggers
@@ -25,9 +29,24 @@ CREATE TABLE users (
     connection_count INTEGER DEFAULT 0,
     max_connections INTEGER DEFAULT 3,
     files_sent_count INTEGER DEFAULT 0,
+    files_count_date DATE,
     max_files_per_day INTEGER DEFAULT 10
 );
 
+CREATE TABLE groups (
+    id BIGSERIAL PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    created_by BIGINT REFERENCES users(id),
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE group_members (
+    group_id BIGINT REFERENCES groups(id) ON DELETE CASCADE,
+    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE,
+    joined_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (group_id, user_id)
+);
+
 CREATE TABLE messages (
     id BIGSERIAL PRIMARY KEY,
     sender_id BIGINT REFERENCES users(id),
@@ -38,7 +57,26 @@ CREATE TABLE messages (
     file_path VARCHAR(500),
     file_size BIGINT,
     sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-    is_read BOOLEAN DEFAULT FALSE
+    is_read BOOLEAN DEFAULT FALSE,
+    client_message_id UUID,
+    group_id BIGINT REFERENCES groups(id)
+);
+
+CREATE TABLE attachment_blobs (
+    sha256 CHAR(64) PRIMARY KEY,
+    blob_path VARCHAR(500) NOT NULL,
+    size_bytes BIGINT NOT NULL,
+    ref_count INTEGER NOT NULL DEFAULT 0,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_referenced_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE delivery_cursors (
+    user_id BIGINT REFERENCES users(id) ON DELETE CASCADE,
+    device_id VARCHAR(64) NOT NULL,
+    delivered_up_to BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, device_id)
 );
 
 CREATE TABLE active_connections (
@@ -72,6 +110,13 @@ CREATE INDEX idx_users_status ON users(status);
 CREATE INDEX idx_messages_sender ON messages(sender_id);
 CREATE INDEX idx_messages_receiver ON messages(receiver_id);
 CREATE INDEX idx_messages_sent_at ON messages(sent_at);
+CREATE INDEX idx_messages_conversation ON messages(sender_id, receiver_id, id);
+CREATE UNIQUE INDEX idx_messages_client_id ON messages(sender_id, client_message_id);
+CREATE INDEX idx_messages_inbox ON messages(receiver_id, id);
+CREATE INDEX idx_messages_unread ON messages(receiver_id, sender_id, id) WHERE is_read = FALSE;
+CREATE INDEX idx_messages_group ON messages(group_id, id) WHERE group_id IS NOT NULL;
+CREATE INDEX idx_group_members_user ON group_members(user_id);
+CREATE INDEX idx_attachment_blobs_orphans ON attachment_blobs(ref_count) WHERE ref_count <= 0;
 CREATE INDEX idx_active_connections_user ON active_connections(user_id);
 CREATE INDEX idx_connection_history_user ON connection_history(user_id);
 
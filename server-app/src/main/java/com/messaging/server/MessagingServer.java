@@ -3,17 +3,40 @@ package com.messaging.server;
 import com.messaging.server.config.DatabaseConfig;
 import com.messaging.server.config.ServerConfig;
 import com.messaging.server.pool.ConnectionPool;
+import com.messaging.server.service.AdmissionController;
+import com.messaging.server.service.AttachmentCache;
+import com.messaging.server.service.AttachmentStore;
+import com.messaging.server.service.BandwidthLimiter;
+import com.messaging.server.service.Bulkhead;
 import com.messaging.server.service.ClientHandlerService;
+import com.messaging.server.service.ConnectionAcceptor;
+import com.messaging.server.service.DeliveryService;
+import com.messaging.server.service.FileQuotaService;
+import com.messaging.server.service.GroupFanout;
+import com.messaging.server.service.GroupService;
 import com.messaging.server.service.LoggingService;
+import com.messaging.server.service.MetricsService;
+import com.messaging.server.service.PresenceService;
+import com.messaging.server.service.ReadDeadlines;
+import com.messaging.server.service.ServerDrain;
+import com.messaging.server.service.ReceiptService;
+import com.messaging.server.service.ThumbnailService;
+import com.messaging.server.service.UnreadCountService;
 import com.messaging.server.service.UserService;
+import com.messaging.server.service.WriteLimits;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -23,16 +46,35 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class MessagingServer {
     
     private static final Logger logger = LoggerFactory.getLogger(MessagingServer.class);
+    private static final long LOG_FLUSH_MILLIS = 2000;
+    // Tiempo mínimo para que los handlers cierren aunque el plazo de vaciado se haya agotado
+    private static final long MIN_HANDLER_WAIT_MILLIS = 2000;
     
     private final ServerConfig serverConfig;
     private final DatabaseConfig databaseConfig;
     private final LoggingService loggingService;
     private final UserService userService;
     private final ConnectionPool connectionPool;
+    private final MetricsService metricsService;
+    private final AttachmentCache attachmentCache;
+    private final AttachmentStore attachmentStore;
+    private final ThumbnailService thumbnailService;
+    private final FileQuotaService fileQuotaService;
+    private final DeliveryService deliveryService;
+    private final ReceiptService receiptService;
+    private final UnreadCountService unreadCountService;
+    private final GroupService groupService;
+    private final GroupFanout groupFanout;
+    private final PresenceService presenceService;
+    private final Bulkhead transferBulkhead;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ReadDeadlines readDeadlines;
+    private final WriteLimits writeLimits;
+    private final AdmissionController admissionController;
+    private final ServerDrain serverDrain;
     private final ExecutorService threadPool;
+    private final ConnectionAcceptor acceptor;
     private final AtomicBoolean isRunning;
-    
-    private ServerSocket serverSocket;
 
     public MessagingServer() {
         this.serverConfig = ServerConfig.getInstance();
@@ -40,18 +82,107 @@ public class MessagingServer {
         this.loggingService = LoggingService.getInstance();
         this.userService = new UserService(databaseConfig);
         this.connectionPool = ConnectionPool.getInstance();
-        this.threadPool = Executors.newFixedThreadPool(serverConfig.getMaxThreads());
+        this.metricsService = MetricsService.getInstance();
+        this.attachmentCache = new AttachmentCache(serverConfig.getAttachmentCacheBytes(), serverConfig.isAttachmentCacheOffHeap());
+        this.attachmentStore = new AttachmentStore(databaseConfig, attachmentCache, serverConfig.getUploadsDirectory());
+        this.thumbnailService = new ThumbnailService(serverConfig.getThumbnailThreads(), serverConfig.getThumbnailSize());
+        this.fileQuotaService = new FileQuotaService(databaseConfig, serverConfig.getQuotaTimeZone());
+        this.deliveryService = new DeliveryService(databaseConfig, serverConfig.getDeliveryBatchSize(),
+                                                   serverConfig.getDeliverySettleMillis());
+        this.receiptService = new ReceiptService(databaseConfig);
+        this.unreadCountService = new UnreadCountService(databaseConfig);
+        this.groupService = new GroupService(databaseConfig);
+        this.groupFanout = new GroupFanout(connectionPool, serverConfig.getGroupFanoutThreads());
+        this.presenceService = new PresenceService(connectionPool, serverConfig.getPresenceWindowMillis());
+        this.transferBulkhead = new Bulkhead("transfers", serverConfig.getTransferMaxConcurrent(),
+                                             serverConfig.getTransferMaxWaitMillis());
+        this.bandwidthLimiter = new BandwidthLimiter(serverConfig.getTransferBytesPerSecond());
+        this.readDeadlines = new ReadDeadlines(serverConfig);
+        this.writeLimits = new WriteLimits(serverConfig);
+        this.admissionController = new AdmissionController(serverConfig, () -> {
+            HikariPoolMXBean pool = databaseConfig.getPoolStats(false);
+            return pool != null ? pool.getThreadsAwaitingConnection() : 0;
+        });
+        this.serverDrain = new ServerDrain(serverConfig.getDrainTimeoutMillis(),
+                                           serverConfig.getDrainReconnectSpreadSeconds());
+        // Sin cola: cada sesión ocupa un hilo toda su vida y un socket encolado esperaría sin plazo
+        // de autenticación; si no hay hilo libre se responde SERVER_BUSY
+        this.threadPool = new ThreadPoolExecutor(serverConfig.getMaxThreads(), serverConfig.getMaxThreads(),
+                                                 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        this.acceptor = new ConnectionAcceptor(serverConfig.getPort(), serverConfig.getAcceptorThreads(),
+                                               serverConfig.isAcceptorReusePort(), serverConfig.getAcceptBacklog(),
+                                               this::handleAccepted);
         this.isRunning = new AtomicBoolean(false);
     }
 
+    /**
+     * Métricas por carril: hilos de conexión (comandos interactivos), transferencias
+     * y los dos pools de base de datos, para ver cuál se satura primero
+     */
+    private void registerLaneMetrics() {
+        ThreadPoolExecutor connections = (ThreadPoolExecutor) threadPool;
+        metricsService.registerGauge("connections.threads.active", connections::getActiveCount);
+        metricsService.registerGauge("connections.threads.queued", () -> connections.getQueue().size());
+        
+        acceptor.registerMetrics(metricsService);
+        metricsService.registerGauge("logging.dropped", loggingService::getDroppedCount);
+        admissionController.registerMetrics(metricsService);
+        readDeadlines.registerMetrics(metricsService);
+        writeLimits.registerMetrics(metricsService);
+        transferBulkhead.registerMetrics(metricsService);
+        metricsService.registerGauge("transfers.throttledMillis", bandwidthLimiter::getThrottledMillis);
+        
+        for (boolean bulk : new boolean[] {false, true}) {
+            HikariPoolMXBean pool = databaseConfig.getPoolStats(bulk);
+            String prefix = bulk ? "db.bulk." : "db.interactive.";
+            metricsService.registerGauge(prefix + "active", pool::getActiveConnections);
+            metricsService.registerGauge(prefix + "idle", pool::getIdleConnections);
+            metricsService.registerGauge(prefix + "waiting", pool::getThreadsAwaitingConnection);
+        }
+    }
+
+    /**
+     * Límites que se pueden cambiar sin reiniciar editando el archivo de configuración externo
+     */
+    private void subscribeToConfigChanges() {
+        serverConfig.addListener(admissionController::applyConfig);
+        serverConfig.addListener(readDeadlines::applyConfig);
+        serverConfig.addListener(writeLimits::applyConfig);
+        serverConfig.addListener(config -> transferBulkhead.setLimits(config.getTransferMaxConcurrent(),
+                                                                      config.getTransferMaxWaitMillis()));
+        serverConfig.addListener(config -> bandwidthLimiter.setBytesPerSecond(config.getTransferBytesPerSecond()));
+        serverConfig.addListener(config -> resizeThreadPool(config.getMaxThreads()));
+        serverConfig.addListener(config -> serverDrain.setLimits(config.getDrainTimeoutMillis(),
+                                                                 config.getDrainReconnectSpreadSeconds()));
+        serverConfig.addListener(config -> deliveryService.setLimits(config.getDeliveryBatchSize(),
+                                                                     config.getDeliverySettleMillis()));
+        serverConfig.addListener(config -> presenceService.setWindowMillis(config.getPresenceWindowMillis()));
+        serverConfig.addListener(config -> databaseConfig.resizePools(config.getInteractivePoolSize(),
+                                                                      config.getBulkPoolSize()));
+        serverConfig.startWatching();
+    }
+    
+    /**
+     * Al reducir, los hilos que atienden una conexión siguen hasta que esta termina
+     */
+    private void resizeThreadPool(int threads) {
+        ThreadPoolExecutor connections = (ThreadPoolExecutor) threadPool;
+        if (threads > connections.getMaximumPoolSize()) {
+            connections.setMaximumPoolSize(threads);
+            connections.setCorePoolSize(threads);
+        } else if (threads < connections.getMaximumPoolSize()) {
+            connections.setCorePoolSize(threads);
+            connections.setMaximumPoolSize(threads);
+        }
+    }
+
     public void start() {
         try {
             // Inicializar base de datos
             databaseConfig.initialize();
             loggingService.info("Base de datos inicializada correctamente");
+            unreadCountService.rebuild();
             
-            // Crear socket del servidor
-            serverSocket = new ServerSocket(serverConfig.getPort());
             isRunning.set(true);
             
             loggingService.info("Servidor iniciado en puerto: " + serverConfig.getPort());
@@ -59,65 +190,146 @@ public class MessagingServer {
             System.out.println("Puerto: " + serverConfig.getPort());
             System.out.println("Max conexiones: " + serverConfig.getMaxConnections());
             System.out.println("Max hilos: " + serverConfig.getMaxThreads());
+            System.out.println("Hilos de aceptación: " + serverConfig.getAcceptorThreads() +
+                             (serverConfig.isAcceptorReusePort() ? " (SO_REUSEPORT)" : ""));
             System.out.println("=====================================");
             
+            attachmentCache.registerMetrics(metricsService);
+            fileQuotaService.start(serverConfig.getQuotaFlushSeconds());
+            receiptService.start(serverConfig.getReceiptFlushSeconds());
+            metricsService.registerGauge("receipts.pendingConversations", receiptService::getPendingCount);
+            metricsService.registerGauge("unread.conversations", unreadCountService::getConversationCount);
+            metricsService.registerGauge("groups.cached", groupService::getCachedGroupCount);
+            metricsService.registerGauge("groups.fanoutDeliveries", groupFanout::getDeliveries);
+            presenceService.start();
+            metricsService.registerGauge("presence.online", presenceService::getOnlineCount);
+            metricsService.registerGauge("presence.deltasSent", presenceService::getDeltasSent);
+            registerLaneMetrics();
+            subscribeToConfigChanges();
+            
             // Iniciar hilo de limpieza de conexiones
             startConnectionCleanupTask();
             
-            // Bucle principal para aceptar conexiones
-            while (isRunning.get()) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    String clientAddress = clientSocket.getInetAddress().getHostAddress();
-                    
-                    loggingService.info("Nueva conexión desde: " + clientAddress);
-                    
-                    // Verificar límite de conexiones
-                    if (connectionPool.getActiveConnections() >= serverConfig.getMaxConnections()) {
-                        loggingService.warn("Límite de conexiones alcanzado. Rechazando conexión de: " + clientAddress);
-                        clientSocket.close();
-                        continue;
-                    }
-                    
-                    // Crear y ejecutar handler para el cliente
-                    ClientHandlerService clientHandler = new ClientHandlerService(
-                        clientSocket, 
-                        userService, 
-                        loggingService,
-                        connectionPool
-                    );
-                    
-                    threadPool.submit(clientHandler);
-                    
-                } catch (IOException e) {
-                    if (isRunning.get()) {
-                        loggingService.error("Error aceptando conexión: " + e.getMessage());
-                    }
-                }
-            }
+            // Hilos de aceptación; este hilo queda esperando hasta que se detenga el servidor
+            acceptor.start();
+            acceptor.awaitTermination();
             
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             loggingService.error("Error iniciando servidor: " + e.getMessage());
             System.err.println("Error iniciando servidor: " + e.getMessage());
         }
     }
 
+    /**
+     * Corre en un hilo de aceptación: decide la admisión y entrega el socket al pool de hilos
+     */
+    private void handleAccepted(Socket clientSocket) {
+        String clientAddress = clientSocket.getInetAddress().getHostAddress();
+        loggingService.info("Nueva conexión desde: " + clientAddress);
+        
+        // Cuenta desde el accept; si el servidor está saturado se rechaza con SERVER_BUSY
+        AdmissionController.Admission admission = admissionController.tryAdmit();
+        if (admission == null) {
+            shed(clientSocket);
+            return;
+        }
+        
+        // Crear y ejecutar handler para el cliente
+        ClientHandlerService clientHandler = new ClientHandlerService(
+            clientSocket, 
+            userService, 
+            loggingService,
+            connectionPool,
+            attachmentStore,
+            thumbnailService,
+            fileQuotaService,
+            deliveryService,
+            receiptService,
+            unreadCountService,
+            groupService,
+            groupFanout,
+            transferBulkhead,
+            bandwidthLimiter,
+            readDeadlines,
+            writeLimits,
+            admissionController,
+            admission,
+            serverDrain
+        );
+        
+        try {
+            threadPool.execute(clientHandler);
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            admissionController.recordShed();
+            shed(clientSocket);
+        }
+    }
+
+    /**
+     * Responde SERVER_BUSY:<segundos> y cierra; la línea cabe en el buffer del socket, así que
+     * escribirla no bloquea el hilo que acepta
+     */
+    private void shed(Socket clientSocket) {
+        int retryAfter = admissionController.getRetryAfterSeconds();
+        logger.debug("Conexión rechazada por sobrecarga: {} (reintentar en {} s)",
+                     clientSocket.getInetAddress().getHostAddress(), retryAfter);
+        try (Socket rejected = clientSocket) {
+            OutputStream out = rejected.getOutputStream();
+            out.write(("SERVER_BUSY:" + retryAfter + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException e) {
+            logger.debug("Error rechazando conexión: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Detiene el servidor vaciándolo: deja de aceptar, avisa a cada cliente cuándo reconectar
+     * (SERVER_DRAINING:<segundos>, repartido al azar), espera los comandos y transferencias
+     * en curso hasta el plazo, persiste lo pendiente y recién entonces cierra la base
+     */
     public void stop() {
+        if (!serverDrain.begin()) {
+            return;
+        }
         isRunning.set(false);
+        long deadline = System.currentTimeMillis() + serverDrain.getTimeoutMillis();
+        acceptor.close();
+        
+        // push solo encola en la conexión: un cliente que no lee no demora el aviso a los demás
+        connectionPool.forEachConnection(connection ->
+            connection.push("SERVER_DRAINING", String.valueOf(serverDrain.nextReconnectAfterSeconds())));
+        loggingService.info("Vaciando servidor: " + connectionPool.getActiveConnections() + " conexiones, " +
+                          serverDrain.getInFlight() + " comandos en curso");
         
+        if (!serverDrain.awaitIdle(deadline)) {
+            loggingService.warn("Plazo de vaciado vencido con " + serverDrain.getInFlight() + " comandos en curso");
+        }
+        
+        // Cerrar los sockets termina los handlers; su limpieza todavía usa la base
+        connectionPool.shutdown();
+        threadPool.shutdown();
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            long remaining = Math.max(MIN_HANDLER_WAIT_MILLIS, deadline - System.currentTimeMillis());
+            if (!threadPool.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                loggingService.warn("Quedaron handlers sin terminar al cerrar");
             }
-        } catch (IOException e) {
-            loggingService.error("Error cerrando servidor: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
-        threadPool.shutdown();
-        connectionPool.shutdown();
+        groupFanout.shutdown();
+        presenceService.shutdown();
+        thumbnailService.shutdown();
+        // Persistir los cupos y confirmaciones pendientes antes de cerrar el pool de la base
+        fileQuotaService.shutdown();
+        receiptService.shutdown();
         databaseConfig.close();
         
         loggingService.info("Servidor detenido correctamente");
+        loggingService.flush(LOG_FLUSH_MILLIS);
         System.out.println("Servidor detenido correctamente");
     }
 
@@ -128,6 +340,8 @@ public class MessagingServer {
                     Thread.sleep(60000); // Limpiar cada minuto
                     connectionPool.cleanupInactiveConnections();
                     userService.cleanupInactiveUsers();
+                    attachmentStore.purgeUnreferenced();
+                    metricsService.logSnapshot();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -141,6 +355,8 @@ public class MessagingServer {
     }
 
     public static void main(String[] args) {
+        // Las miniaturas usan java.awt sin pantalla
+        System.setProperty("java.awt.headless", "true");
         MessagingServer server = new MessagingServer();
         
         // Agregar shutdown hook para cerrar correctamente
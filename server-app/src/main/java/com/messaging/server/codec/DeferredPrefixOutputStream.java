@@ -0,0 +1,60 @@
+package com.messaging.server.codec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Antepone el comando de la línea recién con el primer byte del contenido
+ * Mientras no se escribió nada, una respuesta que falla todavía puede reemplazarse por otra
+ */
+public class DeferredPrefixOutputStream extends FilterOutputStream {
+    
+    private final byte[] prefix;
+    private boolean started;
+    
+    public DeferredPrefixOutputStream(OutputStream out, byte[] prefix) {
+        super(out);
+        this.prefix = prefix;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        start();
+        out.write(b);
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        start();
+        out.write(bytes, offset, length);
+    }
+    
+    /**
+     * Cierra la línea; si no hubo contenido escribe igual el comando
+     */
+    public void endLine() throws IOException {
+        start();
+        out.write('\n');
+    }
+    
+    public boolean isStarted() {
+        return started;
+    }
+    
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            out.write(prefix);
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        // El socket lo cierra la conexión
+        out.flush();
+    }
+}
@@ -0,0 +1,39 @@
+package com.messaging.server.codec;
+
+import com.messaging.server.model.Message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Mensaje serializado una sola vez por formato para enviarlo igual a muchas conexiones
+ * Se guarda la línea PENDING_MESSAGES:[...] completa en bytes y cada socket la escribe tal cual
+ */
+public final class EncodedMessage {
+
+    private final Message message;
+    private final byte[][] lines;
+
+    public EncodedMessage(Message message) {
+        this.message = message;
+        this.lines = new byte[PayloadFormat.values().length][];
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Línea lista para escribir (con salto de línea) en el formato negociado por la conexión
+     */
+    public synchronized byte[] line(PayloadFormat format) throws IOException {
+        byte[] line = lines[format.ordinal()];
+        if (line == null) {
+            String payload = JsonCodec.getInstance().encodeMessages(List.of(message), format);
+            line = ("PENDING_MESSAGES:" + payload + "\n").getBytes(StandardCharsets.UTF_8);
+            lines[format.ordinal()] = line;
+        }
+        return line;
+    }
+}
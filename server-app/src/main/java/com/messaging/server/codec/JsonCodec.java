@@ -0,0 +1,220 @@
+package com.messaging.server.codec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import com.messaging.server.model.Message;
+import com.messaging.server.model.User;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Codec JSON compartido por todo el servidor usando patrón Singleton
+ * ObjectReader y ObjectWriter son inmutables y seguros entre hilos, por lo que
+ * se construyen una sola vez en lugar de crear un ObjectMapper por conexión
+ * 
+ * También codifica en Smile cuando el cliente lo negocia en AUTH; como el protocolo
+ * es de líneas de texto, los datos Smile viajan en Base64
+ * 
+ * La configuración de fechas debe coincidir con JsonCodec del cliente
+ */
+public final class JsonCodec {
+    
+    private static volatile JsonCodec instance;
+    
+    private final FormatCodec json;
+    private final FormatCodec smile;
+    private final String emptySmileList;
+    
+    private JsonCodec() {
+        this.json = new FormatCodec(createObjectMapper());
+        this.smile = new FormatCodec(configure(new ObjectMapper(new SmileFactory())));
+        try {
+            this.emptySmileList = toBase64(smile.mapper.writeValueAsBytes(List.of()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo inicializar el codec Smile", e);
+        }
+    }
+    
+    public static JsonCodec getInstance() {
+        if (instance == null) {
+            synchronized (JsonCodec.class) {
+                if (instance == null) {
+                    instance = new JsonCodec();
+                }
+            }
+        }
+        return instance;
+    }
+    
+    /**
+     * Configuración única de Jackson para el protocolo
+     */
+    public static ObjectMapper createObjectMapper() {
+        return configure(new ObjectMapper());
+    }
+    
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.registerModule(new JavaTimeModule());
+        mapper.registerModule(new BlackbirdModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+    
+    public String writeMessage(Message message) throws JsonProcessingException {
+        return json.messageWriter.writeValueAsString(message);
+    }
+    
+    public String writeUser(User user) throws JsonProcessingException {
+        return json.userWriter.writeValueAsString(user);
+    }
+    
+    public String writeMessages(List<Message> messages) throws JsonProcessingException {
+        return json.messageListWriter.writeValueAsString(messages);
+    }
+    
+    public String writeUsers(List<User> users) throws JsonProcessingException {
+        return json.userListWriter.writeValueAsString(users);
+    }
+    
+    public Message readMessage(String json) throws JsonProcessingException {
+        return this.json.messageReader.readValue(json);
+    }
+    
+    public User readUser(String json) throws JsonProcessingException {
+        return this.json.userReader.readValue(json);
+    }
+    
+    public List<Message> readMessages(String json) throws JsonProcessingException {
+        return this.json.messageListReader.readValue(json);
+    }
+    
+    public List<User> readUsers(String json) throws JsonProcessingException {
+        return this.json.userListReader.readValue(json);
+    }
+    
+    // Variantes según el formato negociado por la conexión
+    
+    public String encodeMessage(Message message, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            toBase64(smile.messageWriter.writeValueAsBytes(message)) : writeMessage(message);
+    }
+    
+    public String encodeUser(User user, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            toBase64(smile.userWriter.writeValueAsBytes(user)) : writeUser(user);
+    }
+    
+    public String encodeMessages(List<Message> messages, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            toBase64(smile.messageListWriter.writeValueAsBytes(messages)) : writeMessages(messages);
+    }
+    
+    public String encodeUsers(List<User> users, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            toBase64(smile.userListWriter.writeValueAsBytes(users)) : writeUsers(users);
+    }
+    
+    public Message decodeMessage(String data, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            smile.messageReader.readValue(fromBase64(data)) : readMessage(data);
+    }
+    
+    public User decodeUser(String data, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            smile.userReader.readValue(fromBase64(data)) : readUser(data);
+    }
+    
+    public List<Message> decodeMessages(String data, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            smile.messageListReader.readValue(fromBase64(data)) : readMessages(data);
+    }
+    
+    public List<User> decodeUsers(String data, PayloadFormat format) throws IOException {
+        return format == PayloadFormat.SMILE ? 
+            smile.userListReader.readValue(fromBase64(data)) : readUsers(data);
+    }
+    
+    /**
+     * Abrir un arreglo de mensajes que se escribe elemento por elemento sobre la salida,
+     * sin materializar la lista completa en memoria
+     * Para Smile la salida ya debe estar codificando en Base64
+     */
+    public SequenceWriter openMessageArray(OutputStream out, PayloadFormat format) throws IOException {
+        return formatCodec(format).messageWriter.writeValuesAsArray(out);
+    }
+    
+    public SequenceWriter openUserArray(OutputStream out, PayloadFormat format) throws IOException {
+        return formatCodec(format).userWriter.writeValuesAsArray(out);
+    }
+    
+    /**
+     * Lista vacía en el formato indicado, usada como respuesta de error
+     */
+    public String emptyList(PayloadFormat format) {
+        return format == PayloadFormat.SMILE ? emptySmileList : "[]";
+    }
+    
+    public ObjectMapper getObjectMapper() {
+        return json.mapper;
+    }
+    
+    public ObjectMapper getObjectMapper(PayloadFormat format) {
+        return formatCodec(format).mapper;
+    }
+    
+    private FormatCodec formatCodec(PayloadFormat format) {
+        return format == PayloadFormat.SMILE ? smile : json;
+    }
+    
+    private static String toBase64(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+    
+    private static byte[] fromBase64(String data) {
+        return Base64.getDecoder().decode(data);
+    }
+    
+    /**
+     * Lectores y escritores preconstruidos para un formato
+     */
+    private static final class FormatCodec {
+        
+        private final ObjectMapper mapper;
+        private final ObjectReader messageReader;
+        private final ObjectReader userReader;
+        private final ObjectReader messageListReader;
+        private final ObjectReader userListReader;
+        private final ObjectWriter messageWriter;
+        private final ObjectWriter userWriter;
+        private final ObjectWriter messageListWriter;
+        private final ObjectWriter userListWriter;
+        
+        private FormatCodec(ObjectMapper mapper) {
+            TypeReference<List<Message>> messageList = new TypeReference<List<Message>>() {};
+            TypeReference<List<User>> userList = new TypeReference<List<User>>() {};
+            
+            this.mapper = mapper;
+            this.messageReader = mapper.readerFor(Message.class);
+            this.userReader = mapper.readerFor(User.class);
+            this.messageListReader = mapper.readerFor(messageList);
+            this.userListReader = mapper.readerFor(userList);
+            this.messageWriter = mapper.writerFor(Message.class);
+            this.userWriter = mapper.writerFor(User.class);
+            this.messageListWriter = mapper.writerFor(messageList);
+            this.userListWriter = mapper.writerFor(userList);
+        }
+    }
+}
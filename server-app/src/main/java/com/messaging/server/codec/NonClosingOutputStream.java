@@ -0,0 +1,27 @@
+package com.messaging.server.codec;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Envoltorio que deja abierto el stream del socket cuando Jackson
+ * o el codificador Base64 cierran su salida al terminar una respuesta
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+    
+    public NonClosingOutputStream(OutputStream out) {
+        super(out);
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        // FilterOutputStream escribe byte a byte por defecto
+        out.write(bytes, offset, length);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+}
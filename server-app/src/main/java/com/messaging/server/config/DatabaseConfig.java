@@ -1,7 +1,9 @@
 package com.messaging.server.config;
 
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,12 +13,18 @@ import java.sql.SQLException;
 /**
  * Configuración de base de datos usando patrón Singleton
  * Implementa Object Pool para conexiones de base de datos
+ * 
+ * Dos pools separados (bulkheads): el interactivo atiende los comandos de chat y el de
+ * trabajo masivo (archivos, vaciados periódicos, limpiezas) no puede tomar sus conexiones
  */
 public class DatabaseConfig {
     
     private static final Logger logger = LoggerFactory.getLogger(DatabaseConfig.class);
     private static volatile DatabaseConfig instance;
+    private static final int INTERACTIVE_MIN_IDLE = 5;
+    private static final int BULK_MIN_IDLE = 1;
     private HikariDataSource dataSource;
+    private HikariDataSource bulkDataSource;
     
     private DatabaseConfig() {
         initializeDataSource();
@@ -35,41 +43,11 @@ public class DatabaseConfig {
     
     private void initializeDataSource() {
         try {
-            HikariConfig config = new HikariConfig();
-            
-            // Configuración desde variables de entorno o valores por defecto
-            String dbUrl = System.getenv("DB_URL") != null ? 
-                System.getenv("DB_URL") : "jdbc:postgresql://localhost:5432/messaging_app";
-            String dbUser = System.getenv("DB_USER") != null ? 
-                System.getenv("DB_USER") : "messaging_user";
-            String dbPassword = System.getenv("DB_PASSWORD") != null ? 
-                System.getenv("DB_PASSWORD") : "messaging_pass";
-            
-            config.setJdbcUrl(dbUrl);
-            config.setUsername(dbUser);
-            config.setPassword(dbPassword);
-            
-            // Configuración del pool de conexiones
-            config.setMaximumPoolSize(20);
-            config.setMinimumIdle(5);
-            config.setConnectionTimeout(30000);
-            config.setIdleTimeout(600000);
-            config.setMaxLifetime(1800000);
-            config.setLeakDetectionThreshold(60000);
-            
-            // Configuración específica de PostgreSQL
-            config.addDataSourceProperty("cachePrepStmts", "true");
-            config.addDataSourceProperty("prepStmtCacheSize", "250");
-            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-            config.addDataSourceProperty("useServerPrepStmts", "true");
-            config.addDataSourceProperty("useLocalSessionState", "true");
-            config.addDataSourceProperty("rewriteBatchedStatements", "true");
-            config.addDataSourceProperty("cacheResultSetMetadata", "true");
-            config.addDataSourceProperty("cacheServerConfiguration", "true");
-            config.addDataSourceProperty("elideSetAutoCommits", "true");
-            config.addDataSourceProperty("maintainTimeStats", "false");
-            
-            dataSource = new HikariDataSource(config);
+            ServerConfig serverConfig = ServerConfig.getInstance();
+            int interactiveSize = serverConfig.getInteractivePoolSize();
+            int bulkSize = serverConfig.getBulkPoolSize();
+            dataSource = createDataSource("interactive", interactiveSize, Math.min(INTERACTIVE_MIN_IDLE, interactiveSize));
+            bulkDataSource = createDataSource("bulk", bulkSize, Math.min(BULK_MIN_IDLE, bulkSize));
             
             logger.info("Pool de conexiones de base de datos inicializado correctamente");
             
@@ -79,6 +57,45 @@ public class DatabaseConfig {
         }
     }
     
+    private HikariDataSource createDataSource(String poolName, int maximumPoolSize, int minimumIdle) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        
+        // Configuración desde variables de entorno o valores por defecto
+        String dbUrl = System.getenv("DB_URL") != null ? 
+            System.getenv("DB_URL") : "jdbc:postgresql://localhost:5432/messaging_app";
+        String dbUser = System.getenv("DB_USER") != null ? 
+            System.getenv("DB_USER") : "messaging_user";
+        String dbPassword = System.getenv("DB_PASSWORD") != null ? 
+            System.getenv("DB_PASSWORD") : "messaging_pass";
+        
+        config.setJdbcUrl(dbUrl);
+        config.setUsername(dbUser);
+        config.setPassword(dbPassword);
+        
+        // Configuración del pool de conexiones
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(minimumIdle);
+        config.setConnectionTimeout(30000);
+        config.setIdleTimeout(600000);
+        config.setMaxLifetime(1800000);
+        config.setLeakDetectionThreshold(60000);
+        
+        // Configuración específica de PostgreSQL
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("useLocalSessionState", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("cacheResultSetMetadata", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("elideSetAutoCommits", "true");
+        config.addDataSourceProperty("maintainTimeStats", "false");
+        
+        return new HikariDataSource(config);
+    }
+    
     public void initialize() {
         // Verificar conexión
         try (Connection connection = getConnection()) {
@@ -96,7 +113,46 @@ public class DatabaseConfig {
         return dataSource.getConnection();
     }
     
+    /**
+     * Conexión del pool de trabajo masivo: subidas de archivos, vaciados por lotes y limpiezas
+     */
+    public Connection getBulkConnection() throws SQLException {
+        if (bulkDataSource == null || bulkDataSource.isClosed()) {
+            throw new SQLException("DataSource no está disponible");
+        }
+        return bulkDataSource.getConnection();
+    }
+    
+    /**
+     * Estado de un pool para las métricas (interactive o bulk)
+     */
+    public HikariPoolMXBean getPoolStats(boolean bulk) {
+        HikariDataSource source = bulk ? bulkDataSource : dataSource;
+        return source != null ? source.getHikariPoolMXBean() : null;
+    }
+    
+    /**
+     * Cambia el tamaño de los pools en caliente; Hikari cierra las conexiones sobrantes a medida que se liberan
+     */
+    public void resizePools(int interactiveSize, int bulkSize) {
+        resize(dataSource, interactiveSize, INTERACTIVE_MIN_IDLE);
+        resize(bulkDataSource, bulkSize, BULK_MIN_IDLE);
+    }
+    
+    private void resize(HikariDataSource source, int maximumPoolSize, int minimumIdle) {
+        if (source == null || source.isClosed() || source.getMaximumPoolSize() == maximumPoolSize) {
+            return;
+        }
+        HikariConfigMXBean pool = source.getHikariConfigMXBean();
+        pool.setMinimumIdle(Math.min(minimumIdle, maximumPoolSize));
+        pool.setMaximumPoolSize(maximumPoolSize);
+        logger.info("Pool {} ajustado a {} conexiones", source.getPoolName(), maximumPoolSize);
+    }
+    
     public void close() {
+        if (bulkDataSource != null && !bulkDataSource.isClosed()) {
+            bulkDataSource.close();
+        }
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
             logger.info("Pool de conexiones cerrado correctamente");
@@ -1,21 +1,86 @@
 package com.messaging.server.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Configuración del servidor usando patrón Singleton
  * Aplica principio de responsabilidad única (SRP)
+ * 
+ * Los valores del classpath se pueden sobrescribir con un archivo externo
+ * (-Dmessaging.server.config, por defecto ./server.properties) que se vigila mientras el servidor corre:
+ * cada cambio se valida completo y reemplaza de una vez la foto vigente, y los componentes
+ * suscritos ajustan sus límites sin reiniciar. Una foto inválida se descarta y sigue la anterior
  */
 public class ServerConfig {
     
+    private static final Logger logger = LoggerFactory.getLogger(ServerConfig.class);
     private static volatile ServerConfig instance;
-    private final Properties properties;
+    private static final String EXTERNAL_FILE_PROPERTY = "messaging.server.config";
+    private static final String DEFAULT_EXTERNAL_FILE = "./server.properties";
+    // Los editores suelen escribir el archivo en más de un paso
+    private static final long RELOAD_DEBOUNCE_MILLIS = 200;
+    // Claves que solo se aplican al iniciar; cambiarlas en caliente solo deja un aviso.
+    // Las demás tienen un componente suscrito o se leen en cada uso
+    private static final Set<String> RESTART_KEYS = Set.of(
+        "server.port", "server.files.directory", "server.uploads.directory", "server.thumbnail.threads",
+        "server.thumbnail.size", "server.attachment.cache.bytes", "server.attachment.cache.offheap",
+        "server.quota.timezone", "server.quota.flush.seconds", "server.receipts.flush.seconds",
+        "server.groups.fanout.threads", "server.acceptor.threads", "server.acceptor.reuseport",
+        "server.accept.backlog");
+    
+    // Foto vigente: nunca se modifica después de publicarse, se reemplaza completa
+    private volatile Properties properties;
+    private final Path externalFile;
+    private final List<ConfigListener> listeners;
+    
+    /**
+     * Componente que ajusta sus límites cuando cambia la configuración
+     * Se invoca en el hilo que vigila el archivo, después de publicar la nueva foto
+     */
+    public interface ConfigListener {
+        void configChanged(ServerConfig config);
+    }
     
     private ServerConfig() {
-        this.properties = new Properties();
-        loadConfiguration();
+        this.externalFile = Paths.get(System.getProperty(EXTERNAL_FILE_PROPERTY, DEFAULT_EXTERNAL_FILE))
+            .toAbsolutePath().normalize();
+        this.listeners = new CopyOnWriteArrayList<>();
+        
+        Properties initial = loadConfiguration();
+        String problem = validate(initial);
+        if (problem != null) {
+            logger.error("Configuración externa inválida ({}), se usa la del classpath", problem);
+            initial = loadClasspathConfiguration();
+        }
+        this.properties = initial;
+    }
+    
+    // Solo para validar una foto candidata
+    private ServerConfig(Properties candidate) {
+        this.externalFile = null;
+        this.listeners = List.of();
+        this.properties = candidate;
     }
     
     public static ServerConfig getInstance() {
@@ -29,27 +94,197 @@ public class ServerConfig {
         return instance;
     }
     
-    private void loadConfiguration() {
+    private Properties loadConfiguration() {
+        Properties loaded = loadClasspathConfiguration();
+        if (Files.isRegularFile(externalFile)) {
+            try (Reader reader = Files.newBufferedReader(externalFile, StandardCharsets.UTF_8)) {
+                loaded.load(reader);
+            } catch (IOException e) {
+                logger.error("Error leyendo " + externalFile + ": " + e.getMessage());
+            }
+        }
+        return loaded;
+    }
+    
+    private Properties loadClasspathConfiguration() {
+        Properties loaded = new Properties();
         try (InputStream input = getClass().getClassLoader().getResourceAsStream("server.properties")) {
             if (input != null) {
-                properties.load(input);
+                loaded.load(input);
             } else {
                 // Configuración por defecto
-                setDefaultProperties();
+                setDefaultProperties(loaded);
             }
         } catch (IOException e) {
             System.err.println("Error cargando configuración: " + e.getMessage());
-            setDefaultProperties();
+            setDefaultProperties(loaded);
         }
+        return loaded;
     }
     
-    private void setDefaultProperties() {
+    private void setDefaultProperties(Properties properties) {
         properties.setProperty("server.port", "9999");
         properties.setProperty("server.max.connections", "100");
         properties.setProperty("server.max.threads", "50");
         properties.setProperty("server.connection.timeout", "300000"); // 5 minutos
         properties.setProperty("server.max.file.size", "10485760"); // 10MB
         properties.setProperty("server.files.directory", "./files");
+        properties.setProperty("server.uploads.directory", "uploads");
+        properties.setProperty("server.thumbnail.threads", "2");
+        properties.setProperty("server.thumbnail.size", "240");
+        properties.setProperty("server.attachment.cache.bytes", "67108864"); // 64MB
+        properties.setProperty("server.attachment.cache.offheap", "false");
+        properties.setProperty("server.quota.timezone", "America/Bogota");
+        properties.setProperty("server.quota.flush.seconds", "30");
+    }
+    
+    /**
+     * Vuelve a leer la configuración; si es válida y cambió, la publica y avisa a los suscritos
+     *
+     * @return true si se aplicó una configuración nueva
+     */
+    public synchronized boolean reload() {
+        Properties candidate = loadConfiguration();
+        String problem = validate(candidate);
+        if (problem != null) {
+            logger.error("Configuración rechazada, se mantiene la anterior: {}", problem);
+            return false;
+        }
+        
+        Properties previous = properties;
+        if (candidate.equals(previous)) {
+            return false;
+        }
+        for (String key : RESTART_KEYS) {
+            if (!Objects.equals(previous.getProperty(key), candidate.getProperty(key))) {
+                logger.warn("{} cambió pero solo se aplica al reiniciar el servidor", key);
+            }
+        }
+        
+        properties = candidate;
+        logger.info("Configuración recargada desde {}", externalFile);
+        for (ConfigListener listener : listeners) {
+            try {
+                listener.configChanged(this);
+            } catch (RuntimeException e) {
+                logger.error("Error aplicando configuración: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return null si la foto es válida, o la descripción del primer problema
+     */
+    private static String validate(Properties candidate) {
+        ServerConfig config = new ServerConfig(candidate);
+        try {
+            requireRange("server.port", config.getPort(), 1, 65535);
+            requireRange("server.max.connections", config.getMaxConnections(), 1, Integer.MAX_VALUE);
+            requireRange("server.max.threads", config.getMaxThreads(), 1, 10_000);
+            requireRange("server.connection.timeout", config.getConnectionTimeout(), 1, Integer.MAX_VALUE);
+            requireRange("server.max.file.size", config.getMaxFileSize(), 1, Long.MAX_VALUE);
+            requireRange("server.thumbnail.threads", config.getThumbnailThreads(), 1, 64);
+            requireRange("server.thumbnail.size", config.getThumbnailSize(), 16, 4096);
+            requireRange("server.attachment.cache.bytes", config.getAttachmentCacheBytes(), 0, Long.MAX_VALUE);
+            // scheduleWithFixedDelay no acepta un período de 0
+            requireRange("server.quota.flush.seconds", config.getQuotaFlushSeconds(), 1, 86_400);
+            requireRange("server.receipts.flush.seconds", config.getReceiptFlushSeconds(), 1, 86_400);
+            requireRange("server.delivery.batch.size", config.getDeliveryBatchSize(), 1, 10_000);
+            requireRange("server.groups.fanout.threads", config.getGroupFanoutThreads(), 1, 64);
+            requireRange("server.presence.window.ms", config.getPresenceWindowMillis(), 0, 60_000);
+            requireRange("server.auth.timeout.ms", config.getAuthTimeoutMillis(), 1, Integer.MAX_VALUE);
+            requireRange("server.frame.timeout.ms", config.getFrameTimeoutMillis(), 1, Integer.MAX_VALUE);
+            requireRange("server.file.data.timeout.ms", config.getFileDataTimeoutMillis(), 1, Integer.MAX_VALUE);
+            requireRange("server.max.line.length", config.getMaxLineLength(), 64, Integer.MAX_VALUE);
+            requireRange("server.write.queue.bytes", config.getWriteQueueBytes(), 1024, Integer.MAX_VALUE);
+            requireRange("server.write.timeout.ms", config.getWriteTimeoutMillis(), 1, Long.MAX_VALUE);
+            // Si supera server.max.connections, el control de admisión lo recorta
+            requireRange("server.admission.min.connections", config.getAdmissionMinConnections(), 1, Integer.MAX_VALUE);
+            requireRange("server.admission.max.pending.auth", config.getAdmissionMaxPendingAuth(), 1, Integer.MAX_VALUE);
+            requireRange("server.admission.latency.target.ms", config.getAdmissionLatencyTargetMillis(), 1, Long.MAX_VALUE);
+            requireRange("server.admission.retry.after.seconds", config.getAdmissionRetryAfterSeconds(), 1, 3600);
+            requireRange("server.transfer.max.concurrent", config.getTransferMaxConcurrent(), 1, Integer.MAX_VALUE);
+            requireRange("server.transfer.max.wait.ms", config.getTransferMaxWaitMillis(), 0, Long.MAX_VALUE);
+            requireRange("server.transfer.max.bytes.per.second", config.getTransferBytesPerSecond(), 0, Long.MAX_VALUE);
+            requireRange("server.db.interactive.pool.size", config.getInteractivePoolSize(), 1, 1000);
+            requireRange("server.db.bulk.pool.size", config.getBulkPoolSize(), 1, 1000);
+            requireRange("server.acceptor.threads", config.getAcceptorThreads(), 1, 64);
+            requireRange("server.accept.backlog", config.getAcceptBacklog(), 1, Integer.MAX_VALUE);
+            requireRange("server.delivery.settle.ms", config.getDeliverySettleMillis(), 0, 3_600_000);
+            requireRange("server.drain.timeout.ms", config.getDrainTimeoutMillis(), 0, Long.MAX_VALUE);
+            requireRange("server.drain.reconnect.spread.seconds", config.getDrainReconnectSpreadSeconds(), 1, 3600);
+            config.getQuotaTimeZone();
+            return null;
+        } catch (NumberFormatException e) {
+            return "valor numérico inválido (" + e.getMessage() + ")";
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+    
+    private static void requireRange(String key, long value, long min, long max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(key + "=" + value + " fuera de rango [" + min + ", " + max + "]");
+        }
+    }
+    
+    public void addListener(ConfigListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Vigila el archivo externo en un hilo aparte; sin directorio que vigilar no hace nada
+     */
+    public void startWatching() {
+        Path directory = externalFile.getParent();
+        if (directory == null || !Files.isDirectory(directory)) {
+            logger.info("Sin directorio de configuración externa para vigilar: {}", externalFile);
+            return;
+        }
+        
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.error("No se pudo vigilar la configuración: " + e.getMessage());
+            return;
+        }
+        
+        Thread watcher = new Thread(() -> watchLoop(watchService), "ConfigWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        logger.info("Vigilando cambios de configuración en {}", externalFile);
+    }
+    
+    private void watchLoop(WatchService watchService) {
+        Path fileName = externalFile.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    Thread.sleep(RELOAD_DEBOUNCE_MILLIS);
+                    // Los eventos de la misma escritura ya quedan cubiertos por esta recarga
+                    key.pollEvents();
+                    reload();
+                }
+                if (!key.reset()) {
+                    logger.warn("El directorio de configuración dejó de estar disponible");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Vigilancia de configuración terminada");
+        }
     }
     
     public int getPort() {
@@ -75,4 +310,138 @@ public class ServerConfig {
     public String getFilesDirectory() {
         return properties.getProperty("server.files.directory", "./files");
     }
+    
+    public String getUploadsDirectory() {
+        return properties.getProperty("server.uploads.directory", "uploads");
+    }
+    
+    public int getThumbnailThreads() {
+        return Integer.parseInt(properties.getProperty("server.thumbnail.threads", "2"));
+    }
+    
+    public int getThumbnailSize() {
+        return Integer.parseInt(properties.getProperty("server.thumbnail.size", "240"));
+    }
+    
+    public long getAttachmentCacheBytes() {
+        return Long.parseLong(properties.getProperty("server.attachment.cache.bytes", "67108864"));
+    }
+    
+    public boolean isAttachmentCacheOffHeap() {
+        return Boolean.parseBoolean(properties.getProperty("server.attachment.cache.offheap", "false"));
+    }
+    
+    /**
+     * Zona horaria en la que se reinicia el cupo diario de archivos
+     */
+    public ZoneId getQuotaTimeZone() {
+        return ZoneId.of(properties.getProperty("server.quota.timezone", "America/Bogota"));
+    }
+    
+    public long getQuotaFlushSeconds() {
+        return Long.parseLong(properties.getProperty("server.quota.flush.seconds", "30"));
+    }
+    
+    public long getReceiptFlushSeconds() {
+        return Long.parseLong(properties.getProperty("server.receipts.flush.seconds", "5"));
+    }
+    
+    public int getDeliveryBatchSize() {
+        return Integer.parseInt(properties.getProperty("server.delivery.batch.size", "100"));
+    }
+    
+    /**
+     * Antigüedad a partir de la cual se asume que un id ya no puede aparecer confirmado tarde
+     */
+    public long getDeliverySettleMillis() {
+        return Long.parseLong(properties.getProperty("server.delivery.settle.ms", "10000"));
+    }
+    
+    public int getGroupFanoutThreads() {
+        return Integer.parseInt(properties.getProperty("server.groups.fanout.threads", "2"));
+    }
+    
+    public long getPresenceWindowMillis() {
+        return Long.parseLong(properties.getProperty("server.presence.window.ms", "500"));
+    }
+
+    public int getTransferMaxConcurrent() {
+        return Integer.parseInt(properties.getProperty("server.transfer.max.concurrent", "4"));
+    }
+
+    public long getTransferMaxWaitMillis() {
+        return Long.parseLong(properties.getProperty("server.transfer.max.wait.ms", "2000"));
+    }
+
+    public long getTransferBytesPerSecond() {
+        return Long.parseLong(properties.getProperty("server.transfer.max.bytes.per.second", "10485760"));
+    }
+
+    public long getAuthTimeoutMillis() {
+        return Long.parseLong(properties.getProperty("server.auth.timeout.ms", "10000"));
+    }
+
+    public long getFrameTimeoutMillis() {
+        return Long.parseLong(properties.getProperty("server.frame.timeout.ms", "30000"));
+    }
+
+    public long getFileDataTimeoutMillis() {
+        return Long.parseLong(properties.getProperty("server.file.data.timeout.ms", "30000"));
+    }
+
+    public int getMaxLineLength() {
+        return Integer.parseInt(properties.getProperty("server.max.line.length", "1048576"));
+    }
+
+    public int getWriteQueueBytes() {
+        return Integer.parseInt(properties.getProperty("server.write.queue.bytes", "1048576"));
+    }
+
+    public long getWriteTimeoutMillis() {
+        return Long.parseLong(properties.getProperty("server.write.timeout.ms", "30000"));
+    }
+
+    public int getAdmissionMinConnections() {
+        return Integer.parseInt(properties.getProperty("server.admission.min.connections", "10"));
+    }
+
+    public int getAdmissionMaxPendingAuth() {
+        return Integer.parseInt(properties.getProperty("server.admission.max.pending.auth", "20"));
+    }
+
+    public long getAdmissionLatencyTargetMillis() {
+        return Long.parseLong(properties.getProperty("server.admission.latency.target.ms", "250"));
+    }
+
+    public int getAdmissionRetryAfterSeconds() {
+        return Integer.parseInt(properties.getProperty("server.admission.retry.after.seconds", "5"));
+    }
+
+    public int getAcceptorThreads() {
+        return Integer.parseInt(properties.getProperty("server.acceptor.threads", "1"));
+    }
+
+    public boolean isAcceptorReusePort() {
+        return Boolean.parseBoolean(properties.getProperty("server.acceptor.reuseport", "false"));
+    }
+
+    public int getAcceptBacklog() {
+        return Integer.parseInt(properties.getProperty("server.accept.backlog", "1024"));
+    }
+
+    public long getDrainTimeoutMillis() {
+        return Long.parseLong(properties.getProperty("server.drain.timeout.ms", "20000"));
+    }
+
+    public int getDrainReconnectSpreadSeconds() {
+        return Integer.parseInt(properties.getProperty("server.drain.reconnect.spread.seconds", "30"));
+    }
+
+    public int getInteractivePoolSize() {
+        return Integer.parseInt(properties.getProperty("server.db.interactive.pool.size", "16"));
+    }
+
+    public int getBulkPoolSize() {
+        return Integer.parseInt(properties.getProperty("server.db.bulk.pool.size", "4"));
+    }
 }
@@ -1,5 +1,7 @@
 package com.messaging.server.model;
 
+import com.messaging.server.codec.EncodedMessage;
+
 import java.io.IOException;
 import java.net.Socket;
 import java.time.LocalDateTime;
@@ -8,6 +10,19 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientConnection {
     
+    public static final String DEFAULT_DEVICE = "default";
+    
+    /**
+     * Envío de avisos a esta conexión desde hilos de otras conexiones
+     */
+    public interface PushChannel {
+        void deliver(Message message);
+        
+        void deliver(EncodedMessage message);
+        
+        void push(String command, String data);
+    }
+    
     private final String connectionId;
     private final Long userId;
     private final String username;
@@ -20,9 +35,18 @@ public class ClientConnection {
     private final AtomicInteger messagesCount;
     private final AtomicInteger filesSentCount;
     private final AtomicLong lastActivity;
+    private final String deviceId;
+    private volatile PushChannel pushChannel;
+    // Recibe PRESENCE_DELTA solo después de pedir SUBSCRIBE_PRESENCE
+    private volatile boolean presenceSubscribed;
     
     public ClientConnection(String connectionId, Long userId, String username, 
                           Socket socket, String clientIp, int maxConnections, int maxFilesPerDay) {
+        this(connectionId, userId, username, socket, clientIp, maxConnections, maxFilesPerDay, DEFAULT_DEVICE);
+    }
+    
+    public ClientConnection(String connectionId, Long userId, String username, Socket socket,
+                          String clientIp, int maxConnections, int maxFilesPerDay, String deviceId) {
         this.connectionId = connectionId;
         this.userId = userId;
         this.username = username;
@@ -35,6 +59,7 @@ public class ClientConnection {
         this.messagesCount = new AtomicInteger(0);
         this.filesSentCount = new AtomicInteger(0);
         this.lastActivity = new AtomicLong(System.currentTimeMillis());
+        this.deviceId = deviceId;
     }
     
     // Getters
@@ -82,6 +107,52 @@ public class ClientConnection {
         return lastActivity.get();
     }
     
+    public String getDeviceId() {
+        return deviceId;
+    }
+    
+    public boolean isPresenceSubscribed() {
+        return presenceSubscribed;
+    }
+    
+    public void setPresenceSubscribed(boolean presenceSubscribed) {
+        this.presenceSubscribed = presenceSubscribed;
+    }
+    
+    public void setPushChannel(PushChannel pushChannel) {
+        this.pushChannel = pushChannel;
+    }
+    
+    /**
+     * Entrega un mensaje nuevo a la conexión si su handler ya está listo para recibir avisos
+     */
+    public void deliver(Message message) {
+        PushChannel channel = pushChannel;
+        if (channel != null) {
+            channel.deliver(message);
+        }
+    }
+    
+    /**
+     * Entrega un mensaje ya serializado (reparto a grupos)
+     */
+    public void deliver(EncodedMessage message) {
+        PushChannel channel = pushChannel;
+        if (channel != null) {
+            channel.deliver(message);
+        }
+    }
+    
+    /**
+     * Envía un aviso de una línea (COMANDO:datos) a la conexión
+     */
+    public void push(String command, String data) {
+        PushChannel channel = pushChannel;
+        if (channel != null) {
+            channel.push(command, data);
+        }
+    }
+    
     // Métodos de actualización
     public void incrementMessagesCount() {
         messagesCount.incrementAndGet();
@@ -97,10 +168,6 @@ public class ClientConnection {
         lastActivity.set(System.currentTimeMillis());
     }
     
-    public boolean canSendFile() {
-        return filesSentCount.get() < maxFilesPerDay;
-    }
-    
     public boolean isConnected() {
         return socket != null && !socket.isClosed();
     }
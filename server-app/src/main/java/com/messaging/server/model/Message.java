@@ -9,8 +9,12 @@ import java.time.LocalDateTime;
 public class Message {
     
     private Long id;
+    // Clave de idempotencia generada por el cliente (UUIDv7), única por remitente
+    private String clientMessageId;
     private Long senderId;
     private Long receiverId;
+    // Mensajes de grupo: se guardan una sola vez sin receptor
+    private Long groupId;
     private String messageType;
     private String content;
     private String fileName;
@@ -39,8 +43,10 @@ public class Message {
     // Constructor privado para el Builder
     private Message(Builder builder) {
         this.id = builder.id;
+        this.clientMessageId = builder.clientMessageId;
         this.senderId = builder.senderId;
         this.receiverId = builder.receiverId;
+        this.groupId = builder.groupId;
         this.messageType = builder.messageType;
         this.content = builder.content;
         this.fileName = builder.fileName;
@@ -67,6 +73,14 @@ public class Message {
         this.id = id;
     }
     
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+    
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+    
     public Long getSenderId() {
         return senderId;
     }
@@ -83,6 +97,14 @@ public class Message {
         this.receiverId = receiverId;
     }
     
+    public Long getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+    
     public String getMessageType() {
         return messageType;
     }
@@ -173,8 +195,10 @@ public class Message {
     // Patrón Builder
     public static class Builder {
         private Long id;
+        private String clientMessageId;
         private Long senderId;
         private Long receiverId;
+        private Long groupId;
         private String messageType;
         private String content;
         private String fileName;
@@ -191,6 +215,11 @@ public class Message {
             return this;
         }
         
+        public Builder clientMessageId(String clientMessageId) {
+            this.clientMessageId = clientMessageId;
+            return this;
+        }
+        
         public Builder senderId(Long senderId) {
             this.senderId = senderId;
             return this;
@@ -201,6 +230,11 @@ public class Message {
             return this;
         }
         
+        public Builder groupId(Long groupId) {
+            this.groupId = groupId;
+            return this;
+        }
+        
         public Builder messageType(String messageType) {
             this.messageType = messageType;
             return this;
@@ -256,8 +290,8 @@ public class Message {
             if (senderId == null) {
                 throw new IllegalStateException("senderId es requerido");
             }
-            if (receiverId == null) {
-                throw new IllegalStateException("receiverId es requerido");
+            if (receiverId == null && groupId == null) {
+                throw new IllegalStateException("receiverId o groupId es requerido");
             }
             if (messageType == null || messageType.isEmpty()) {
                 throw new IllegalStateException("messageType es requerido");
@@ -1,8 +1,10 @@
 package com.messaging.server.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -25,6 +27,10 @@ public class User {
     private int filesSentCount;
     private int maxFilesPerDay;
     
+    // Día al que corresponde filesSentCount (solo uso interno del servidor)
+    @JsonIgnore
+    private LocalDate filesCountDate;
+    
     // Constructores
     public User() {}
     
@@ -138,6 +144,14 @@ public class User {
         this.maxFilesPerDay = maxFilesPerDay;
     }
     
+    public LocalDate getFilesCountDate() {
+        return filesCountDate;
+    }
+    
+    public void setFilesCountDate(LocalDate filesCountDate) {
+        this.filesCountDate = filesCountDate;
+    }
+    
     @Override
     public String toString() {
         return String.format("User{id=%d, username='%s', email='%s', status='%s', connected=%s}", 
@@ -5,24 +5,40 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 public class ConnectionPool {
     
+    /**
+     * Aviso de que un usuario pasó a tener su primera conexión o cerró la última
+     */
+    public interface PresenceListener {
+        void presenceChanged(Long userId, String username, boolean online);
+    }
+    
     private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
     private static volatile ConnectionPool instance;
     
     private final Map<String, ClientConnection> activeConnections;
     private final Map<Long, AtomicInteger> userConnectionCounts;
+    // Índice por usuario para entregar mensajes sin recorrer todas las conexiones
+    private final Map<Long, Set<ClientConnection>> connectionsByUser;
     private final AtomicInteger totalConnections;
+    private final List<PresenceListener> presenceListeners;
     
     private ConnectionPool() {
         this.activeConnections = new ConcurrentHashMap<>();
+        this.connectionsByUser = new ConcurrentHashMap<>();
         this.userConnectionCounts = new ConcurrentHashMap<>();
         this.totalConnections = new AtomicInteger(0);
+        this.presenceListeners = new CopyOnWriteArrayList<>();
     }
     
     public static ConnectionPool getInstance() {
@@ -50,8 +66,12 @@ public class ConnectionPool {
         }
         
         activeConnections.put(connectionId, connection);
-        userConnectionCounts.computeIfAbsent(userId, k -> new AtomicInteger(0)).incrementAndGet();
+        connectionsByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(connection);
+        int userConnections = userConnectionCounts.computeIfAbsent(userId, k -> new AtomicInteger(0)).incrementAndGet();
         totalConnections.incrementAndGet();
+        if (userConnections == 1) {
+            notifyPresence(userId, connection.getUsername(), true);
+        }
         
         logger.info("Conexión agregada: {} para usuario {}. Total: {}", 
             connectionId, userId, totalConnections.get());
@@ -63,12 +83,14 @@ public class ConnectionPool {
         ClientConnection connection = activeConnections.remove(connectionId);
         if (connection != null) {
             Long userId = connection.getUserId();
+            connectionsByUser.computeIfPresent(userId, (k, connections) -> {
+                connections.remove(connection);
+                return connections.isEmpty() ? null : connections;
+            });
             AtomicInteger userCount = userConnectionCounts.get(userId);
-            if (userCount != null) {
-                userCount.decrementAndGet();
-                if (userCount.get() <= 0) {
-                    userConnectionCounts.remove(userId);
-                }
+            if (userCount != null && userCount.decrementAndGet() <= 0) {
+                userConnectionCounts.remove(userId);
+                notifyPresence(userId, connection.getUsername(), false);
             }
             totalConnections.decrementAndGet();
             
@@ -82,9 +104,39 @@ public class ConnectionPool {
     }
     
     public Set<ClientConnection> getUserConnections(Long userId) {
-        return activeConnections.values().stream()
-            .filter(conn -> conn.getUserId() == userId)
-            .collect(Collectors.toSet());
+        Set<ClientConnection> connections = connectionsByUser.get(userId);
+        return connections != null ? new HashSet<>(connections) : new HashSet<>();
+    }
+    
+    /**
+     * Recorre las conexiones del usuario sin copiar el conjunto (reparto a grupos grandes)
+     */
+    public void forEachUserConnection(Long userId, Consumer<ClientConnection> action) {
+        Set<ClientConnection> connections = connectionsByUser.get(userId);
+        if (connections != null) {
+            connections.forEach(action);
+        }
+    }
+    
+    /**
+     * Recorre todas las conexiones sin copiar el mapa (avisos a todos los clientes)
+     */
+    public void forEachConnection(Consumer<ClientConnection> action) {
+        activeConnections.values().forEach(action);
+    }
+    
+    public void addPresenceListener(PresenceListener listener) {
+        presenceListeners.add(listener);
+    }
+    
+    private void notifyPresence(Long userId, String username, boolean online) {
+        for (PresenceListener listener : presenceListeners) {
+            try {
+                listener.presenceChanged(userId, username, online);
+            } catch (Exception e) {
+                logger.error("Error notificando presencia: " + e.getMessage());
+            }
+        }
     }
     
     public int getActiveConnections() {
@@ -104,15 +156,16 @@ public class ConnectionPool {
         long currentTime = System.currentTimeMillis();
         long timeout = 300000;
         
-        activeConnections.entrySet().removeIf(entry -> {
-            ClientConnection connection = entry.getValue();
+        // removeConnection mantiene al día los contadores y el índice por usuario
+        List<String> inactive = new ArrayList<>();
+        activeConnections.forEach((connectionId, connection) -> {
             if (currentTime - connection.getLastActivity() > timeout) {
                 logger.info("Removiendo conexión inactiva: {} para usuario {}", 
-                    entry.getKey(), connection.getUserId());
-                return true;
+                    connectionId, connection.getUserId());
+                inactive.add(connectionId);
             }
-            return false;
         });
+        inactive.forEach(this::removeConnection);
     }
     
     public boolean canUserConnect(Long userId, int maxConnections) {
@@ -142,6 +195,7 @@ public class ConnectionPool {
         });
         
         activeConnections.clear();
+        connectionsByUser.clear();
         userConnectionCounts.clear();
         totalConnections.set(0);
         
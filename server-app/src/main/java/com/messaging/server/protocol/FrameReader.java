@@ -0,0 +1,95 @@
+package com.messaging.server.protocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Lectura de líneas del protocolo con plazos y tamaño máximo
+ * Hasta el primer carácter rige el plazo que indique quien lee (autenticación u ociosidad);
+ * desde ahí la línea completa debe llegar dentro del plazo por trama
+ */
+public class FrameReader {
+
+    private final BufferedReader reader;
+    private final Socket socket;
+    private final int maxLength;
+    private final long frameMillis;
+
+    public FrameReader(BufferedReader reader, Socket socket, int maxLength, long frameMillis) {
+        this.reader = reader;
+        this.socket = socket;
+        this.maxLength = maxLength;
+        this.frameMillis = frameMillis;
+    }
+
+    /**
+     * Lee una línea sin el salto final; devuelve null si el cliente cerró la conexión
+     *
+     * @throws SocketTimeoutException si no llega nada en firstCharMillis
+     * @throws FrameTimeoutException si la línea empezó pero no terminó a tiempo
+     * @throws FrameTooLongException si la línea supera el máximo
+     */
+    public String readLine(long firstCharMillis) throws IOException {
+        socket.setSoTimeout((int) firstCharMillis);
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+
+        long deadline = System.currentTimeMillis() + frameMillis;
+        StringBuilder line = new StringBuilder();
+        while (c != '\n') {
+            if (line.length() >= maxLength) {
+                throw new FrameTooLongException(maxLength);
+            }
+            line.append((char) c);
+
+            // Solo se ajusta el plazo cuando la lectura va a bloquear esperando al socket
+            if (!reader.ready()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new FrameTimeoutException(frameMillis);
+                }
+                socket.setSoTimeout((int) remaining);
+            }
+            try {
+                c = reader.read();
+            } catch (SocketTimeoutException e) {
+                throw new FrameTimeoutException(frameMillis);
+            }
+            if (c == -1) {
+                break;
+            }
+        }
+
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Plazo para lecturas hechas directamente sobre el reader (datos de archivo)
+     */
+    public void setReadTimeout(long millis) throws IOException {
+        socket.setSoTimeout((int) millis);
+    }
+
+    /**
+     * La línea empezó a llegar pero no se completó dentro del plazo por trama
+     */
+    public static class FrameTimeoutException extends SocketTimeoutException {
+        public FrameTimeoutException(long frameMillis) {
+            super("Línea incompleta después de " + frameMillis + " ms");
+        }
+    }
+
+    public static class FrameTooLongException extends IOException {
+        public FrameTooLongException(int maxLength) {
+            super("Línea supera " + maxLength + " caracteres");
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.messaging.server.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Escritura de líneas del protocolo a través de una cola acotada
+ * Un hilo escritor por conexión vacía la cola hacia el socket y nadie más escribe en él.
+ * Las respuestas de la propia conexión esperan lugar en la cola con un plazo; los avisos que
+ * llegan desde otras conexiones nunca esperan: si la cola está llena o el escritor lleva más
+ * que el plazo bloqueado en el socket, el cliente se considera lento y se cierra la conexión.
+ * Lo que no llegó a escribirse está guardado y se entrega desde el cursor al reconectar
+ */
+public class FrameWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameWriter.class);
+
+    /**
+     * Línea que el hilo escritor produce directamente sobre el socket (transferencias)
+     */
+    @FunctionalInterface
+    public interface Frame {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final Socket socket;
+    private final String name;
+    private final int maxQueuedBytes;
+    private final long writeTimeoutNanos;
+    private final Consumer<String> onSlowConsumer;
+    private final ArrayDeque<Entry> queue;
+    private final Thread writerThread;
+    private OutputStream output;
+    private long queuedBytes;
+    private boolean closed;
+    // Momento en que empezó la escritura al socket en curso; 0 si no hay ninguna
+    private volatile long blockedSince;
+
+    public FrameWriter(Socket socket, String name, int maxQueuedBytes, long writeTimeoutMillis,
+                       Consumer<String> onSlowConsumer) {
+        this.socket = socket;
+        this.name = name;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.onSlowConsumer = onSlowConsumer;
+        this.queue = new ArrayDeque<>();
+        this.writerThread = new Thread(this::writeLoop, "Writer-" + name);
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() throws IOException {
+        output = new BufferedOutputStream(new MonitoredOutputStream(socket.getOutputStream()));
+        writerThread.start();
+    }
+
+    /**
+     * Encola un aviso sin esperar nunca; una línea que no entra cierra la conexión
+     *
+     * @return false si la conexión está cerrada o se cerró por cliente lento
+     */
+    public boolean offer(byte[] line) {
+        String slowReason;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            slowReason = slowReason(line.length);
+            if (slowReason == null) {
+                enqueue(new Entry(out -> out.write(line), line.length, null));
+                return true;
+            }
+        }
+        abort(slowReason);
+        return false;
+    }
+
+    /**
+     * Encola una respuesta de la propia conexión; espera lugar hasta el plazo de escritura
+     */
+    public void send(byte[] line) throws IOException {
+        long deadline = System.nanoTime() + writeTimeoutNanos;
+        synchronized (this) {
+            while (!closed && slowReason(line.length) != null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Escritura interrumpida");
+                }
+            }
+            if (closed) {
+                throw new IOException("Conexión cerrada");
+            }
+            if (slowReason(line.length) == null) {
+                enqueue(new Entry(out -> out.write(line), line.length, null));
+                return;
+            }
+        }
+        abort("el cliente no lee respuestas");
+        throw new IOException("Cliente lento: la cola de escritura no se vació a tiempo");
+    }
+
+    /**
+     * Encola una línea producida por el hilo escritor y espera a que termine de escribirse
+     * Su tamaño no cuenta para el límite de la cola: se produce a medida que se escribe.
+     * Si la línea falla a medias el escritor se detiene, porque no se puede resincronizar
+     */
+    public void sendAndWait(Frame frame) throws IOException {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Conexión cerrada");
+            }
+            enqueue(new Entry(frame, 0, written));
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Escritura interrumpida");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private String slowReason(int length) {
+        long blocked = blockedSince;
+        if (blocked != 0 && System.nanoTime() - blocked > writeTimeoutNanos) {
+            return "escritura bloqueada más de " + TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos) + " ms";
+        }
+        // Una línea más grande que la cola entra si la cola está vacía
+        if (queuedBytes > 0 && queuedBytes + length > maxQueuedBytes) {
+            return "cola de escritura llena (" + queuedBytes + " bytes)";
+        }
+        return null;
+    }
+
+    private void enqueue(Entry entry) {
+        queue.addLast(entry);
+        queuedBytes += entry.size;
+        notifyAll();
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Entry entry;
+                synchronized (this) {
+                    while (queue.isEmpty() && !closed) {
+                        wait();
+                    }
+                    entry = queue.pollFirst();
+                    if (entry == null) {
+                        return;
+                    }
+                }
+                try {
+                    entry.frame.writeTo(output);
+                    // Se vacía el buffer solo cuando no queda nada más por escribir
+                    if (isQueueEmpty()) {
+                        output.flush();
+                    }
+                    if (entry.written != null) {
+                        entry.written.complete(null);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Cerrado antes de avisar, así quien esperaba ya no puede encolar nada más
+                    synchronized (this) {
+                        closed = true;
+                    }
+                    if (entry.written != null) {
+                        entry.written.completeExceptionally(e);
+                    }
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        queuedBytes -= entry.size;
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Escritor de {} detenido: {}", name, e.getMessage());
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            failPending(new IOException("Conexión cerrada"));
+        }
+    }
+
+    private synchronized boolean isQueueEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Cliente lento: descarta lo encolado y cierra el socket, lo que también libera
+     * al escritor si está bloqueado y termina el handler de la conexión
+     */
+    private void abort(String reason) {
+        synchronized (this) {
+            if (closed && queue.isEmpty()) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        logger.warn("Desconectando a {}: {}", name, reason);
+        onSlowConsumer.accept(reason);
+        failPending(new IOException("Cliente lento: " + reason));
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Error cerrando socket de {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void failPending(IOException cause) {
+        synchronized (this) {
+            Entry entry;
+            while ((entry = queue.pollFirst()) != null) {
+                queuedBytes -= entry.size;
+                if (entry.written != null) {
+                    entry.written.completeExceptionally(cause);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * No acepta más líneas y espera hasta el plazo a que se escriba lo encolado;
+     * el socket lo cierra quien llama
+     */
+    public void close(long flushMillis) {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writerThread.join(flushMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    private static final class Entry {
+        private final Frame frame;
+        private final int size;
+        private final CompletableFuture<Void> written;
+
+        private Entry(Frame frame, int size, CompletableFuture<Void> written) {
+            this.frame = frame;
+            this.size = size;
+            this.written = written;
+        }
+    }
+
+    // Marca cuánto lleva bloqueada cada escritura real al socket
+    private final class MonitoredOutputStream extends FilterOutputStream {
+        private MonitoredOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            blockedSince = System.nanoTime();
+            try {
+                out.write(bytes, offset, length);
+            } finally {
+                blockedSince = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            blockedSince = System.nanoTime();
+            try {
+                out.flush();
+            } finally {
+                blockedSince = 0;
+            }
+        }
+    }
+}
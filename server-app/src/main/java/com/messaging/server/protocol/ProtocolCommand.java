@@ -0,0 +1,41 @@
+package com.messaging.server.protocol;
+
+/**
+ * Comando del protocolo de texto del servidor
+ * Cada línea tiene el formato COMANDO:datos
+ */
+public final class ProtocolCommand {
+    
+    private final String command;
+    private final String data;
+    
+    private ProtocolCommand(String command, String data) {
+        this.command = command;
+        this.data = data;
+    }
+    
+    /**
+     * Separar una línea recibida en comando y datos
+     * Solo se corta en el primer ':' para no copiar el resto de la línea dos veces
+     */
+    public static ProtocolCommand parse(String line) {
+        int separator = line.indexOf(':');
+        if (separator < 0) {
+            return new ProtocolCommand(line, "");
+        }
+        return new ProtocolCommand(line.substring(0, separator), line.substring(separator + 1));
+    }
+    
+    public String getCommand() {
+        return command;
+    }
+    
+    public String getData() {
+        return data;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("ProtocolCommand{command='%s', dataLength=%d}", command, data.length());
+    }
+}
@@ -0,0 +1,176 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.ServerConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Control de admisión de conexiones
+ * Cuenta cada socket desde que se acepta (no desde que autentica), limita los que esperan autenticar
+ * y ajusta el máximo según la salud del servidor: si la latencia de los comandos supera el objetivo
+ * o hay hilos esperando conexión a la base, el límite baja; cuando se normaliza, sube de a poco.
+ * Lo que no entra recibe SERVER_BUSY:<segundos> en vez de un cierre sin explicación
+ */
+public class AdmissionController {
+
+    private static final long ADJUST_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double DECREASE_FACTOR = 0.8;
+
+    // Ajustables en caliente desde ServerConfig
+    private volatile int maxConnections;
+    private volatile int minConnections;
+    private volatile int maxPendingAuth;
+    private volatile long latencyTargetNanos;
+    private volatile int retryAfterSeconds;
+    private final IntSupplier databaseWaiters;
+    private final AtomicInteger admitted;
+    private final AtomicInteger pendingAuth;
+    private final AtomicLong shed;
+    // Latencia media móvil de los comandos interactivos
+    private final AtomicLong latencyNanos;
+    private final AtomicLong samples;
+    private volatile int limit;
+    private long lastAdjust;
+    private long samplesAtAdjust;
+
+    public AdmissionController(ServerConfig serverConfig, IntSupplier databaseWaiters) {
+        this.databaseWaiters = databaseWaiters;
+        this.admitted = new AtomicInteger();
+        this.pendingAuth = new AtomicInteger();
+        this.shed = new AtomicLong();
+        this.latencyNanos = new AtomicLong();
+        this.samples = new AtomicLong();
+        this.lastAdjust = System.nanoTime();
+        applyConfig(serverConfig);
+        this.limit = maxConnections;
+    }
+    
+    /**
+     * Toma los límites nuevos; el límite adaptativo se recorta al rango nuevo
+     * y desde ahí sigue subiendo o bajando según la carga
+     */
+    public synchronized void applyConfig(ServerConfig serverConfig) {
+        // Cada sesión ocupa un hilo del pool mientras dura: admitir más que hilos no sirve
+        maxConnections = Math.min(serverConfig.getMaxConnections(), serverConfig.getMaxThreads());
+        minConnections = Math.min(maxConnections, serverConfig.getAdmissionMinConnections());
+        maxPendingAuth = serverConfig.getAdmissionMaxPendingAuth();
+        latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(serverConfig.getAdmissionLatencyTargetMillis());
+        retryAfterSeconds = serverConfig.getAdmissionRetryAfterSeconds();
+        limit = Math.max(minConnections, Math.min(limit, maxConnections));
+    }
+
+    /**
+     * Decide si se atiende un socket recién aceptado
+     *
+     * @return la admisión, que el handler libera al terminar; null si hay que rechazarlo
+     */
+    public Admission tryAdmit() {
+        adjustLimit();
+
+        if (admitted.incrementAndGet() > limit) {
+            admitted.decrementAndGet();
+            shed.incrementAndGet();
+            return null;
+        }
+        if (pendingAuth.incrementAndGet() > maxPendingAuth) {
+            pendingAuth.decrementAndGet();
+            admitted.decrementAndGet();
+            shed.incrementAndGet();
+            return null;
+        }
+        return new Admission();
+    }
+
+    /**
+     * Un socket admitido que igual no se pudo atender (sin hilo libre)
+     */
+    public void recordShed() {
+        shed.incrementAndGet();
+    }
+
+    /**
+     * Segundos sugeridos antes de reintentar, con jitter para que los rechazados no vuelvan juntos
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds + ThreadLocalRandom.current().nextInt(retryAfterSeconds + 1);
+    }
+
+    public void recordLatency(long nanos) {
+        samples.incrementAndGet();
+        latencyNanos.updateAndGet(current -> current + (nanos - current) / 8);
+    }
+
+    /**
+     * Aumento aditivo y disminución multiplicativa, como mucho una vez por segundo
+     */
+    private synchronized void adjustLimit() {
+        long now = System.nanoTime();
+        if (now - lastAdjust < ADJUST_INTERVAL_NANOS) {
+            return;
+        }
+        lastAdjust = now;
+
+        // Sin comandos desde el último ajuste la latencia vieja no cuenta
+        long currentSamples = samples.get();
+        boolean slow = currentSamples != samplesAtAdjust && latencyNanos.get() > latencyTargetNanos;
+        samplesAtAdjust = currentSamples;
+
+        if (slow || databaseWaiters.getAsInt() > 0) {
+            limit = Math.max(minConnections, (int) (limit * DECREASE_FACTOR));
+        } else if (limit < maxConnections) {
+            limit = Math.min(maxConnections, limit + Math.max(1, maxConnections / 20));
+        }
+    }
+
+    public void registerMetrics(MetricsService metricsService) {
+        metricsService.registerGauge("admission.admitted", admitted::get);
+        metricsService.registerGauge("admission.pendingAuth", pendingAuth::get);
+        metricsService.registerGauge("admission.limit", () -> limit);
+        metricsService.registerGauge("admission.shed", shed::get);
+        metricsService.registerGauge("admission.latencyMillis",
+            () -> latencyNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Lugar ocupado por un socket; pasa de pendiente a autenticado y se libera una sola vez
+     */
+    public final class Admission {
+
+        private final long admittedAtMillis;
+        private boolean authenticated;
+        private boolean released;
+
+        private Admission() {
+            this.admittedAtMillis = System.currentTimeMillis();
+        }
+
+        /**
+         * Momento del accept; el plazo de autenticación corre desde aquí
+         */
+        public long getAdmittedAtMillis() {
+            return admittedAtMillis;
+        }
+
+        public void authenticated() {
+            if (!authenticated && !released) {
+                authenticated = true;
+                pendingAuth.decrementAndGet();
+            }
+        }
+
+        public void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (!authenticated) {
+                pendingAuth.decrementAndGet();
+            }
+            admitted.decrementAndGet();
+        }
+    }
+}
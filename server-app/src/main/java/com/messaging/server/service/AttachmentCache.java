@@ -0,0 +1,139 @@
+package com.messaging.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché LRU en memoria para el contenido de adjuntos y miniaturas
+ * Limitada por bytes en lugar de cantidad de entradas; opcionalmente guarda
+ * el contenido fuera del heap (ByteBuffer directo) para no presionar al GC
+ * Las claves son rutas de blobs direccionados por contenido, así que una entrada nunca queda desactualizada
+ */
+public class AttachmentCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentCache.class);
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<Path, ByteBuffer> entries;
+    private long usedBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public AttachmentCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        // Un archivo muy grande no debe vaciar la caché completa
+        this.maxEntryBytes = maxBytes / 4;
+        this.offHeap = offHeap;
+        this.entries = new LinkedHashMap<>(128, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Contenido del archivo como buffer de solo lectura; lo lee de disco si no está en caché
+     */
+    public ByteBuffer get(Path path) throws IOException {
+        synchronized (this) {
+            ByteBuffer cached = entries.get(path);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.asReadOnlyBuffer();
+            }
+        }
+
+        misses.incrementAndGet();
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length > maxEntryBytes) {
+            // No se guarda: copiarlo fuera del heap solo duplicaría la memoria
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        ByteBuffer buffer = toBuffer(bytes);
+        put(path, buffer);
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public synchronized void invalidate(Path path) {
+        ByteBuffer removed = entries.remove(path);
+        if (removed != null) {
+            usedBytes -= removed.capacity();
+        }
+    }
+
+    private synchronized void put(Path path, ByteBuffer buffer) {
+        ByteBuffer previous = entries.put(path, buffer);
+        if (previous != null) {
+            usedBytes -= previous.capacity();
+        }
+        usedBytes += buffer.capacity();
+
+        Iterator<Map.Entry<Path, ByteBuffer>> eldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Path, ByteBuffer> entry = eldest.next();
+            usedBytes -= entry.getValue().capacity();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private ByteBuffer toBuffer(byte[] bytes) {
+        if (!offHeap) {
+            return ByteBuffer.wrap(bytes);
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        return direct;
+    }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Publica las métricas de la caché en el registro del servidor
+     */
+    public void registerMetrics(MetricsService metricsService) {
+        metricsService.registerGauge("attachmentCache.hitRatio", this::getHitRatio);
+        metricsService.registerGauge("attachmentCache.hits", this::getHits);
+        metricsService.registerGauge("attachmentCache.misses", this::getMisses);
+        metricsService.registerGauge("attachmentCache.evictions", this::getEvictions);
+        metricsService.registerGauge("attachmentCache.usedBytes", this::getUsedBytes);
+        metricsService.registerGauge("attachmentCache.entries", this::getEntryCount);
+        logger.info("Caché de adjuntos: {} bytes{}", maxBytes, offHeap ? " fuera del heap" : "");
+    }
+}
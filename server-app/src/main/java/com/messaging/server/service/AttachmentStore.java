@@ -0,0 +1,311 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.DatabaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Almacén de adjuntos direccionado por contenido
+ * Cada contenido distinto se guarda una sola vez en blobs/ab/cd/<sha256>
+ * y la tabla attachment_blobs lleva la cuenta de mensajes que lo referencian
+ */
+public class AttachmentStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttachmentStore.class);
+    private static final long PURGE_GRACE_MS = 10 * 60 * 1000L;
+
+    private final DatabaseConfig databaseConfig;
+    private final AttachmentCache cache;
+    private final Path uploadsRoot;
+    private final Path blobsRoot;
+    private final Path tempRoot;
+
+    public AttachmentStore(DatabaseConfig databaseConfig, AttachmentCache cache, String uploadsDirectory) {
+        this.databaseConfig = databaseConfig;
+        this.cache = cache;
+        this.uploadsRoot = Paths.get(uploadsDirectory).normalize();
+        this.blobsRoot = uploadsRoot.resolve("blobs");
+        this.tempRoot = blobsRoot.resolve("tmp");
+    }
+
+    /**
+     * Inicia la recepción de un adjunto; el contenido se escribe a un temporal
+     * mientras se calcula su hash
+     */
+    public Upload beginUpload() throws IOException {
+        Files.createDirectories(tempRoot);
+        return new Upload(Files.createTempFile(tempRoot, "upload-", ".part"));
+    }
+
+    /**
+     * Resuelve una ruta guardada en messages.file_path, impidiendo salir del directorio de uploads
+     */
+    public Path resolve(String relativePath) {
+        Path path = Paths.get(relativePath).normalize();
+        if (!path.toAbsolutePath().startsWith(uploadsRoot.toAbsolutePath())) {
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * Contenido de un adjunto o miniatura ya resuelto, servido desde la caché en memoria cuando es posible
+     */
+    public ByteBuffer read(Path path) throws IOException {
+        return cache.get(path);
+    }
+    
+    /**
+     * Blob nuevo cuyo mensaje no se guardó. Se registra sin referencias para que purgeUnreferenced
+     * lo borre pasado el margen, por si otra subida del mismo contenido ya lo está reutilizando;
+     * si ni siquiera eso se puede registrar, se borra ahora
+     */
+    public void discard(Blob blob) {
+        if (blob.isReused()) {
+            return;
+        }
+        String sql = "INSERT INTO attachment_blobs (sha256, blob_path, size_bytes, ref_count) " +
+                    "VALUES (?, ?, ?, 0) ON CONFLICT (sha256) DO NOTHING";
+        try (Connection conn = databaseConfig.getBulkConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, blob.getSha256());
+            stmt.setString(2, blob.getRelativePath());
+            stmt.setLong(3, blob.getSize());
+            stmt.executeUpdate();
+            return;
+        } catch (SQLException e) {
+            logger.warn("No se pudo registrar el adjunto descartado {}: {}", blob.getSha256(), e.getMessage());
+        }
+
+        Path path = resolve(blob.getRelativePath());
+        try {
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            logger.warn("No se pudo eliminar el adjunto descartado {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Elimina del disco los blobs que ya no referencia ningún mensaje
+     * El margen se mide en la base (last_referenced_at) y cada borrado de archivo ocurre con la
+     * fila bloqueada: una subida que reutiliza el blob espera ese bloqueo antes de decidir
+     */
+    public int purgeUnreferenced() {
+        String selectSql = "SELECT sha256, blob_path FROM attachment_blobs WHERE ref_count <= 0 " +
+                          "AND last_referenced_at < CURRENT_TIMESTAMP - (? * INTERVAL '1 millisecond')";
+        String deleteSql = "DELETE FROM attachment_blobs WHERE sha256 = ? AND ref_count <= 0 " +
+                          "AND last_referenced_at < CURRENT_TIMESTAMP - (? * INTERVAL '1 millisecond')";
+
+        List<String[]> orphans = new ArrayList<>();
+        int purged = 0;
+
+        try (Connection conn = databaseConfig.getBulkConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(selectSql)) {
+                stmt.setLong(1, PURGE_GRACE_MS);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        orphans.add(new String[] { rs.getString("sha256"), rs.getString("blob_path") });
+                    }
+                }
+            }
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+                for (String[] orphan : orphans) {
+                    stmt.setString(1, orphan[0]);
+                    stmt.setLong(2, PURGE_GRACE_MS);
+                    // Se vuelve a comprobar con la fila bloqueada: nadie la reutilizó mientras tanto
+                    if (stmt.executeUpdate() == 0) {
+                        conn.rollback();
+                        continue;
+                    }
+                    Path path = resolve(orphan[1]);
+                    try {
+                        if (path != null) {
+                            Path thumbnail = ThumbnailService.thumbnailPath(path);
+                            cache.invalidate(path);
+                            cache.invalidate(thumbnail);
+                            Files.deleteIfExists(path);
+                            Files.deleteIfExists(thumbnail);
+                        }
+                    } catch (IOException e) {
+                        // La fila se conserva y se reintenta en la próxima limpieza
+                        conn.rollback();
+                        logger.warn("No se pudo eliminar el adjunto {}: {}", path, e.getMessage());
+                        continue;
+                    }
+                    // El bloqueo se suelta recién con el archivo ya borrado
+                    conn.commit();
+                    purged++;
+                }
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            logger.error("Error limpiando adjuntos sin referencias: " + e.getMessage());
+        }
+
+        if (purged > 0) {
+            logger.info("Eliminados {} adjuntos sin referencias", purged);
+        }
+        return purged;
+    }
+
+    /**
+     * Marca el blob como recién referenciado; espera si una limpieza tiene la fila bloqueada
+     *
+     * @return false si no hay fila (blob nuevo aún sin mensaje, o recién purgado)
+     */
+    private boolean touch(String sha256) throws IOException {
+        String sql = "UPDATE attachment_blobs SET last_referenced_at = CURRENT_TIMESTAMP WHERE sha256 = ?";
+        try (Connection conn = databaseConfig.getBulkConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, sha256);
+            return stmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new IOException("Error marcando adjunto en uso: " + e.getMessage(), e);
+        }
+    }
+
+    private Path blobPath(String sha256) {
+        return blobsRoot.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    /**
+     * Adjunto almacenado: hash, ruta relativa y tamaño en bytes
+     */
+    public static final class Blob {
+        private final String sha256;
+        private final String relativePath;
+        private final long size;
+        private final boolean reused;
+
+        private Blob(String sha256, String relativePath, long size, boolean reused) {
+            this.sha256 = sha256;
+            this.relativePath = relativePath;
+            this.size = size;
+            this.reused = reused;
+        }
+
+        public String getSha256() { return sha256; }
+        public String getRelativePath() { return relativePath; }
+        public long getSize() { return size; }
+        public boolean isReused() { return reused; }
+    }
+
+    /**
+     * Recepción en curso: decodifica los bloques Base64 del protocolo y los escribe
+     * al temporal calculando el SHA-256 sin cargar el archivo completo en memoria
+     */
+    public final class Upload implements Closeable {
+
+        private final Path tempFile;
+        private final MessageDigest digest;
+        private final OutputStream output;
+        private final StringBuilder pending;
+        private long size;
+        private boolean finished;
+
+        private Upload(Path tempFile) throws IOException {
+            this.tempFile = tempFile;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 no disponible", e);
+            }
+            this.output = new DigestOutputStream(Files.newOutputStream(tempFile), digest);
+            this.pending = new StringBuilder();
+        }
+
+        /**
+         * Agrega un bloque Base64; los caracteres que no completan un grupo de 4 quedan para el siguiente
+         */
+        public void append(String base64Chunk) throws IOException {
+            pending.append(base64Chunk);
+            int usable = pending.length() - (pending.length() % 4);
+            if (usable > 0) {
+                byte[] bytes = Base64.getDecoder().decode(pending.substring(0, usable));
+                output.write(bytes);
+                size += bytes.length;
+                pending.delete(0, usable);
+            }
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Cierra la recepción y mueve el contenido a su ruta definitiva si aún no existe
+         */
+        public Blob finish() throws IOException {
+            if (pending.length() > 0) {
+                throw new IOException("Datos Base64 incompletos");
+            }
+            output.close();
+            finished = true;
+
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            Path target = blobPath(sha256);
+            boolean reused = false;
+            if (Files.exists(target)) {
+                // Renueva el margen en la base para que purgeUnreferenced no lo borre antes de guardar
+                // el mensaje; si una limpieza lo estaba borrando, esto espera a que termine y el archivo
+                // ya no está: entonces se guarda el temporal como blob nuevo
+                touch(sha256);
+                reused = Files.exists(target);
+            }
+
+            if (reused) {
+                Files.deleteIfExists(tempFile);
+            } else {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // Otra conexión guardó el mismo contenido al mismo tiempo
+                    Files.deleteIfExists(tempFile);
+                    reused = true;
+                }
+            }
+
+            return new Blob(sha256, target.toString().replace('\\', '/'), size, reused);
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                try {
+                    output.close();
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    logger.warn("No se pudo eliminar el temporal {}: {}", tempFile, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.messaging.server.service;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ancho de banda compartido por todas las transferencias (cubeta de tokens en bytes)
+ * Se permite una ráfaga de hasta un segundo; quien consume de más duerme hasta saldar la deuda.
+ * Con límite 0 no se frena nada
+ */
+public class BandwidthLimiter {
+
+    private volatile long bytesPerSecond;
+    private final AtomicLong throttledNanos;
+    private long available;
+    private long lastRefill;
+
+    public BandwidthLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.throttledNanos = new AtomicLong();
+        this.available = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public void acquire(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long refill = (now - lastRefill) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+            if (refill > 0) {
+                available = Math.min(bytesPerSecond, available + refill);
+                lastRefill = now;
+            }
+            available -= bytes;
+            waitNanos = available < 0 ? -available * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0;
+        }
+
+        if (waitNanos > 0) {
+            throttledNanos.addAndGet(waitNanos);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Transferencia interrumpida");
+            }
+        }
+    }
+
+    public synchronized void setBytesPerSecond(long newBytesPerSecond) {
+        bytesPerSecond = newBytesPerSecond;
+        available = Math.min(available, newBytesPerSecond);
+        lastRefill = System.nanoTime();
+    }
+
+    public long getThrottledMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+    }
+}
@@ -0,0 +1,110 @@
+package com.messaging.server.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compartimento con un número fijo de operaciones simultáneas
+ * Quien no consigue lugar dentro del tiempo de espera es rechazado en vez de quedar encolado,
+ * así una ráfaga de un tipo de trabajo no consume los recursos del resto
+ */
+public class Bulkhead {
+
+    private final String name;
+    private volatile int maxConcurrent;
+    private volatile long maxWaitMillis;
+    private final ResizableSemaphore permits;
+    private final AtomicInteger waiting;
+    private final AtomicLong rejected;
+    private final AtomicLong completed;
+    private final AtomicLong waitNanos;
+
+    public Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new ResizableSemaphore(maxConcurrent);
+        this.waiting = new AtomicInteger();
+        this.rejected = new AtomicLong();
+        this.completed = new AtomicLong();
+        this.waitNanos = new AtomicLong();
+    }
+
+    /**
+     * Intenta ocupar un lugar; si devuelve true hay que llamar a exit() al terminar
+     */
+    public boolean tryEnter() {
+        long start = System.nanoTime();
+        boolean acquired;
+        waiting.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        if (acquired) {
+            waitNanos.addAndGet(System.nanoTime() - start);
+        } else {
+            rejected.incrementAndGet();
+        }
+        return acquired;
+    }
+
+    public void exit() {
+        completed.incrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Cambia la cantidad de lugares; al reducirla las operaciones en curso terminan
+     * normalmente y las nuevas esperan hasta quedar dentro del límite
+     */
+    public synchronized void setLimits(int newMaxConcurrent, long newMaxWaitMillis) {
+        int delta = newMaxConcurrent - maxConcurrent;
+        if (delta > 0) {
+            permits.release(delta);
+        } else if (delta < 0) {
+            permits.reducePermits(-delta);
+        }
+        maxConcurrent = newMaxConcurrent;
+        maxWaitMillis = newMaxWaitMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public void registerMetrics(MetricsService metricsService) {
+        String prefix = "bulkhead." + name + ".";
+        metricsService.registerGauge(prefix + "active", this::getActive);
+        metricsService.registerGauge(prefix + "waiting", waiting::get);
+        metricsService.registerGauge(prefix + "rejected", rejected::get);
+        metricsService.registerGauge(prefix + "completed", completed::get);
+        metricsService.registerGauge(prefix + "avgWaitMillis", () -> {
+            long entered = completed.get() + getActive();
+            return entered > 0 ? waitNanos.get() / 1_000_000.0 / entered : 0.0;
+        });
+    }
+
+    // Semaphore no permite quitar permisos desde afuera
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
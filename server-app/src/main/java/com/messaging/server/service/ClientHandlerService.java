@@ -1,48 +1,131 @@
 package com.messaging.server.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.messaging.server.codec.EncodedMessage;
+import com.messaging.server.config.ServerConfig;
+import com.messaging.server.codec.JsonCodec;
+import com.messaging.server.codec.DeferredPrefixOutputStream;
+import com.messaging.server.codec.NonClosingOutputStream;
+import com.messaging.server.codec.PayloadFormat;
 import com.messaging.server.model.ClientConnection;
 import com.messaging.server.model.Message;
 import com.messaging.server.model.User;
 import com.messaging.server.pool.ConnectionPool;
+import com.messaging.server.protocol.FrameReader;
+import com.messaging.server.protocol.FrameWriter;
+import com.messaging.server.protocol.ProtocolCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClientHandlerService implements Runnable {
     
     private static final Logger logger = LoggerFactory.getLogger(ClientHandlerService.class);
+    private static final long THUMBNAIL_WAIT_SECONDS = 10;
+    // Tamaño de los bloques en que se leen y escriben los datos de una transferencia
+    private static final int TRANSFER_CHUNK_CHARS = 64 * 1024;
+    private static final int TRANSFER_CHUNK_BYTES = TRANSFER_CHUNK_CHARS / 4 * 3;
+    // Tiempo para que salga lo ya encolado (p. ej. AUTH_FAILED) antes de cerrar el socket
+    private static final long CLOSE_FLUSH_MILLIS = 2000;
     
     private final Socket clientSocket;
     private final UserService userService;
     private final LoggingService loggingService;
     private final ConnectionPool connectionPool;
-    private final ObjectMapper objectMapper;
+    private final AttachmentStore attachmentStore;
+    private final ThumbnailService thumbnailService;
+    private final FileQuotaService fileQuotaService;
+    private final DeliveryService deliveryService;
+    private final ReceiptService receiptService;
+    private final UnreadCountService unreadCountService;
+    private final GroupService groupService;
+    private final GroupFanout groupFanout;
+    private final Bulkhead transferBulkhead;
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ReadDeadlines readDeadlines;
+    private final WriteLimits writeLimits;
+    private final AdmissionController admissionController;
+    private final AdmissionController.Admission admission;
+    private final ServerDrain serverDrain;
+    private final JsonCodec jsonCodec;
+    // Orden de los avisos en vivo respecto del historial y de la foto de presencia
+    private final Object pushLock;
     
     private BufferedReader reader;
-    private PrintWriter writer;
+    private FrameReader frameReader;
+    // Única salida al socket; otras conexiones solo encolan avisos sin esperar
+    private FrameWriter frameWriter;
     private ClientConnection clientConnection;
+    private User authenticatedUser;
+    private PayloadFormat payloadFormat;
+    private boolean formatNegotiated;
+    private String deviceId;
+    // Entrega de pendientes: protegidos por pushLock
+    private long pendingFrom;
+    private boolean backlogDrained;
+    // Mensajes llegados en vivo mientras se consulta un lote del historial
+    private final List<Message> deferred;
+    // PRESENCE_DELTA retenidos mientras se arma la foto de SUBSCRIBE_PRESENCE (null si no hay)
+    private List<String> heldPresence;
+    // Mensajes entregados sin ACK_DELIVERED todavía: id -> remitente (protegido por pushLock)
+    private final TreeMap<Long, Long> unacknowledged;
     private final AtomicBoolean isRunning;
     
     public ClientHandlerService(Socket clientSocket, UserService userService, 
-                              LoggingService loggingService, ConnectionPool connectionPool) {
+                              LoggingService loggingService, ConnectionPool connectionPool,
+                              AttachmentStore attachmentStore, ThumbnailService thumbnailService,
+                              FileQuotaService fileQuotaService, DeliveryService deliveryService,
+                              ReceiptService receiptService, UnreadCountService unreadCountService,
+                              GroupService groupService, GroupFanout groupFanout,
+                              Bulkhead transferBulkhead, BandwidthLimiter bandwidthLimiter,
+                              ReadDeadlines readDeadlines, WriteLimits writeLimits,
+                              AdmissionController admissionController,
+                              AdmissionController.Admission admission, ServerDrain serverDrain) {
         this.clientSocket = clientSocket;
         this.userService = userService;
         this.loggingService = loggingService;
         this.connectionPool = connectionPool;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
+        this.attachmentStore = attachmentStore;
+        this.thumbnailService = thumbnailService;
+        this.fileQuotaService = fileQuotaService;
+        this.deliveryService = deliveryService;
+        this.receiptService = receiptService;
+        this.unreadCountService = unreadCountService;
+        this.groupService = groupService;
+        this.groupFanout = groupFanout;
+        this.transferBulkhead = transferBulkhead;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.readDeadlines = readDeadlines;
+        this.writeLimits = writeLimits;
+        this.admissionController = admissionController;
+        this.admission = admission;
+        this.serverDrain = serverDrain;
+        this.unacknowledged = new TreeMap<>();
+        this.deferred = new ArrayList<>();
+        this.jsonCodec = JsonCodec.getInstance();
+        this.pushLock = new Object();
+        this.deviceId = ClientConnection.DEFAULT_DEVICE;
+        this.payloadFormat = PayloadFormat.JSON;
+        this.formatNegotiated = false;
         this.isRunning = new AtomicBoolean(false);
     }
     
@@ -59,8 +142,13 @@ public class ClientHandlerService implements Runnable {
     }
     
     private void initializeStreams() throws IOException {
-        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        writer = new PrintWriter(clientSocket.getOutputStream(), true);
+        reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+        frameReader = new FrameReader(reader, clientSocket, readDeadlines.getMaxLineLength(),
+                                      readDeadlines.getFrameTimeoutMillis());
+        frameWriter = new FrameWriter(clientSocket, clientSocket.getInetAddress().getHostAddress(),
+                                      writeLimits.getMaxQueuedBytes(), writeLimits.getWriteTimeoutMillis(),
+                                      reason -> writeLimits.slowConsumer());
+        frameWriter.start();
     }
     
     private void handleClientConnection() {
@@ -72,16 +160,18 @@ public class ClientHandlerService implements Runnable {
                 sendResponse("AUTH_FAILED", "Autenticación fallida");
                 return;
             }
+            admission.authenticated();
             
             String connectionId = UUID.randomUUID().toString();
             clientConnection = new ClientConnection(
                 connectionId,
-                userService.getCurrentUser().getId(),
-                userService.getCurrentUser().getUsername(),
+                authenticatedUser.getId(),
+                authenticatedUser.getUsername(),
                 clientSocket,
                 clientIp,
-                userService.getCurrentUser().getMaxConnections(),
-                userService.getCurrentUser().getMaxFilesPerDay()
+                authenticatedUser.getMaxConnections(),
+                authenticatedUser.getMaxFilesPerDay(),
+                deviceId
             );
             
             if (!connectionPool.addConnection(clientConnection)) {
@@ -91,13 +181,56 @@ public class ClientHandlerService implements Runnable {
             
             userService.registerConnection(clientConnection);
             
-            // Enviar datos del usuario autenticado como JSON
-            User currentUser = userService.getCurrentUser();
-            String userJson = objectMapper.writeValueAsString(currentUser);
-            sendResponse("AUTH_SUCCESS", userJson);
+            // Enviar datos del usuario autenticado en el formato negociado
+            // Los clientes que no pidieron formato reciben el JSON sin prefijo
+            User currentUser = authenticatedUser;
+            fileQuotaService.seed(currentUser);
+            currentUser.setFilesSentCount(fileQuotaService.getFilesSentToday(currentUser.getId()));
+            if (formatNegotiated) {
+                sendResponse("AUTH_SUCCESS", payloadFormat.name() + ":" + 
+                           jsonCodec.encodeUser(currentUser, payloadFormat));
+            } else {
+                sendResponse("AUTH_SUCCESS", jsonCodec.writeUser(currentUser));
+            }
             loggingService.info("Cliente autenticado: " + currentUser.getUsername() + 
                               " desde " + clientIp);
             
+            // Lo que llegó mientras el dispositivo estaba desconectado, por lotes desde su cursor
+            OptionalLong cursor = deliveryService.getDeliveredUpTo(currentUser.getId(), deviceId);
+            synchronized (pushLock) {
+                if (cursor.isPresent()) {
+                    pendingFrom = cursor.getAsLong();
+                } else {
+                    // Sin cursor no se sabe desde dónde: solo en vivo, el historial se retoma al reconectar
+                    logger.warn("Sin cursor de entrega para {}, se omite el historial pendiente", describeClient());
+                    backlogDrained = true;
+                }
+            }
+            clientConnection.setPushChannel(new ClientConnection.PushChannel() {
+                @Override
+                public void deliver(Message message) {
+                    deliverLive(message);
+                }
+                
+                @Override
+                public void deliver(EncodedMessage message) {
+                    deliverLive(message);
+                }
+                
+                @Override
+                public void push(String command, String data) {
+                    pushLine(command, data);
+                }
+            });
+            if (cursor.isPresent()) {
+                sendPendingBatch();
+            }
+            
+            // Autenticó mientras el servidor empezaba a vaciarse: no recibió el aviso general
+            if (serverDrain.isDraining()) {
+                pushLine("SERVER_DRAINING", String.valueOf(serverDrain.nextReconnectAfterSeconds()));
+            }
+            
             handleMessages();
             
         } catch (Exception e) {
@@ -107,17 +240,32 @@ public class ClientHandlerService implements Runnable {
     
     private boolean authenticateClient() {
         try {
-            String authRequest = reader.readLine();
+            // El plazo corre desde el accept, no desde que el handler consiguió hilo
+            long elapsed = System.currentTimeMillis() - admission.getAdmittedAtMillis();
+            long remaining = readDeadlines.getAuthTimeoutMillis() - elapsed;
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Plazo de autenticación vencido antes de leer");
+            }
+            String authRequest = frameReader.readLine(remaining);
             if (authRequest == null) return false;
             
+            // AUTH:usuario:clave[:formato[:dispositivo]]
             String[] parts = authRequest.split(":");
-            if (parts.length != 3 || !"AUTH".equals(parts[0])) {
+            if (parts.length < 3 || parts.length > 5 || !"AUTH".equals(parts[0])) {
                 return false;
             }
             
             String username = parts[1];
             String password = parts[2];
             
+            if (parts.length >= 4) {
+                payloadFormat = PayloadFormat.fromName(parts[3]);
+                formatNegotiated = true;
+            }
+            if (parts.length == 5 && !parts[4].isBlank() && parts[4].length() <= 64) {
+                deviceId = parts[4];
+            }
+            
             User user = userService.authenticateUser(username, password);
             if (user == null) {
                 loggingService.warn("Intento de autenticación fallido para usuario: " + username);
@@ -129,9 +277,22 @@ public class ClientHandlerService implements Runnable {
                 return false;
             }
             
-            userService.setCurrentUser(user);
+            // UserService es compartido por todas las conexiones: el usuario autenticado vive en este handler
+            authenticatedUser = user;
             return true;
             
+        } catch (FrameReader.FrameTimeoutException e) {
+            readDeadlines.frameTimedOut();
+            logger.warn("Autenticación incompleta desde {}: {}", clientSocket.getInetAddress().getHostAddress(), e.getMessage());
+            return false;
+        } catch (SocketTimeoutException e) {
+            readDeadlines.authTimedOut();
+            logger.warn("Sin autenticación dentro del plazo desde {}", clientSocket.getInetAddress().getHostAddress());
+            return false;
+        } catch (FrameReader.FrameTooLongException e) {
+            readDeadlines.frameTooLong();
+            logger.warn("Autenticación rechazada desde {}: {}", clientSocket.getInetAddress().getHostAddress(), e.getMessage());
+            return false;
         } catch (IOException e) {
             logger.error("Error en autenticación: " + e.getMessage());
             return false;
@@ -142,40 +303,100 @@ public class ClientHandlerService implements Runnable {
         String message;
         
         while (isRunning.get() && (message = readMessage()) != null) {
+            // Al detener el servidor se espera a los comandos en curso antes de cerrar;
+            // se marca antes de mirar el vaciado para que ninguno quede sin contar
+            serverDrain.commandStarted();
             try {
+                // Durante el vaciado solo terminan los comandos que ya estaban en curso
+                if (serverDrain.isDraining() && !isAcknowledgement(message)) {
+                    rejectWhileDraining(message);
+                    return;
+                }
                 processMessage(message);
             } catch (Exception e) {
                 logger.error("Error procesando mensaje: " + e.getMessage());
                 sendResponse("ERROR", "Error procesando mensaje");
+            } finally {
+                serverDrain.commandFinished();
             }
         }
     }
     
+    /**
+     * ACK_DELIVERED y READ_UP_TO no llevan respuesta y solo guardan el avance del cliente;
+     * se siguen atendiendo durante el vaciado
+     */
+    private boolean isAcknowledgement(String message) {
+        return message.startsWith("ACK_DELIVERED:") || message.startsWith("READ_UP_TO:");
+    }
+    
+    /**
+     * Responde SERVER_DRAINING:<segundos> y cierra: el cliente lo toma como aviso, falla las
+     * solicitudes pendientes al cerrarse la conexión y reconecta pasado ese plazo
+     */
+    private void rejectWhileDraining(String message) {
+        logger.debug("Comando rechazado durante el vaciado de {}: {}", describeClient(),
+                     message.length() > 40 ? message.substring(0, 40) : message);
+        sendResponse("SERVER_DRAINING", String.valueOf(serverDrain.nextReconnectAfterSeconds()));
+        isRunning.set(false);
+    }
+    
+    /**
+     * Devuelve null (y con eso cierra la conexión) también cuando el cliente incumple un plazo
+     * o manda una línea demasiado larga
+     */
     private String readMessage() {
         try {
-            return reader.readLine();
+            return frameReader.readLine(readDeadlines.getIdleTimeoutMillis());
+        } catch (FrameReader.FrameTimeoutException e) {
+            readDeadlines.frameTimedOut();
+            logger.warn("Desconectando a {}: {}", describeClient(), e.getMessage());
+            return null;
+        } catch (SocketTimeoutException e) {
+            readDeadlines.idleTimedOut();
+            logger.info("Desconectando a {} por inactividad", describeClient());
+            return null;
+        } catch (FrameReader.FrameTooLongException e) {
+            readDeadlines.frameTooLong();
+            logger.warn("Desconectando a {}: {}", describeClient(), e.getMessage());
+            sendResponse("FRAME_TOO_LONG", e.getMessage());
+            return null;
         } catch (IOException e) {
             logger.error("Error leyendo mensaje: " + e.getMessage());
             return null;
         }
     }
     
+    private String describeClient() {
+        return clientConnection != null ? clientConnection.getUsername() : clientSocket.getInetAddress().getHostAddress();
+    }
+    
     private void processMessage(String message) {
         try {
-            String[] parts = message.split(":", 2);
-            String command = parts[0];
-            String data = parts.length > 1 ? parts[1] : "";
+            ProtocolCommand parsed = ProtocolCommand.parse(message);
+            String command = parsed.getCommand();
+            String data = parsed.getData();
+            long started = System.nanoTime();
             
             switch (command) {
                 case "SEND_MESSAGE":
                     handleSendMessage(data);
                     break;
+                case "SEND_GROUP_MESSAGE":
+                    handleSendGroupMessage(parsed.getData());
+                    break;
+                case "CREATE_GROUP":
+                    handleCreateGroup(parsed.getData());
+                    break;
                 case "SEND_FILE":
                     handleSendFile(data);
                     break;
                 case "DOWNLOAD_FILE":
                     handleDownloadFile(data);
                     break;
+                case "DOWNLOAD_THUMBNAIL":
+                    handleDownloadThumbnail(data);
+                    break;
                 case "GET_MESSAGES":
                     handleGetMessages(data);
                     break;
@@ -185,6 +406,18 @@ public class ClientHandlerService implements Runnable {
                 case "GET_USERS":
                     handleGetUsers();
                     break;
+                case "SUBSCRIBE_PRESENCE":
+                    handleSubscribePresence();
+                    break;
+                case "ACK_DELIVERED":
+                    handleAckDelivered(data);
+                    break;
+                case "GET_UNREAD_COUNTS":
+                    handleGetUnreadCounts();
+                    break;
+                case "READ_UP_TO":
+                    handleReadUpTo(data);
+                    break;
                 case "PING":
                     handlePing();
                     break;
@@ -192,21 +425,36 @@ public class ClientHandlerService implements Runnable {
                     sendResponse("UNKNOWN_COMMAND", "Comando no reconocido: " + command);
             }
             
+            // Las transferencias duran lo que tarda la red; no indican saturación del servidor
+            if (!isTransferCommand(command)) {
+                admissionController.recordLatency(System.nanoTime() - started);
+            }
+            
         } catch (Exception e) {
             logger.error("Error procesando comando: " + e.getMessage());
             sendResponse("ERROR", "Error procesando comando");
         }
     }
     
+    private boolean isTransferCommand(String command) {
+        return "SEND_FILE".equals(command) || "DOWNLOAD_FILE".equals(command) || "DOWNLOAD_THUMBNAIL".equals(command);
+    }
+    
     private void handleSendMessage(String data) {
         try {
-            Message message = objectMapper.readValue(data, Message.class);
+            Message message = jsonCodec.decodeMessage(data, payloadFormat);
             message.setSenderId(clientConnection.getUserId());
             
             boolean saved = userService.saveMessage(message);
             if (saved) {
                 clientConnection.incrementMessagesCount();
                 sendResponse("MESSAGE_SENT", "Mensaje enviado correctamente");
+                // Un reintento ya entregado vuelve sin id y no se reenvía
+                if (message.getId() != null) {
+                    unreadCountService.messageSaved(message.getReceiverId(), message.getSenderId(), message.getId());
+                    message.setSenderUsername(clientConnection.getUsername());
+                    forward(message);
+                }
                 loggingService.info("Mensaje enviado de " + clientConnection.getUsername() + 
                                   " a usuario " + message.getReceiverId());
             } else {
@@ -219,13 +467,78 @@ public class ClientHandlerService implements Runnable {
         }
     }
     
-    private void handleSendFile(String data) {
+    /**
+     * SEND_GROUP_MESSAGE:<mensaje con groupId> se guarda una vez y se reparte a los miembros conectados
+     */
+    private void handleSendGroupMessage(String data) {
         try {
-            if (!clientConnection.canSendFile()) {
-                sendResponse("FILE_LIMIT", "Límite de archivos diarios alcanzado");
+            Message message = jsonCodec.decodeMessage(data, payloadFormat);
+            Long userId = clientConnection.getUserId();
+            message.setSenderId(userId);
+            message.setReceiverId(null);
+            
+            if (message.getGroupId() == null || !groupService.isMember(message.getGroupId(), userId)) {
+                sendResponse("NOT_GROUP_MEMBER", "No pertenece al grupo");
                 return;
             }
             
+            if (groupService.saveGroupMessage(message)) {
+                clientConnection.incrementMessagesCount();
+                sendResponse("MESSAGE_SENT", "Mensaje enviado correctamente");
+                if (message.getId() != null) {
+                    message.setSenderUsername(clientConnection.getUsername());
+                    groupFanout.submit(message, groupService.getMembers(message.getGroupId()));
+                }
+                loggingService.info("Mensaje de grupo enviado de " + clientConnection.getUsername() + 
+                                  " al grupo " + message.getGroupId());
+            } else {
+                sendResponse("MESSAGE_FAILED", "Error guardando mensaje");
+            }
+            
+        } catch (Exception e) {
+            logger.error("Error enviando mensaje de grupo: " + e.getMessage());
+            sendResponse("MESSAGE_ERROR", "Error procesando mensaje");
+        }
+    }
+    
+    /**
+     * CREATE_GROUP:<nombre>:<id>,<id>,... responde GROUP_CREATED:<idGrupo>
+     */
+    private void handleCreateGroup(String data) {
+        try {
+            int separator = data.lastIndexOf(':');
+            String name = data.substring(0, separator).trim();
+            List<Long> memberIds = new ArrayList<>();
+            for (String memberId : data.substring(separator + 1).split(",")) {
+                if (!memberId.isBlank()) {
+                    memberIds.add(Long.parseLong(memberId.trim()));
+                }
+            }
+            if (name.isEmpty()) {
+                sendResponse("GROUP_ERROR", "El grupo necesita un nombre");
+                return;
+            }
+            
+            Long groupId = groupService.createGroup(clientConnection.getUserId(), name, memberIds);
+            if (groupId != null) {
+                sendResponse("GROUP_CREATED", String.valueOf(groupId));
+            } else {
+                sendResponse("GROUP_ERROR", "Error creando grupo");
+            }
+            
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            sendResponse("GROUP_ERROR", "Formato inválido: CREATE_GROUP:<nombre>:<ids>");
+        }
+    }
+    
+    private void handleSendFile(String data) {
+        boolean quotaReserved = false;
+        boolean transferSlot = false;
+        boolean saved = false;
+        // Entre FILE_ACCEPTED y FILE_END el stream está en medio de las líneas de datos
+        boolean receiving = false;
+        AttachmentStore.Blob blob = null;
+        try {
             // Parsear información del archivo: receiverId:fileName:fileSize
             String[] parts = data.split(":", 3);
             if (parts.length < 3) {
@@ -233,68 +546,185 @@ public class ClientHandlerService implements Runnable {
                 return;
             }
             
+            // Cupo diario en memoria, compartido por todas las conexiones del usuario
+            if (!fileQuotaService.tryAcquire(clientConnection.getUserId(), clientConnection.getMaxFilesPerDay())) {
+                sendResponse("FILE_LIMIT", "Límite de archivos diarios alcanzado");
+                return;
+            }
+            quotaReserved = true;
+            
+            // Las transferencias tienen cupos propios para no quitarle hilos ni red a los mensajes
+            if (!transferBulkhead.tryEnter()) {
+                sendResponse("FILE_BUSY", "Demasiadas transferencias en curso, intente más tarde");
+                return;
+            }
+            transferSlot = true;
+            
             Long receiverId = Long.parseLong(parts[0]);
             String fileName = parts[1];
             long fileSize = Long.parseLong(parts[2]);
             
+            // Se consulta en cada envío: el límite puede cambiar sin reiniciar
+            long maxFileSize = ServerConfig.getInstance().getMaxFileSize();
+            if (fileSize < 0) {
+                sendResponse("FILE_ERROR", "Información de archivo inválida");
+                return;
+            }
+            if (fileSize > maxFileSize) {
+                sendResponse("FILE_ERROR", "Archivo supera el máximo de " + maxFileSize + " bytes");
+                return;
+            }
+            
             logger.info("Recibiendo archivo: {} ({} bytes) para usuario {}", fileName, fileSize, receiverId);
             
             // Aceptar el archivo
             sendResponse("FILE_ACCEPTED", "OK");
             
-            // Recibir los datos del archivo
-            StringBuilder fileData = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.equals("FILE_END")) {
-                    break;
-                } else if (line.startsWith("FILE_DATA:")) {
-                    fileData.append(line.substring(10)); // Remover "FILE_DATA:"
-                }
+            // Recibir los datos del archivo directo al almacén, calculando el hash en el camino
+            receiving = true;
+            try (AttachmentStore.Upload upload = attachmentStore.beginUpload()) {
+                // Lo declarado no obliga al cliente: el límite se aplica a lo que realmente llega
+                receiveFileData(upload, Math.min(fileSize, maxFileSize));
+                receiving = false;
+                blob = upload.finish();
             }
+            transferBulkhead.exit();
+            transferSlot = false;
             
-            logger.info("Archivo recibido completo: {} caracteres de Base64", fileData.length());
-            
-            // Crear directorio del usuario si no existe
-            Path userUploadDir = Paths.get("uploads", String.valueOf(clientConnection.getUserId()));
-            Files.createDirectories(userUploadDir);
-            
-            // Generar nombre único con timestamp
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String uniqueFileName = timestamp + "_" + fileName;
-            Path filePath = userUploadDir.resolve(uniqueFileName);
-            
-            // Decodificar Base64 y guardar archivo
-            byte[] fileBytes = Base64.getDecoder().decode(fileData.toString());
-            Files.write(filePath, fileBytes, StandardOpenOption.CREATE);
-            
-            logger.info("Archivo guardado en: {}", filePath.toString());
+            logger.info("Archivo recibido: {} bytes, sha256 {}{}", blob.getSize(), blob.getSha256(),
+                       blob.isReused() ? " (ya almacenado)" : "");
             
             // Determinar tipo de mensaje (IMAGE o FILE)
             String messageType = isImageFile(fileName) ? "IMAGE" : "FILE";
             
             // Guardar en base de datos
-            String relativeFilePath = "uploads/" + clientConnection.getUserId() + "/" + uniqueFileName;
-            boolean saved = userService.saveFileMessage(
+            Message fileMessage = userService.saveFileMessage(
                 clientConnection.getUserId(),
                 receiverId,
                 messageType,
-                relativeFilePath,
+                blob,
                 fileName
             );
+            saved = fileMessage != null;
             
             if (saved) {
+                if ("IMAGE".equals(messageType)) {
+                    // La miniatura se genera fuera del hilo de la conexión
+                    Path original = attachmentStore.resolve(blob.getRelativePath());
+                    if (original != null) {
+                        thumbnailService.submit(original);
+                    }
+                }
                 clientConnection.incrementFilesSentCount();
                 sendResponse("FILE_SENT", "Archivo enviado correctamente");
+                unreadCountService.messageSaved(receiverId, clientConnection.getUserId(), fileMessage.getId());
+                fileMessage.setSenderUsername(clientConnection.getUsername());
+                forward(fileMessage);
                 loggingService.info("Archivo enviado por " + clientConnection.getUsername() + 
                                   " a usuario " + receiverId + ": " + fileName);
             } else {
                 sendResponse("FILE_ERROR", "Error guardando información del archivo");
             }
             
+        } catch (SocketTimeoutException e) {
+            // La línea FILE_DATA quedó a medias: no hay forma de resincronizar el protocolo
+            readDeadlines.fileDataTimedOut();
+            logger.warn("Subida detenida por {}, cerrando conexión", describeClient());
+            isRunning.set(false);
+        } catch (UploadTooLargeException e) {
+            // El resto de la línea sigue sin leer: se avisa y se cierra la conexión
+            logger.warn("Subida de {} cortada: {}", describeClient(), e.getMessage());
+            sendResponse("FILE_ERROR", e.getMessage());
+            isRunning.set(false);
         } catch (Exception e) {
             logger.error("Error enviando archivo: " + e.getMessage(), e);
+            // Una sola respuesta para el FILE_END del cliente
             sendResponse("FILE_ERROR", "Error procesando archivo: " + e.getMessage());
+            if (receiving) {
+                // Lo que queda de la línea FILE_DATA se leería como comandos y desalinearía
+                // las respuestas del cliente: se cierra la conexión
+                logger.warn("Subida de {} fallida a mitad de los datos, cerrando conexión", describeClient());
+                isRunning.set(false);
+            }
+        } finally {
+            if (transferSlot) {
+                transferBulkhead.exit();
+            }
+            if (quotaReserved && !saved) {
+                fileQuotaService.release(clientConnection.getUserId());
+            }
+            if (blob != null && !saved) {
+                // Sin mensaje que lo referencie, un blob recién movido quedaría huérfano
+                attachmentStore.discard(blob);
+            }
+        }
+    }
+    
+    /**
+     * Lee las líneas FILE_DATA hasta FILE_END en bloques de tamaño fijo,
+     * sin armar la línea Base64 completa en memoria y respetando el ancho de banda compartido
+     */
+    private void receiveFileData(AttachmentStore.Upload upload, long maxBytes) throws IOException {
+        // Cada lectura bloqueante tiene su plazo: una subida detenida no retiene el hilo
+        frameReader.setReadTimeout(readDeadlines.getFileDataTimeoutMillis());
+        // Estas líneas no pasan por FrameReader: también se acota lo que se lee fuera de FILE_DATA
+        long maxChars = (maxBytes + 2) / 3 * 4 + TRANSFER_CHUNK_CHARS;
+        long consumed = 0;
+        char[] chunk = new char[TRANSFER_CHUNK_CHARS];
+        StringBuilder prefix = new StringBuilder();
+        while (true) {
+            // Comando de la línea: hasta ':' o fin de línea
+            prefix.setLength(0);
+            int c;
+            while ((c = reader.read()) != -1 && c != ':' && c != '\n' && prefix.length() < 16) {
+                prefix.append((char) c);
+            }
+            if (c == -1) {
+                throw new EOFException("Conexión cerrada durante la transferencia");
+            }
+            consumed += prefix.length() + 1;
+            if (consumed > maxChars) {
+                throw new UploadTooLargeException("Archivo supera el máximo de " + maxBytes + " bytes");
+            }
+            String command = prefix.toString().strip();
+            if (c != ':' && command.equals("FILE_END")) {
+                return;
+            }
+            
+            boolean data = c == ':' && command.equals("FILE_DATA");
+            boolean endOfLine = c == '\n';
+            while (!endOfLine) {
+                reader.mark(chunk.length);
+                int read = reader.read(chunk, 0, chunk.length);
+                if (read == -1) {
+                    throw new EOFException("Conexión cerrada durante la transferencia");
+                }
+                int length = read;
+                for (int i = 0; i < read; i++) {
+                    if (chunk[i] == '\n') {
+                        // Devolver lo que sigue al salto de línea para la próxima lectura
+                        reader.reset();
+                        reader.skip(i + 1);
+                        length = i;
+                        endOfLine = true;
+                        break;
+                    }
+                }
+                consumed += length;
+                if (consumed > maxChars) {
+                    throw new UploadTooLargeException("Archivo supera el máximo de " + maxBytes + " bytes");
+                }
+                if (length > 0 && chunk[length - 1] == '\r') {
+                    length--;
+                }
+                if (data && length > 0) {
+                    bandwidthLimiter.acquire(length);
+                    upload.append(new String(chunk, 0, length));
+                    if (upload.getSize() > maxBytes) {
+                        throw new UploadTooLargeException("Archivo supera el máximo de " + maxBytes + " bytes");
+                    }
+                }
+            }
         }
     }
     
@@ -306,38 +736,37 @@ public class ClientHandlerService implements Runnable {
     }
     
     private void handleDownloadFile(String filePath) {
+        if (!transferBulkhead.tryEnter()) {
+            sendResponse("DOWNLOAD_BUSY", "Demasiadas transferencias en curso, intente más tarde");
+            return;
+        }
         try {
-            // El filePath viene como "uploads/1/20251118_081120_perrito.jpeg"
-            Path fileToDownload = Paths.get(filePath);
+            // El filePath viene como "uploads/blobs/ab/cd/<sha256>" (o "uploads/1/..." en mensajes antiguos)
+            Path fileToDownload = attachmentStore.resolve(filePath);
             
-            if (!Files.exists(fileToDownload)) {
+            if (fileToDownload == null || !Files.exists(fileToDownload)) {
                 sendResponse("FILE_NOT_FOUND", "Archivo no encontrado");
                 logger.warn("Archivo no encontrado: {}", filePath);
                 return;
             }
             
-            // Leer archivo y convertir a Base64
-            byte[] fileBytes = Files.readAllBytes(fileToDownload);
-            String base64Content = Base64.getEncoder().encodeToString(fileBytes);
+            // Contenido desde la caché de adjuntos (o disco si no está)
+            ByteBuffer fileBytes = attachmentStore.read(fileToDownload);
             
             // Obtener nombre del archivo
             String fileName = fileToDownload.getFileName().toString();
             
-            logger.info("Enviando archivo: {} ({} bytes)", fileName, fileBytes.length);
+            logger.info("Enviando archivo: {} ({} bytes)", fileName, fileBytes.remaining());
             
             // Enviar información del archivo
-            sendResponse("FILE_INFO", fileName + ":" + fileBytes.length);
+            sendResponse("FILE_INFO", fileName + ":" + fileBytes.remaining());
             
             // Esperar confirmación
-            String response = reader.readLine();
+            String response = frameReader.readLine(readDeadlines.getFrameTimeoutMillis());
             if (response != null && response.startsWith("FILE_READY")) {
-                // Enviar contenido en Base64
-                writer.println("FILE_DATA:" + base64Content);
-                writer.flush();
-                
+                sendThrottledFileData(fileBytes);
                 // Confirmar fin
-                writer.println("FILE_COMPLETE");
-                writer.flush();
+                frameWriter.send("FILE_COMPLETE\n".getBytes(StandardCharsets.UTF_8));
                 
                 logger.info("Archivo descargado exitosamente: {}", fileName);
             }
@@ -345,13 +774,68 @@ public class ClientHandlerService implements Runnable {
         } catch (Exception e) {
             logger.error("Error descargando archivo: " + e.getMessage(), e);
             sendResponse("DOWNLOAD_ERROR", "Error descargando archivo: " + e.getMessage());
+        } finally {
+            transferBulkhead.exit();
+        }
+    }
+    
+    /**
+     * Envía FILE_DATA:<base64> codificando por bloques (múltiplos de 3 bytes, así el Base64
+     * de cada bloque se puede concatenar) y esperando turno en el ancho de banda compartido.
+     * La línea completa la escribe el hilo escritor, así ningún aviso en vivo se intercala;
+     * los avisos que lleguen mientras tanto esperan en la cola
+     */
+    private void sendThrottledFileData(ByteBuffer content) throws IOException {
+        ByteBuffer remaining = content.duplicate();
+        Base64.Encoder encoder = Base64.getEncoder();
+        frameWriter.sendAndWait(out -> {
+            out.write("FILE_DATA:".getBytes(StandardCharsets.UTF_8));
+            while (remaining.hasRemaining()) {
+                int length = Math.min(TRANSFER_CHUNK_BYTES, remaining.remaining());
+                ByteBuffer slice = remaining.slice();
+                slice.limit(length);
+                remaining.position(remaining.position() + length);
+                
+                bandwidthLimiter.acquire(length);
+                ByteBuffer encoded = encoder.encode(slice);
+                out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+            }
+            out.write('\n');
+        });
+    }
+    
+    /**
+     * Responde THUMBNAIL:<base64> en una sola línea; si la miniatura aún no existe
+     * (imágenes anteriores o generación en curso) espera a que el pool la termine
+     */
+    private void handleDownloadThumbnail(String filePath) {
+        try {
+            Path original = attachmentStore.resolve(filePath);
+            if (original == null || !Files.exists(original)) {
+                sendResponse("THUMBNAIL_NOT_FOUND", "Archivo no encontrado");
+                return;
+            }
+            
+            Path thumbnail = thumbnailService.submit(original).get(THUMBNAIL_WAIT_SECONDS, TimeUnit.SECONDS);
+            if (thumbnail == null) {
+                sendResponse("THUMBNAIL_NOT_FOUND", "No se pudo generar la miniatura");
+                return;
+            }
+            
+            sendBase64Line("THUMBNAIL", attachmentStore.read(thumbnail));
+            
+        } catch (TimeoutException e) {
+            sendResponse("THUMBNAIL_NOT_FOUND", "Miniatura en proceso");
+        } catch (Exception e) {
+            logger.error("Error enviando miniatura: " + e.getMessage());
+            sendResponse("THUMBNAIL_NOT_FOUND", "Error obteniendo miniatura");
         }
     }
     
     private void handleGetMessages(String data) {
         try {
-            String messages = userService.getUserMessages(clientConnection.getUserId());
-            sendResponse("MESSAGES", messages);
+            Long userId = clientConnection.getUserId();
+            sendStreamedResponse("MESSAGES", false, out -> userService.writeUserMessages(userId, out));
             
         } catch (Exception e) {
             logger.error("Error obteniendo mensajes: " + e.getMessage());
@@ -361,9 +845,13 @@ public class ClientHandlerService implements Runnable {
     
     private void handleGetMessagesWithUser(String data) {
         try {
-            Long otherUserId = Long.parseLong(data);
-            String messages = userService.getMessagesWithUser(clientConnection.getUserId(), otherUserId);
-            sendResponse("MESSAGES", messages);
+            // GET_MESSAGES_WITH_USER:<contacto>[:<ultimoIdQueYaTieneElCliente>]
+            String[] parts = data.split(":");
+            Long otherUserId = Long.parseLong(parts[0]);
+            long afterId = parts.length > 1 ? Long.parseLong(parts[1]) : 0L;
+            Long userId = clientConnection.getUserId();
+            sendStreamedResponse("MESSAGES", false,
+                out -> userService.writeMessagesWithUser(userId, otherUserId, afterId, out));
             
         } catch (Exception e) {
             logger.error("Error obteniendo mensajes con usuario: " + e.getMessage());
@@ -373,8 +861,7 @@ public class ClientHandlerService implements Runnable {
     
     private void handleGetUsers() {
         try {
-            String users = userService.getConnectedUsers();
-            sendResponse("USERS", users);
+            sendStreamedResponse("USERS", true, userService::writeConnectedUsers);
             
         } catch (Exception e) {
             logger.error("Error obteniendo usuarios: " + e.getMessage());
@@ -382,6 +869,223 @@ public class ClientHandlerService implements Runnable {
         }
     }
     
+    /**
+     * SUBSCRIBE_PRESENCE responde la foto de conectados (USERS:[...]) y desde ahí llegan PRESENCE_DELTA
+     * Los cambios publicados mientras se consulta la foto se retienen y salen justo después de ella
+     */
+    private void handleSubscribePresence() {
+        synchronized (pushLock) {
+            heldPresence = new ArrayList<>();
+        }
+        clientConnection.setPresenceSubscribed(true);
+        try {
+            sendStreamedResponse("USERS", true, userService::writeConnectedUsers);
+            
+        } catch (Exception e) {
+            logger.error("Error suscribiendo presencia: " + e.getMessage());
+            sendResponse("USERS_ERROR", "Error obteniendo usuarios");
+        } finally {
+            synchronized (pushLock) {
+                for (String delta : heldPresence) {
+                    frameWriter.offer(encodeLine("PRESENCE_DELTA", delta));
+                }
+                heldPresence = null;
+            }
+        }
+    }
+    
+    /**
+     * ACK_DELIVERED:<id> confirma la recepción hasta ese id; no lleva respuesta
+     * Mientras quede historial pendiente, la confirmación de un lote completo pide el siguiente
+     */
+    private void handleAckDelivered(String data) {
+        try {
+            long deliveredUpTo = Long.parseLong(data.trim());
+            deliveryService.acknowledge(clientConnection.getUserId(), deviceId, deliveredUpTo);
+            
+            Map<Long, Long> receipts = new HashMap<>();
+            boolean nextBatch;
+            synchronized (pushLock) {
+                Map<Long, Long> confirmed = unacknowledged.headMap(deliveredUpTo, true);
+                confirmed.forEach((messageId, senderId) -> receipts.merge(senderId, messageId, Math::max));
+                confirmed.clear();
+                nextBatch = !backlogDrained && deliveredUpTo >= pendingFrom;
+            }
+            if (nextBatch) {
+                sendPendingBatch();
+            }
+            
+            // Confirmación de entrega para los remitentes conectados
+            Long userId = clientConnection.getUserId();
+            receipts.forEach((senderId, upTo) -> pushReceipt(senderId, "DELIVERED", userId, upTo));
+        } catch (NumberFormatException e) {
+            logger.warn("ACK_DELIVERED inválido: {}", data);
+        }
+    }
+    
+    /**
+     * READ_UP_TO:<remitente>:<id> el usuario leyó la conversación hasta ese id; no lleva respuesta
+     * La escritura en messages.is_read se acumula en ReceiptService; el aviso al remitente es inmediato
+     */
+    private void handleReadUpTo(String data) {
+        try {
+            String[] parts = data.split(":");
+            Long senderId = Long.parseLong(parts[0]);
+            long readUpTo = Long.parseLong(parts[1]);
+            Long userId = clientConnection.getUserId();
+            
+            receiptService.markRead(userId, senderId, readUpTo);
+            unreadCountService.markRead(userId, senderId, readUpTo);
+            pushReceipt(senderId, "READ", userId, readUpTo);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            logger.warn("READ_UP_TO inválido: {}", data);
+        }
+    }
+    
+    /**
+     * UNREAD_COUNTS:<remitente>:<cantidad>,... respondido desde memoria, sin consultar la base
+     */
+    private void handleGetUnreadCounts() {
+        StringBuilder counts = new StringBuilder();
+        unreadCountService.getUnreadCounts(clientConnection.getUserId()).forEach((senderId, unread) -> {
+            if (counts.length() > 0) {
+                counts.append(',');
+            }
+            counts.append(senderId).append(':').append(unread);
+        });
+        sendResponse("UNREAD_COUNTS", counts.toString());
+    }
+    
+    /**
+     * RECEIPT:<DELIVERED|READ>:<usuario>:<hastaId> a las conexiones abiertas del remitente
+     */
+    private void pushReceipt(Long senderId, String kind, Long userId, long upTo) {
+        String receipt = kind + ":" + userId + ":" + upTo;
+        for (ClientConnection sender : connectionPool.getUserConnections(senderId)) {
+            sender.push("RECEIPT", receipt);
+        }
+    }
+    
+    /**
+     * Envía PENDING_MESSAGES con el siguiente lote desde pendingFrom
+     * Un lote incompleto (incluso vacío) marca el fin del historial; desde ahí los mensajes se entregan en vivo.
+     * La consulta corre sin tomar pushLock: lo que llega en vivo mientras tanto queda apartado y sale
+     * a continuación del lote si este no lo incluyó, salvo lo que todavía vendrá en un lote posterior.
+     * Así también sale un id menor que se confirmó en la base después de que el lote lo saltó
+     */
+    private void sendPendingBatch() {
+        long from;
+        synchronized (pushLock) {
+            from = pendingFrom;
+        }
+        DeliveryService.PendingBatch[] batch = new DeliveryService.PendingBatch[1];
+        try {
+            sendStreamedResponse("PENDING_MESSAGES", false, out -> {
+                batch[0] = deliveryService.writePendingBatch(clientConnection.getUserId(), from, out);
+                return batch[0].getCount();
+            });
+        } catch (IOException e) {
+            // El cursor no avanzó: el historial se reintenta al reconectar; mientras tanto, en vivo
+            logger.error("Error enviando mensajes pendientes: " + e.getMessage());
+            synchronized (pushLock) {
+                backlogDrained = true;
+                deferred.sort(Comparator.comparing(Message::getId));
+                deferred.forEach(this::offerLive);
+                deferred.clear();
+            }
+            return;
+        }
+        
+        synchronized (pushLock) {
+            pendingFrom = batch[0].getLastId();
+            backlogDrained = !batch[0].isFull();
+            batch[0].getLastIdBySender().forEach((senderId, messageId) -> unacknowledged.put(messageId, senderId));
+            deferred.sort(Comparator.comparing(Message::getId));
+            for (Message message : deferred) {
+                boolean nextBatch = !backlogDrained && message.getId() > pendingFrom;
+                if (!batch[0].contains(message.getId()) && !nextBatch) {
+                    offerLive(message);
+                }
+            }
+            deferred.clear();
+        }
+    }
+    
+    /**
+     * Reenvía un mensaje recién guardado a las conexiones abiertas del destinatario
+     */
+    private void forward(Message message) {
+        for (ClientConnection recipient : connectionPool.getUserConnections(message.getReceiverId())) {
+            recipient.deliver(message);
+        }
+    }
+    
+    /**
+     * Canal de avisos de esta conexión, invocado desde el hilo del remitente; nunca espera al socket
+     * Mientras se consulta el historial el mensaje queda apartado hasta saber si el lote lo incluyó
+     */
+    private void deliverLive(Message message) {
+        if (!isRunning.get()) {
+            return;
+        }
+        synchronized (pushLock) {
+            if (!backlogDrained) {
+                deferred.add(message);
+                return;
+            }
+            offerLive(message);
+        }
+    }
+    
+    /**
+     * Entrega en vivo de un mensaje de grupo ya serializado; sin confirmación de entrega al remitente
+     */
+    private void deliverLive(EncodedMessage encoded) {
+        if (!isRunning.get()) {
+            return;
+        }
+        synchronized (pushLock) {
+            if (!backlogDrained) {
+                deferred.add(encoded.getMessage());
+                return;
+            }
+            try {
+                frameWriter.offer(encoded.line(payloadFormat));
+            } catch (IOException e) {
+                logger.debug("No se pudo entregar el mensaje de grupo {} en vivo: {}",
+                    encoded.getMessage().getId(), e.getMessage());
+            }
+        }
+    }
+    
+    // Llamado con pushLock tomado
+    private void offerLive(Message message) {
+        try {
+            byte[] line = encodeStreamed("PENDING_MESSAGES", false, out -> {
+                out.write(message);
+                return 1;
+            });
+            if (frameWriter.offer(line) && message.getGroupId() == null) {
+                unacknowledged.put(message.getId(), message.getSenderId());
+            }
+        } catch (IOException e) {
+            logger.debug("No se pudo entregar el mensaje {} en vivo: {}", message.getId(), e.getMessage());
+        }
+    }
+    
+    private void pushLine(String command, String data) {
+        if (!isRunning.get()) {
+            return;
+        }
+        synchronized (pushLock) {
+            if (heldPresence != null && "PRESENCE_DELTA".equals(command)) {
+                heldPresence.add(data);
+                return;
+            }
+            frameWriter.offer(encodeLine(command, data));
+        }
+    }
+    
     private void handlePing() {
         clientConnection.updateLastActivity();
         sendResponse("PONG", "OK");
@@ -389,15 +1093,121 @@ public class ClientHandlerService implements Runnable {
     
     private void sendResponse(String command, String data) {
         try {
-            writer.println(command + ":" + data);
-            writer.flush();
+            frameWriter.send(encodeLine(command, data));
         } catch (Exception e) {
             logger.error("Error enviando respuesta: " + e.getMessage());
         }
     }
     
+    private static byte[] encodeLine(String command, String data) {
+        return (command + ":" + data + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Envía COMANDO:<base64> con los bytes codificados directo en la línea,
+     * sin construir el String Base64 intermedio
+     */
+    private void sendBase64Line(String command, ByteBuffer content) throws IOException {
+        byte[] prefix = (command + ":").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer encoded = Base64.getEncoder().encode(content);
+        byte[] line = new byte[prefix.length + encoded.remaining() + 1];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        encoded.get(line, prefix.length, encoded.remaining());
+        line[line.length - 1] = '\n';
+        frameWriter.send(line);
+    }
+    
+    /**
+     * Envía una lista como COMANDO:[...] serializando cada fila a medida que se lee de la base
+     * directo al socket: el hilo escritor ejecuta la consulta dentro de la línea, así la memoria
+     * no crece con el resultado y el cliente recibe los primeros bytes antes de que termine.
+     * Un error antes del primer byte se informa como fallo de la respuesta; después, la línea
+     * quedó cortada y no hay forma de resincronizar el protocolo: se cierra la conexión.
+     * Con Smile el binario se codifica en Base64 al vuelo.
+     */
+    private void sendStreamedResponse(String command, boolean users, StreamedBody body) throws IOException {
+        IOException[] notStarted = new IOException[1];
+        int[] count = new int[1];
+        try {
+            frameWriter.sendAndWait(out -> {
+                DeferredPrefixOutputStream line =
+                    new DeferredPrefixOutputStream(out, (command + ":").getBytes(StandardCharsets.UTF_8));
+                OutputStream target = line;
+                if (payloadFormat == PayloadFormat.SMILE) {
+                    target = Base64.getEncoder().wrap(target);
+                }
+                SequenceWriter sequence = users
+                    ? jsonCodec.openUserArray(target, payloadFormat)
+                    : jsonCodec.openMessageArray(target, payloadFormat);
+                try {
+                    count[0] = body.writeTo(sequence);
+                } catch (IOException | RuntimeException e) {
+                    if (line.isStarted()) {
+                        throw e;
+                    }
+                    // Nada llegó al socket: se abandona el generador y la línea no existe
+                    notStarted[0] = e instanceof IOException ? (IOException) e : new IOException(e);
+                    return;
+                }
+                sequence.close();
+                // Cierra el Base64 (padding)
+                target.close();
+                line.endLine();
+            });
+        } catch (IOException e) {
+            isRunning.set(false);
+            throw e;
+        }
+        if (notStarted[0] != null) {
+            throw notStarted[0];
+        }
+        logger.debug("{} enviado en streaming con {} elementos", command, count[0]);
+    }
+    
+    /**
+     * Un solo elemento ya en memoria (entrega en vivo), armado aparte para encolarlo sin esperar
+     */
+    private byte[] encodeStreamed(String command, boolean users, StreamedBody body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write((command + ":").getBytes(StandardCharsets.UTF_8));
+        
+        OutputStream target = new NonClosingOutputStream(buffer);
+        if (payloadFormat == PayloadFormat.SMILE) {
+            target = Base64.getEncoder().wrap(target);
+        }
+        
+        int count;
+        try (SequenceWriter sequence = users
+                ? jsonCodec.openUserArray(target, payloadFormat)
+                : jsonCodec.openMessageArray(target, payloadFormat)) {
+            count = body.writeTo(sequence);
+        } finally {
+            // Cierra el Base64 (padding)
+            target.close();
+        }
+        
+        buffer.write('\n');
+        logger.debug("{} armado en streaming con {} elementos", command, count);
+        return buffer.toByteArray();
+    }
+    
+    /**
+     * La subida trae más bytes que los declarados o que server.max.file.size
+     */
+    private static final class UploadTooLargeException extends IOException {
+        private UploadTooLargeException(String message) {
+            super(message);
+        }
+    }
+    
+    @FunctionalInterface
+    private interface StreamedBody {
+        int writeTo(SequenceWriter out) throws IOException;
+    }
+    
     private void cleanup() {
         isRunning.set(false);
+        admission.release();
         
         try {
             if (clientConnection != null) {
@@ -408,8 +1218,8 @@ public class ClientHandlerService implements Runnable {
                 loggingService.info("Cliente desconectado: " + clientConnection.getUsername());
             }
             
+            if (frameWriter != null) frameWriter.close(CLOSE_FLUSH_MILLIS);
             if (reader != null) reader.close();
-            if (writer != null) writer.close();
             if (clientSocket != null && !clientSocket.isClosed()) {
                 clientSocket.close();
             }
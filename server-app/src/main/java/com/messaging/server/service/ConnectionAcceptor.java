@@ -0,0 +1,179 @@
+package com.messaging.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Acepta conexiones con varios hilos
+ * Por defecto todos los hilos comparten un socket de escucha; con reusePort (Linux) cada hilo
+ * abre el suyo con SO_REUSEPORT y el kernel reparte las conexiones entre ellos. SO_REUSEPORT
+ * también deja que una instancia nueva escuche en el mismo puerto mientras la anterior se vacía.
+ * Lo que se haga con cada socket aceptado debe ser corto: el hilo vuelve enseguida al accept
+ */
+public class ConnectionAcceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionAcceptor.class);
+    // Pausa tras un error de accept (p. ej. sin descriptores libres) para no girar en vacío
+    private static final long ERROR_BACKOFF_MILLIS = 50;
+
+    private final int port;
+    private final int threads;
+    private final boolean reusePortRequested;
+    private final int backlog;
+    private final Consumer<Socket> handler;
+    private final List<ServerSocket> serverSockets;
+    private final List<Thread> acceptors;
+    private final AtomicBoolean running;
+    private final AtomicLong accepted;
+    private final AtomicLong errors;
+    private boolean reusePort;
+
+    public ConnectionAcceptor(int port, int threads, boolean reusePort, int backlog, Consumer<Socket> handler) {
+        this.port = port;
+        this.threads = Math.max(1, threads);
+        this.reusePortRequested = reusePort;
+        this.backlog = backlog;
+        this.handler = handler;
+        this.serverSockets = new ArrayList<>();
+        this.acceptors = new ArrayList<>();
+        this.running = new AtomicBoolean(false);
+        this.accepted = new AtomicLong();
+        this.errors = new AtomicLong();
+    }
+
+    public synchronized void start() throws IOException {
+        ServerSocket first = new ServerSocket();
+        reusePort = reusePortRequested
+            && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (reusePortRequested && !reusePort) {
+            logger.warn("SO_REUSEPORT no disponible en esta plataforma; los hilos comparten un socket");
+        }
+
+        try {
+            bind(first);
+            serverSockets.add(first);
+            for (int i = 1; i < threads && reusePort; i++) {
+                ServerSocket extra = new ServerSocket();
+                bind(extra);
+                serverSockets.add(extra);
+            }
+        } catch (IOException e) {
+            first.close();
+            closeSockets();
+            throw e;
+        }
+
+        running.set(true);
+        for (int i = 0; i < threads; i++) {
+            ServerSocket serverSocket = serverSockets.get(reusePort ? i : 0);
+            Thread acceptor = new Thread(() -> acceptLoop(serverSocket), "Acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptors.add(acceptor);
+            acceptor.start();
+        }
+        logger.info("Escuchando en puerto {} con {} hilos de aceptación{}", getLocalPort(), threads,
+                    reusePort ? " (SO_REUSEPORT)" : "");
+    }
+
+    private void bind(ServerSocket serverSocket) throws IOException {
+        serverSocket.setReuseAddress(true);
+        if (reusePort) {
+            serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        // Con port 0 los sockets extra toman el puerto que el sistema asignó al primero
+        int bindPort = serverSockets.isEmpty() ? port : serverSockets.get(0).getLocalPort();
+        serverSocket.bind(new InetSocketAddress(bindPort), backlog);
+    }
+
+    private void acceptLoop(ServerSocket serverSocket) {
+        while (running.get()) {
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running.get()) {
+                    errors.incrementAndGet();
+                    logger.error("Error aceptando conexión: " + e.getMessage());
+                    pause();
+                }
+                continue;
+            }
+
+            accepted.incrementAndGet();
+            try {
+                handler.accept(clientSocket);
+            } catch (RuntimeException e) {
+                logger.error("Error atendiendo conexión aceptada: " + e.getMessage());
+                try {
+                    clientSocket.close();
+                } catch (IOException closeError) {
+                    logger.debug("Error cerrando conexión: " + closeError.getMessage());
+                }
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(ERROR_BACKOFF_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Bloquea hasta que se cierre el acceptor
+     */
+    public void awaitTermination() throws InterruptedException {
+        List<Thread> current;
+        synchronized (this) {
+            current = new ArrayList<>(acceptors);
+        }
+        for (Thread acceptor : current) {
+            acceptor.join();
+        }
+    }
+
+    public synchronized void close() {
+        running.set(false);
+        closeSockets();
+    }
+
+    private void closeSockets() {
+        for (ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.error("Error cerrando socket de escucha: " + e.getMessage());
+            }
+        }
+    }
+
+    public int getLocalPort() {
+        return serverSockets.isEmpty() ? port : serverSockets.get(0).getLocalPort();
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public void registerMetrics(MetricsService metricsService) {
+        metricsService.registerGauge("acceptor.accepted", accepted::get);
+        metricsService.registerGauge("acceptor.errors", errors::get);
+    }
+}
@@ -0,0 +1,242 @@
+package com.messaging.server.service;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.messaging.server.config.DatabaseConfig;
+import com.messaging.server.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Entrega diferida de mensajes (store-and-forward)
+ * Cada dispositivo de un usuario tiene un cursor delivered_up_to: al conectarse solo
+ * recibe los mensajes con id mayor, por lotes, y el cursor avanza cuando el cliente confirma.
+ * El mismo cursor cubre los mensajes de sus grupos, que comparten la secuencia de ids.
+ *
+ * Los ids se asignan al insertar y no al confirmar la transacción: el 101 puede hacerse visible
+ * después del 102. Por eso el cursor guardado nunca pasa del último id con más de settleMillis
+ * de antigüedad; lo posterior se vuelve a enviar al reconectar y el cliente descarta los repetidos
+ */
+public class DeliveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryService.class);
+
+    private final DatabaseConfig databaseConfig;
+    // Ajustables en caliente; un lote en curso conserva el tamaño con que se pidió
+    private volatile int batchSize;
+    private volatile long settleMillis;
+
+    public DeliveryService(DatabaseConfig databaseConfig, int batchSize, long settleMillis) {
+        this.databaseConfig = databaseConfig;
+        setLimits(batchSize, settleMillis);
+    }
+
+    public void setLimits(int newBatchSize, long newSettleMillis) {
+        batchSize = newBatchSize;
+        settleMillis = newSettleMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Cursor del dispositivo. Un dispositivo nuevo empieza en el último id ya asentado:
+     * no recibe todo el historial por esta vía (lo pide por conversación), solo lo que llegue desde ahora.
+     * Vacío si la base falla: un 0 mandaría el historial completo
+     */
+    public OptionalLong getDeliveredUpTo(Long userId, String deviceId) {
+        String selectSql = "SELECT delivered_up_to FROM delivery_cursors WHERE user_id = ? AND device_id = ?";
+        String insertSql = "INSERT INTO delivery_cursors (user_id, device_id, delivered_up_to, updated_at) " +
+                          "VALUES (?, ?, ?, CURRENT_TIMESTAMP) ON CONFLICT (user_id, device_id) DO NOTHING";
+
+        try (Connection conn = databaseConfig.getConnection();
+             PreparedStatement select = conn.prepareStatement(selectSql)) {
+
+            select.setLong(1, userId);
+            select.setString(2, deviceId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    return OptionalLong.of(rs.getLong(1));
+                }
+            }
+
+            long start = settledUpTo(conn, Long.MAX_VALUE);
+            try (PreparedStatement insert = conn.prepareStatement(insertSql)) {
+                insert.setLong(1, userId);
+                insert.setString(2, deviceId);
+                insert.setLong(3, start);
+                insert.executeUpdate();
+            }
+            // Otra conexión del mismo dispositivo pudo crearlo primero
+            try (ResultSet rs = select.executeQuery()) {
+                return OptionalLong.of(rs.next() ? rs.getLong(1) : start);
+            }
+
+        } catch (SQLException e) {
+            logger.error("Error leyendo cursor de entrega: " + e.getMessage());
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Mayor id hasta upTo insertado hace más de settleMillis; todo id menor ya está confirmado
+     * (o descartado). Recorre hacia atrás el índice de id solo por los mensajes más recientes
+     */
+    private long settledUpTo(Connection conn, long upTo) throws SQLException {
+        String sql = "SELECT COALESCE(MAX(id), 0) FROM messages WHERE id <= ? AND sent_at <= ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, upTo);
+            stmt.setTimestamp(2, Timestamp.valueOf(LocalDateTime.now().minusNanos(settleMillis * 1_000_000L)));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+
+    /**
+     * Escribe el siguiente lote de mensajes recibidos con id mayor a afterId, en orden de id
+     * Directos y de grupo salen de dos búsquedas por índice unidas; de los grupos solo lo
+     * enviado por otros miembros desde que el usuario se unió
+     */
+    public PendingBatch writePendingBatch(Long userId, long afterId, SequenceWriter out) throws IOException {
+        String sql = "SELECT m.id, m.sender_id, m.receiver_id, m.group_id, m.content, m.message_type, " +
+                    "m.file_name, m.sent_at, m.is_read, u1.username AS sender_username, u2.username AS receiver_username " +
+                    "FROM messages m " +
+                    "JOIN users u1 ON m.sender_id = u1.id " +
+                    "LEFT JOIN users u2 ON m.receiver_id = u2.id " +
+                    "WHERE m.id IN (" +
+                    "(SELECT id FROM messages WHERE receiver_id = ? AND id > ? ORDER BY id LIMIT ?) " +
+                    "UNION ALL " +
+                    "(SELECT g.id FROM messages g JOIN group_members gm ON gm.group_id = g.group_id " +
+                    "WHERE gm.user_id = ? AND g.id > ? AND g.sender_id <> gm.user_id AND g.sent_at >= gm.joined_at " +
+                    "ORDER BY g.id LIMIT ?)) " +
+                    "ORDER BY m.id ASC LIMIT ?";
+
+        int limit = batchSize;
+        long lastId = afterId;
+        int count = 0;
+        Set<Long> ids = new HashSet<>();
+        Map<Long, Long> lastIdBySender = new HashMap<>();
+        try (Connection conn = databaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, userId);
+            stmt.setLong(2, afterId);
+            stmt.setInt(3, limit);
+            stmt.setLong(4, userId);
+            stmt.setLong(5, afterId);
+            stmt.setInt(6, limit);
+            stmt.setInt(7, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = Message.builder()
+                        .id(rs.getLong("id"))
+                        .senderId(rs.getLong("sender_id"))
+                        .receiverId(rs.getObject("receiver_id", Long.class))
+                        .groupId(rs.getObject("group_id", Long.class))
+                        .content(rs.getString("content"))
+                        .messageType(rs.getString("message_type"))
+                        .fileName(rs.getString("file_name"))
+                        .createdAt(rs.getTimestamp("sent_at").toLocalDateTime())
+                        .senderUsername(rs.getString("sender_username"))
+                        .receiverUsername(rs.getString("receiver_username"))
+                        .isRead(rs.getBoolean("is_read"))
+                        .build();
+                    out.write(message);
+                    lastId = message.getId();
+                    ids.add(lastId);
+                    if (message.getGroupId() == null) {
+                        lastIdBySender.put(message.getSenderId(), lastId);
+                    }
+                    count++;
+                }
+            }
+
+        } catch (SQLException e) {
+            // Un lote cortado parecería el último del historial
+            throw new IOException("Error obteniendo mensajes pendientes: " + e.getMessage(), e);
+        }
+
+        return new PendingBatch(count, lastId, count >= limit, ids, lastIdBySender);
+    }
+
+    /**
+     * Avanza el cursor del dispositivo hasta lo confirmado que ya está asentado;
+     * nunca retrocede aunque las confirmaciones lleguen desordenadas
+     */
+    public void acknowledge(Long userId, String deviceId, long deliveredUpTo) {
+        String sql = "INSERT INTO delivery_cursors (user_id, device_id, delivered_up_to, updated_at) " +
+                    "VALUES (?, ?, (SELECT COALESCE(MAX(id), 0) FROM messages WHERE id <= ? AND sent_at <= ?), " +
+                    "CURRENT_TIMESTAMP) " +
+                    "ON CONFLICT (user_id, device_id) DO UPDATE SET " +
+                    "delivered_up_to = GREATEST(delivery_cursors.delivered_up_to, EXCLUDED.delivered_up_to), " +
+                    "updated_at = CURRENT_TIMESTAMP";
+
+        try (Connection conn = databaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, userId);
+            stmt.setString(2, deviceId);
+            stmt.setLong(3, deliveredUpTo);
+            stmt.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now().minusNanos(settleMillis * 1_000_000L)));
+            stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            logger.error("Error actualizando cursor de entrega: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resultado de un lote: cantidad, último id enviado, si pudo quedar algo pendiente, los ids
+     * incluidos y el último id de cada remitente directo (para sus confirmaciones de entrega)
+     */
+    public static final class PendingBatch {
+        private final int count;
+        private final long lastId;
+        private final boolean full;
+        private final Set<Long> ids;
+        private final Map<Long, Long> lastIdBySender;
+
+        private PendingBatch(int count, long lastId, boolean full, Set<Long> ids, Map<Long, Long> lastIdBySender) {
+            this.count = count;
+            this.lastId = lastId;
+            this.full = full;
+            this.ids = ids;
+            this.lastIdBySender = lastIdBySender;
+        }
+
+        public boolean contains(long messageId) {
+            return ids.contains(messageId);
+        }
+
+        public Map<Long, Long> getLastIdBySender() {
+            return lastIdBySender;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getLastId() {
+            return lastId;
+        }
+
+        public boolean isFull() {
+            return full;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.DatabaseConfig;
+import com.messaging.server.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cupo diario de archivos por usuario
+ * Los contadores viven en memoria (sin locks ni consultas por envío) y se reinician
+ * al cambiar el día en la zona horaria configurada; se persisten por lotes en users.files_sent_count
+ */
+public class FileQuotaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileQuotaService.class);
+
+    private final DatabaseConfig databaseConfig;
+    private final ZoneId zoneId;
+    private final Map<Long, UserQuota> quotas;
+    private final ScheduledExecutorService flusher;
+
+    public FileQuotaService(DatabaseConfig databaseConfig, ZoneId zoneId) {
+        this.databaseConfig = databaseConfig;
+        this.zoneId = zoneId;
+        this.quotas = new ConcurrentHashMap<>();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileQuotaFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(long flushIntervalSeconds) {
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Carga el contador persistido la primera vez que se ve al usuario; después manda la memoria
+     */
+    public void seed(User user) {
+        quotas.computeIfAbsent(user.getId(), id -> {
+            LocalDate day = user.getFilesCountDate();
+            int count = day != null ? user.getFilesSentCount() : 0;
+            return new UserQuota(day != null ? day.toEpochDay() : today(), count);
+        });
+    }
+
+    /**
+     * Reserva un envío si el usuario no alcanzó su límite del día
+     */
+    public boolean tryAcquire(Long userId, int maxFilesPerDay) {
+        UserQuota quota = quotas.computeIfAbsent(userId, id -> new UserQuota(today(), 0));
+        long day = today();
+
+        while (true) {
+            long current = quota.state.get();
+            int count = day == dayOf(current) ? countOf(current) : 0;
+            if (count >= maxFilesPerDay) {
+                return false;
+            }
+            if (quota.state.compareAndSet(current, pack(day, count + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Devuelve una reserva cuando el archivo no se pudo guardar
+     */
+    public void release(Long userId) {
+        UserQuota quota = quotas.get(userId);
+        if (quota == null) {
+            return;
+        }
+        long day = today();
+
+        while (true) {
+            long current = quota.state.get();
+            // Si el día cambió la reserva ya no cuenta
+            if (dayOf(current) != day || countOf(current) == 0) {
+                return;
+            }
+            if (quota.state.compareAndSet(current, pack(day, countOf(current) - 1))) {
+                return;
+            }
+        }
+    }
+
+    public int getFilesSentToday(Long userId) {
+        UserQuota quota = quotas.get(userId);
+        if (quota == null) {
+            return 0;
+        }
+        long current = quota.state.get();
+        return dayOf(current) == today() ? countOf(current) : 0;
+    }
+
+    /**
+     * Persiste en un solo lote lo que cambió desde el último volcado
+     * Se guarda como incremento sobre el valor de la base para no pisar lo que registren otros nodos
+     */
+    public synchronized void flush() {
+        String sql = "UPDATE users SET " +
+                    "files_sent_count = CASE WHEN files_count_date = ? THEN files_sent_count + ? ELSE ? END, " +
+                    "files_count_date = ? WHERE id = ?";
+
+        try (Connection conn = databaseConfig.getBulkConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            List<Runnable> marks = new ArrayList<>();
+            for (Map.Entry<Long, UserQuota> entry : quotas.entrySet()) {
+                UserQuota quota = entry.getValue();
+                long current = quota.state.get();
+                long day = dayOf(current);
+                int count = countOf(current);
+
+                int delta = day == quota.flushedDay ? count - quota.flushedCount : count;
+                if (delta == 0 && day == quota.flushedDay) {
+                    continue;
+                }
+
+                Date sqlDay = Date.valueOf(LocalDate.ofEpochDay(day));
+                stmt.setDate(1, sqlDay);
+                stmt.setInt(2, delta);
+                stmt.setInt(3, count);
+                stmt.setDate(4, sqlDay);
+                stmt.setLong(5, entry.getKey());
+                stmt.addBatch();
+
+                marks.add(() -> {
+                    quota.flushedDay = day;
+                    quota.flushedCount = count;
+                });
+            }
+
+            if (!marks.isEmpty()) {
+                stmt.executeBatch();
+                // Solo se da por persistido si el lote se aplicó
+                marks.forEach(Runnable::run);
+                logger.debug("Cupos de archivos persistidos para {} usuarios", marks.size());
+            }
+
+        } catch (SQLException e) {
+            logger.error("Error persistiendo cupos de archivos: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private long today() {
+        return LocalDate.now(zoneId).toEpochDay();
+    }
+
+    // Día y contador van juntos en un long para actualizarlos con un solo CAS
+
+    private static long pack(long epochDay, int count) {
+        return (epochDay << 32) | (count & 0xFFFFFFFFL);
+    }
+
+    private static long dayOf(long state) {
+        return state >>> 32;
+    }
+
+    private static int countOf(long state) {
+        return (int) state;
+    }
+
+    private static final class UserQuota {
+        private final AtomicLong state;
+        // Solo los modifica el hilo de volcado
+        private long flushedDay;
+        private int flushedCount;
+
+        private UserQuota(long epochDay, int count) {
+            this.state = new AtomicLong(pack(epochDay, count));
+            this.flushedDay = epochDay;
+            this.flushedCount = count;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.messaging.server.service;
+
+import com.messaging.server.codec.EncodedMessage;
+import com.messaging.server.model.Message;
+import com.messaging.server.pool.ConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reparto de mensajes de grupo a los miembros conectados
+ * El mensaje se serializa una vez por formato y se busca cada miembro en el índice por usuario
+ * del pool. Cada grupo usa siempre el mismo hilo, así sus mensajes llegan en orden
+ */
+public class GroupFanout {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupFanout.class);
+
+    private final ConnectionPool connectionPool;
+    private final ExecutorService[] stripes;
+    private final AtomicLong deliveries;
+
+    public GroupFanout(ConnectionPool connectionPool, int threads) {
+        this.connectionPool = connectionPool;
+        this.stripes = new ExecutorService[Math.max(1, threads)];
+        for (int i = 0; i < stripes.length; i++) {
+            String name = "GroupFanout-" + i;
+            stripes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.deliveries = new AtomicLong();
+    }
+
+    /**
+     * Encola el reparto; el hilo del remitente responde sin esperar a los miembros
+     */
+    public void submit(Message message, long[] memberIds) {
+        int stripe = (int) Math.floorMod(message.getGroupId(), (long) stripes.length);
+        stripes[stripe].execute(() -> {
+            try {
+                deliver(message, memberIds);
+            } catch (Exception e) {
+                logger.error("Error repartiendo mensaje de grupo: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Entrega el mensaje a todas las conexiones abiertas de los miembros (salvo el remitente)
+     * Devuelve la cantidad de conexiones alcanzadas
+     */
+    public int deliver(Message message, long[] memberIds) {
+        EncodedMessage encoded = new EncodedMessage(message);
+        long senderId = message.getSenderId();
+        int[] reached = new int[1];
+        for (long memberId : memberIds) {
+            if (memberId == senderId) {
+                continue;
+            }
+            connectionPool.forEachUserConnection(memberId, connection -> {
+                connection.deliver(encoded);
+                reached[0]++;
+            });
+        }
+        deliveries.addAndGet(reached[0]);
+        return reached[0];
+    }
+
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.DatabaseConfig;
+import com.messaging.server.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grupos de conversación
+ * Un mensaje de grupo se guarda una sola vez (messages.group_id, sin receptor). El estado de
+ * entrega de cada miembro no se escribe al enviar: lo cubre su cursor delivered_up_to, que
+ * avanza solo cuando el dispositivo confirma
+ */
+public class GroupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupService.class);
+    private static final long[] NO_MEMBERS = new long[0];
+    private static final long EMPTY_TTL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int MAX_EMPTY_ENTRIES = 10_000;
+
+    private final DatabaseConfig databaseConfig;
+    // grupo -> ids de miembros ordenados; se carga al primer uso
+    private final Map<Long, long[]> membersCache;
+    // Grupos inexistentes o sin miembros -> vencimiento (nanoTime); evita una consulta por cada intento
+    private final Map<Long, Long> emptyCache;
+
+    public GroupService(DatabaseConfig databaseConfig) {
+        this.databaseConfig = databaseConfig;
+        this.membersCache = new ConcurrentHashMap<>();
+        this.emptyCache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Crea el grupo con su creador como miembro; devuelve el id o null si falla
+     */
+    public Long createGroup(Long creatorId, String name, Collection<Long> memberIds) {
+        String groupSql = "INSERT INTO groups (name, created_by) VALUES (?, ?) RETURNING id";
+        String memberSql = "INSERT INTO group_members (group_id, user_id) VALUES (?, ?) ON CONFLICT DO NOTHING";
+
+        TreeSet<Long> members = new TreeSet<>(memberIds);
+        members.add(creatorId);
+
+        try (Connection conn = databaseConfig.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement groupStmt = conn.prepareStatement(groupSql);
+                 PreparedStatement memberStmt = conn.prepareStatement(memberSql)) {
+
+                groupStmt.setString(1, name);
+                groupStmt.setLong(2, creatorId);
+                long groupId;
+                try (ResultSet rs = groupStmt.executeQuery()) {
+                    rs.next();
+                    groupId = rs.getLong(1);
+                }
+
+                for (Long memberId : members) {
+                    memberStmt.setLong(1, groupId);
+                    memberStmt.setLong(2, memberId);
+                    memberStmt.addBatch();
+                }
+                memberStmt.executeBatch();
+                conn.commit();
+
+                membersCache.put(groupId, members.stream().mapToLong(Long::longValue).toArray());
+                emptyCache.remove(groupId);
+                logger.info("Grupo {} creado por {} con {} miembros", groupId, creatorId, members.size());
+                return groupId;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            logger.error("Error creando grupo: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ids de los miembros (ordenados); vacío si el grupo no existe
+     */
+    public long[] getMembers(Long groupId) {
+        long[] members = membersCache.get(groupId);
+        if (members != null) {
+            return members;
+        }
+        Long emptyUntil = emptyCache.get(groupId);
+        if (emptyUntil != null) {
+            if (System.nanoTime() - emptyUntil < 0) {
+                return NO_MEMBERS;
+            }
+            emptyCache.remove(groupId, emptyUntil);
+        }
+
+        members = loadMembers(groupId);
+        if (members == null) {
+            // Error de base de datos: no se recuerda, el próximo intento vuelve a consultar
+            return NO_MEMBERS;
+        }
+        if (members.length > 0) {
+            membersCache.put(groupId, members);
+        } else {
+            if (emptyCache.size() >= MAX_EMPTY_ENTRIES) {
+                emptyCache.clear();
+            }
+            emptyCache.put(groupId, System.nanoTime() + EMPTY_TTL_NANOS);
+        }
+        return members;
+    }
+
+    public boolean isMember(Long groupId, Long userId) {
+        return Arrays.binarySearch(getMembers(groupId), userId) >= 0;
+    }
+
+    public int getCachedGroupCount() {
+        return membersCache.size();
+    }
+
+    /**
+     * Guarda el mensaje de grupo una sola vez; mismo contrato idempotente que UserService.saveMessage
+     */
+    public boolean saveGroupMessage(Message message) {
+        String sql = "INSERT INTO messages (sender_id, group_id, message_type, content, sent_at, client_message_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (sender_id, client_message_id) DO NOTHING RETURNING id, sent_at";
+
+        try (Connection conn = databaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, message.getSenderId());
+            stmt.setLong(2, message.getGroupId());
+            stmt.setString(3, message.getMessageType());
+            stmt.setString(4, message.getContent());
+            stmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setObject(6, message.getClientMessageId() != null ? UUID.fromString(message.getClientMessageId()) : null,
+                          Types.OTHER);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    message.setId(rs.getLong("id"));
+                    message.setCreatedAt(rs.getTimestamp("sent_at").toLocalDateTime());
+                } else {
+                    message.setId(null);
+                    logger.debug("Mensaje de grupo {} ya guardado, reintento ignorado", message.getClientMessageId());
+                }
+            }
+            return true;
+
+        } catch (SQLException e) {
+            logger.error("Error guardando mensaje de grupo: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Miembros ordenados, vacío si el grupo no existe, o null si falla la consulta
+     */
+    private long[] loadMembers(Long groupId) {
+        String sql = "SELECT user_id FROM group_members WHERE group_id = ? ORDER BY user_id";
+
+        try (Connection conn = databaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setLong(1, groupId);
+            long[] members = new long[16];
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (count == members.length) {
+                        members = Arrays.copyOf(members, count * 2);
+                    }
+                    members[count++] = rs.getLong(1);
+                }
+            }
+            return Arrays.copyOf(members, count);
+
+        } catch (SQLException e) {
+            logger.error("Error obteniendo miembros del grupo: " + e.getMessage());
+            return null;
+        }
+    }
+}
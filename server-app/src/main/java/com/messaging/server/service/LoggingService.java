@@ -3,25 +3,37 @@ package com.messaging.server.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Servicio de logging centralizado
  * Implementa patrón Singleton y maneja logging en consola y archivo
+ * Quien registra solo encola la entrada; un hilo aparte la escribe con el archivo abierto,
+ * así el hilo que acepta conexiones o atiende comandos no espera al disco.
+ * Si la cola se llena las entradas se descartan y se cuentan
  */
 public class LoggingService {
     
     private static final Logger logger = LoggerFactory.getLogger(LoggingService.class);
     private static volatile LoggingService instance;
+    private static final int QUEUE_CAPACITY = 10_000;
     
     private final String logFilePath;
     private final AtomicBoolean fileLoggingEnabled;
     private final DateTimeFormatter formatter;
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong dropped;
+    private final Thread writerThread;
+    private BufferedWriter fileWriter;
     
     private LoggingService() {
         this.logFilePath = "./logs/server.log";
@@ -37,6 +49,12 @@ public class LoggingService {
         } catch (Exception e) {
             System.err.println("Error creando directorio de logs: " + e.getMessage());
         }
+        
+        this.queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        this.dropped = new AtomicLong();
+        this.writerThread = new Thread(this::writeLoop, "LoggingWriter");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
     
     public static LoggingService getInstance() {
@@ -67,8 +85,29 @@ public class LoggingService {
     }
     
     private void log(String level, String message) {
-        String timestamp = LocalDateTime.now().format(formatter);
-        String logEntry = String.format("[%s] [%s] %s", timestamp, level, message);
+        if (!queue.offer(new Entry(LocalDateTime.now(), level, message))) {
+            dropped.incrementAndGet();
+        }
+    }
+    
+    private void writeLoop() {
+        try {
+            while (true) {
+                write(queue.take());
+                // Vaciar lo acumulado y recién entonces bajar al disco
+                Entry next;
+                while ((next = queue.poll()) != null) {
+                    write(next);
+                }
+                flushFile();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void write(Entry entry) {
+        String logEntry = String.format("[%s] [%s] %s", entry.time.format(formatter), entry.level, entry.message);
         
         // Log en consola
         System.out.println(logEntry);
@@ -79,30 +118,78 @@ public class LoggingService {
         }
         
         // Log usando SLF4J
-        switch (level) {
+        switch (entry.level) {
             case "INFO":
-                logger.info(message);
+                logger.info(entry.message);
                 break;
             case "WARN":
-                logger.warn(message);
+                logger.warn(entry.message);
                 break;
             case "ERROR":
-                logger.error(message);
+                logger.error(entry.message);
                 break;
             case "DEBUG":
-                logger.debug(message);
+                logger.debug(entry.message);
                 break;
         }
     }
     
     private void writeToFile(String logEntry) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(logFilePath, true))) {
-            writer.println(logEntry);
+        try {
+            if (fileWriter == null) {
+                fileWriter = new BufferedWriter(new FileWriter(logFilePath, true));
+            }
+            fileWriter.write(logEntry);
+            fileWriter.newLine();
         } catch (IOException e) {
             System.err.println("Error escribiendo al archivo de log: " + e.getMessage());
+            closeFile();
         }
     }
     
+    private void flushFile() {
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.flush();
+        } catch (IOException e) {
+            System.err.println("Error escribiendo al archivo de log: " + e.getMessage());
+            closeFile();
+        }
+    }
+    
+    private void closeFile() {
+        try {
+            if (fileWriter != null) {
+                fileWriter.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error cerrando archivo de log: " + e.getMessage());
+        } finally {
+            fileWriter = null;
+        }
+    }
+    
+    /**
+     * Espera a que se escriba lo encolado (hasta el tiempo indicado) antes de terminar el proceso
+     */
+    public void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+    
     public void setFileLoggingEnabled(boolean enabled) {
         fileLoggingEnabled.set(enabled);
     }
@@ -114,4 +201,16 @@ public class LoggingService {
     public String getLogFilePath() {
         return logFilePath;
     }
+    
+    private static final class Entry {
+        private final LocalDateTime time;
+        private final String level;
+        private final String message;
+        
+        private Entry(LocalDateTime time, String level, String message) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+        }
+    }
 }
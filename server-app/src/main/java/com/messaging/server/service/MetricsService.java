@@ -0,0 +1,65 @@
+package com.messaging.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registro central de métricas del servidor usando patrón Singleton
+ * Cada componente publica sus valores como gauges; la tarea de limpieza los vuelca al log
+ */
+public class MetricsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsService.class);
+    private static volatile MetricsService instance;
+
+    private final Map<String, Supplier<Number>> gauges;
+
+    private MetricsService() {
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public static MetricsService getInstance() {
+        if (instance == null) {
+            synchronized (MetricsService.class) {
+                if (instance == null) {
+                    instance = new MetricsService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Registra (o reemplaza) una métrica que se consulta al momento de exportar
+     */
+    public void registerGauge(String name, Supplier<Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Valores actuales ordenados por nombre
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> {
+            try {
+                values.put(name, gauge.get());
+            } catch (RuntimeException e) {
+                logger.debug("Métrica {} no disponible: {}", name, e.getMessage());
+            }
+        });
+        return values;
+    }
+
+    public void logSnapshot() {
+        Map<String, Number> values = snapshot();
+        if (!values.isEmpty()) {
+            logger.info("Métricas: {}", values);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.messaging.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.messaging.server.codec.JsonCodec;
+import com.messaging.server.pool.ConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Presencia por suscripción
+ * El cliente recibe una foto de los conectados al suscribirse y después solo cambios:
+ * PRESENCE_DELTA:{"online":[{"id":..,"username":..}],"offline":[..]}
+ * Los cambios se acumulan durante una ventana corta y se publican en un solo aviso;
+ * un usuario que entra y sale dentro de la ventana no genera ninguno
+ */
+public class PresenceService implements ConnectionPool.PresenceListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private final ConnectionPool connectionPool;
+    // Ajustable en caliente; vale desde la próxima ventana
+    private volatile long windowMillis;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService publisher;
+    // Usuarios con cambios desde el último aviso: id -> nombre
+    private final Map<Long, String> dirty;
+    // Usuarios anunciados como conectados en el último aviso
+    private final Set<Long> announcedOnline;
+    private final AtomicLong deltasSent;
+    private boolean flushScheduled;
+
+    public PresenceService(ConnectionPool connectionPool, long windowMillis) {
+        this.connectionPool = connectionPool;
+        this.windowMillis = windowMillis;
+        this.objectMapper = JsonCodec.getInstance().getObjectMapper();
+        this.publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PresencePublisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dirty = new LinkedHashMap<>();
+        this.announcedOnline = ConcurrentHashMap.newKeySet();
+        this.deltasSent = new AtomicLong();
+    }
+
+    public void start() {
+        connectionPool.addPresenceListener(this);
+    }
+
+    public void setWindowMillis(long newWindowMillis) {
+        windowMillis = newWindowMillis;
+    }
+
+    @Override
+    public void presenceChanged(Long userId, String username, boolean online) {
+        synchronized (dirty) {
+            dirty.put(userId, username);
+            // La primera novedad abre la ventana; las siguientes se suman al mismo aviso
+            if (!flushScheduled) {
+                flushScheduled = true;
+                publisher.schedule(this::publish, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Publica el estado actual de los usuarios con cambios, no la secuencia de eventos
+     */
+    private void publish() {
+        Map<Long, String> changed;
+        synchronized (dirty) {
+            changed = new LinkedHashMap<>(dirty);
+            dirty.clear();
+            flushScheduled = false;
+        }
+
+        ObjectNode delta = objectMapper.createObjectNode();
+        ArrayNode online = delta.putArray("online");
+        ArrayNode offline = delta.putArray("offline");
+        changed.forEach((userId, username) -> {
+            boolean connected = connectionPool.getUserConnectionCount(userId) > 0;
+            if (connected && announcedOnline.add(userId)) {
+                online.addObject().put("id", userId).put("username", username);
+            } else if (!connected && announcedOnline.remove(userId)) {
+                offline.add(userId);
+            }
+        });
+        if (online.isEmpty() && offline.isEmpty()) {
+            return;
+        }
+
+        String frame;
+        try {
+            frame = objectMapper.writeValueAsString(delta);
+        } catch (JsonProcessingException e) {
+            logger.error("Error serializando presencia: " + e.getMessage());
+            return;
+        }
+
+        connectionPool.forEachConnection(connection -> {
+            if (connection.isPresenceSubscribed()) {
+                connection.push("PRESENCE_DELTA", frame);
+            }
+        });
+        deltasSent.incrementAndGet();
+        logger.debug("Presencia publicada: {} conectados, {} desconectados", online.size(), offline.size());
+    }
+
+    public long getDeltasSent() {
+        return deltasSent.get();
+    }
+
+    public int getOnlineCount() {
+        return announcedOnline.size();
+    }
+
+    public void shutdown() {
+        publisher.shutdownNow();
+    }
+}
@@ -0,0 +1,90 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.ServerConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plazos de lectura de las conexiones y conteo de clientes desconectados por incumplirlos
+ * Un cliente que no autentica, deja una línea a medias o detiene una subida
+ * no puede retener indefinidamente un hilo del pool
+ */
+public class ReadDeadlines {
+
+    // Ajustables en caliente; las conexiones abiertas conservan el tamaño y plazo de línea con que empezaron
+    private volatile long authTimeoutMillis;
+    private volatile long idleTimeoutMillis;
+    private volatile long frameTimeoutMillis;
+    private volatile long fileDataTimeoutMillis;
+    private volatile int maxLineLength;
+    private final AtomicLong authTimeouts;
+    private final AtomicLong idleTimeouts;
+    private final AtomicLong frameTimeouts;
+    private final AtomicLong fileDataTimeouts;
+    private final AtomicLong oversizedFrames;
+
+    public ReadDeadlines(ServerConfig serverConfig) {
+        applyConfig(serverConfig);
+        this.authTimeouts = new AtomicLong();
+        this.idleTimeouts = new AtomicLong();
+        this.frameTimeouts = new AtomicLong();
+        this.fileDataTimeouts = new AtomicLong();
+        this.oversizedFrames = new AtomicLong();
+    }
+
+    public void applyConfig(ServerConfig serverConfig) {
+        authTimeoutMillis = serverConfig.getAuthTimeoutMillis();
+        idleTimeoutMillis = serverConfig.getConnectionTimeout();
+        frameTimeoutMillis = serverConfig.getFrameTimeoutMillis();
+        fileDataTimeoutMillis = serverConfig.getFileDataTimeoutMillis();
+        maxLineLength = serverConfig.getMaxLineLength();
+    }
+
+    public long getAuthTimeoutMillis() {
+        return authTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getFrameTimeoutMillis() {
+        return frameTimeoutMillis;
+    }
+
+    public long getFileDataTimeoutMillis() {
+        return fileDataTimeoutMillis;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public void authTimedOut() {
+        authTimeouts.incrementAndGet();
+    }
+
+    public void idleTimedOut() {
+        idleTimeouts.incrementAndGet();
+    }
+
+    public void frameTimedOut() {
+        frameTimeouts.incrementAndGet();
+    }
+
+    public void fileDataTimedOut() {
+        fileDataTimeouts.incrementAndGet();
+    }
+
+    public void frameTooLong() {
+        oversizedFrames.incrementAndGet();
+    }
+
+    public void registerMetrics(MetricsService metricsService) {
+        metricsService.registerGauge("deadlines.authTimeouts", authTimeouts::get);
+        metricsService.registerGauge("deadlines.idleTimeouts", idleTimeouts::get);
+        metricsService.registerGauge("deadlines.frameTimeouts", frameTimeouts::get);
+        metricsService.registerGauge("deadlines.fileDataTimeouts", fileDataTimeouts::get);
+        metricsService.registerGauge("deadlines.oversizedFrames", oversizedFrames::get);
+    }
+}
@@ -0,0 +1,126 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.DatabaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Confirmaciones de lectura
+ * Los clientes informan "leído hasta el id X" por conversación; en memoria solo queda el mayor
+ * id de cada conversación y se persiste en messages.is_read con un UPDATE por conversación y lote,
+ * así abrir una conversación larga no genera un UPDATE por mensaje
+ */
+public class ReceiptService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReceiptService.class);
+
+    private final DatabaseConfig databaseConfig;
+    private final Map<ConversationKey, Long> pendingReads;
+    private final ScheduledExecutorService flusher;
+
+    public ReceiptService(DatabaseConfig databaseConfig) {
+        this.databaseConfig = databaseConfig;
+        this.pendingReads = new ConcurrentHashMap<>();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ReceiptFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start(long flushIntervalSeconds) {
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registra que el lector vio los mensajes del remitente hasta upToId
+     */
+    public void markRead(Long readerId, Long senderId, long upToId) {
+        pendingReads.merge(new ConversationKey(readerId, senderId), upToId, Math::max);
+    }
+
+    public int getPendingCount() {
+        return pendingReads.size();
+    }
+
+    /**
+     * Persiste las lecturas acumuladas en un solo lote
+     */
+    public synchronized void flush() {
+        if (pendingReads.isEmpty()) {
+            return;
+        }
+
+        String sql = "UPDATE messages SET is_read = TRUE " +
+                    "WHERE receiver_id = ? AND sender_id = ? AND id <= ? AND is_read = FALSE";
+
+        List<Map.Entry<ConversationKey, Long>> drained = new ArrayList<>();
+        for (Map.Entry<ConversationKey, Long> entry : pendingReads.entrySet()) {
+            // Si llegó una lectura mayor mientras tanto, la entrada queda para el siguiente lote
+            if (pendingReads.remove(entry.getKey(), entry.getValue())) {
+                drained.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+
+        try (Connection conn = databaseConfig.getBulkConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for (Map.Entry<ConversationKey, Long> entry : drained) {
+                stmt.setLong(1, entry.getKey().readerId);
+                stmt.setLong(2, entry.getKey().senderId);
+                stmt.setLong(3, entry.getValue());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            logger.debug("Lecturas persistidas para {} conversaciones", drained.size());
+
+        } catch (SQLException e) {
+            logger.error("Error persistiendo lecturas: " + e.getMessage());
+            // Se reintentan en el siguiente lote
+            drained.forEach(entry -> pendingReads.merge(entry.getKey(), entry.getValue(), Math::max));
+        }
+    }
+
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private static final class ConversationKey {
+        private final Long readerId;
+        private final Long senderId;
+
+        private ConversationKey(Long readerId, Long senderId) {
+            this.readerId = readerId;
+            this.senderId = senderId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ConversationKey)) return false;
+            ConversationKey other = (ConversationKey) o;
+            return readerId.equals(other.readerId) && senderId.equals(other.senderId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(readerId, senderId);
+        }
+    }
+}
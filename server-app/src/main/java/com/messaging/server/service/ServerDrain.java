@@ -0,0 +1,88 @@
+package com.messaging.server.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estado de vaciado del servidor antes de detenerse
+ * Los handlers marcan cada comando en curso; al detener el servidor se espera a que terminen
+ * (incluidas las transferencias) hasta un plazo, en vez de cortar guardados y subidas a medias
+ */
+public class ServerDrain {
+
+    private static final long POLL_MILLIS = 20;
+
+    // Ajustables en caliente; el plazo vale para el próximo vaciado
+    private volatile long timeoutMillis;
+    private volatile int reconnectSpreadSeconds;
+    private final AtomicBoolean draining;
+    private final AtomicInteger inFlight;
+
+    public ServerDrain(long timeoutMillis, int reconnectSpreadSeconds) {
+        setLimits(timeoutMillis, reconnectSpreadSeconds);
+        this.draining = new AtomicBoolean(false);
+        this.inFlight = new AtomicInteger();
+    }
+
+    public void setLimits(long newTimeoutMillis, int newReconnectSpreadSeconds) {
+        timeoutMillis = newTimeoutMillis;
+        reconnectSpreadSeconds = Math.max(1, newReconnectSpreadSeconds);
+    }
+
+    public void commandStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void commandFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return false si el vaciado ya había comenzado
+     */
+    public boolean begin() {
+        return draining.compareAndSet(false, true);
+    }
+
+    public boolean isDraining() {
+        return draining.get();
+    }
+
+    /**
+     * Espera a que no quede ningún comando en curso
+     *
+     * @return false si se venció el plazo con comandos todavía en curso
+     */
+    public boolean awaitIdle(long deadline) {
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Segundos que debe esperar cada cliente antes de reconectar; repartidos al azar
+     * para que la nueva instancia no reciba a todos en el mismo instante
+     */
+    public int nextReconnectAfterSeconds() {
+        return 1 + ThreadLocalRandom.current().nextInt(reconnectSpreadSeconds);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
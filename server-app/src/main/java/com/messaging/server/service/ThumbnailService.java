@@ -0,0 +1,175 @@
+package com.messaging.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generación de miniaturas en segundo plano para mensajes IMAGE
+ * La miniatura se guarda junto al original como <archivo>.thumb.jpg
+ */
+public class ThumbnailService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
+
+    public static final String THUMBNAIL_SUFFIX = ".thumb.jpg";
+    // Imágenes declaradas más grandes se rechazan sin decodificar
+    private static final long MAX_SOURCE_PIXELS = 100_000_000L;
+    // Tope de píxeles decodificados en memoria; el resto se descarta con submuestreo al leer
+    private static final long MAX_DECODED_PIXELS = 4_000_000L;
+    private static final int MAX_REMEMBERED_FAILURES = 10_000;
+
+    private final ExecutorService workers;
+    private final int maxDimension;
+    private final Map<Path, CompletableFuture<Path>> inFlight;
+    // Originales que no se pudieron convertir; el contenido de un blob no cambia, así que no se reintentan
+    private final Set<Path> failed;
+
+    public ThumbnailService(int threads, int maxDimension) {
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ThumbnailWorker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxDimension = maxDimension;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.failed = ConcurrentHashMap.newKeySet();
+    }
+
+    public static Path thumbnailPath(Path original) {
+        return original.resolveSibling(original.getFileName() + THUMBNAIL_SUFFIX);
+    }
+
+    /**
+     * Encola la generación de la miniatura; si ya existe en disco, está en curso o ya falló
+     * no repite el trabajo
+     */
+    public CompletableFuture<Path> submit(Path original) {
+        Path thumbnail = thumbnailPath(original);
+        if (Files.exists(thumbnail)) {
+            return CompletableFuture.completedFuture(thumbnail);
+        }
+        if (failed.contains(original)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return inFlight.computeIfAbsent(original, key -> {
+            CompletableFuture<Path> future = CompletableFuture.supplyAsync(() -> generate(key, thumbnail), workers);
+            future.whenComplete((path, error) -> {
+                if (path == null) {
+                    rememberFailure(key);
+                }
+                inFlight.remove(key);
+            });
+            return future;
+        });
+    }
+
+    private void rememberFailure(Path original) {
+        if (failed.size() >= MAX_REMEMBERED_FAILURES) {
+            failed.clear();
+        }
+        failed.add(original);
+    }
+
+    private Path generate(Path original, Path thumbnail) {
+        try {
+            BufferedImage source = readBounded(original);
+            if (source == null) {
+                return null;
+            }
+
+            double scale = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+            int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+            // JPEG no admite transparencia: se dibuja sobre fondo blanco en RGB
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.drawImage(source, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            Path temp = Files.createTempFile(thumbnail.getParent(), "thumb-", ".part");
+            try {
+                ImageIO.write(scaled, "jpg", temp.toFile());
+                Files.move(temp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            logger.debug("Miniatura generada {}x{} para {}", width, height, original);
+            return thumbnail;
+
+        } catch (IOException e) {
+            logger.error("Error generando miniatura de " + original + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lee solo la cabecera para conocer el tamaño declarado y decodifica con submuestreo,
+     * así una imagen enorme nunca ocupa más de MAX_DECODED_PIXELS en memoria
+     */
+    private BufferedImage readBounded(Path original) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                logger.warn("Formato de imagen no soportado: {}", original);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long width = reader.getWidth(0);
+                long height = reader.getHeight(0);
+                if (width * height > MAX_SOURCE_PIXELS) {
+                    logger.warn("Imagen demasiado grande para miniatura ({}x{}): {}", width, height, original);
+                    return null;
+                }
+
+                // Basta con el doble del tamaño final para que el escalado conserve calidad
+                int step = (int) Math.max(1, Math.max(width, height) / (2L * maxDimension));
+                while ((width / step) * (height / step) > MAX_DECODED_PIXELS) {
+                    step++;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,232 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.DatabaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Contadores de mensajes no leídos por conversación (receptor, remitente)
+ * Se reconstruyen al iniciar con una sola consulta agregada y después se mantienen en memoria:
+ * suben al guardar un mensaje y bajan cuando avanza el READ_UP_TO del receptor.
+ * No tienen tabla propia: messages.is_read es la fuente y la persiste ReceiptService por lotes
+ */
+public class UnreadCountService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnreadCountService.class);
+
+    private final DatabaseConfig databaseConfig;
+    // receptor -> (remitente -> contador)
+    private final Map<Long, Map<Long, Counter>> counters;
+    // Los recuentos tras una lectura parcial no corren en el hilo de la conexión
+    private final ExecutorService recounter;
+
+    public UnreadCountService(DatabaseConfig databaseConfig) {
+        this.databaseConfig = databaseConfig;
+        this.counters = new ConcurrentHashMap<>();
+        this.recounter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "UnreadRecount");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Carga todos los contadores con un GROUP BY sobre los mensajes sin leer
+     */
+    public void rebuild() {
+        String sql = "SELECT receiver_id, sender_id, COUNT(*) AS unread, MAX(id) AS last_id " +
+                    "FROM messages WHERE is_read = FALSE AND receiver_id IS NOT NULL " +
+                    "GROUP BY receiver_id, sender_id";
+
+        counters.clear();
+        int conversations = 0;
+        try (Connection conn = databaseConfig.getBulkConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+
+            while (rs.next()) {
+                Counter counter = counter(rs.getLong("receiver_id"), rs.getLong("sender_id"));
+                counter.reset(rs.getInt("unread"), rs.getLong("last_id"));
+                conversations++;
+            }
+            logger.info("Contadores de no leídos reconstruidos para {} conversaciones", conversations);
+
+        } catch (SQLException e) {
+            logger.error("Error reconstruyendo contadores de no leídos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Un mensaje nuevo del remitente quedó guardado para el receptor
+     */
+    public void messageSaved(Long receiverId, Long senderId, long messageId) {
+        counter(receiverId, senderId).increment(messageId);
+    }
+
+    /**
+     * El receptor leyó la conversación con el remitente hasta upToId
+     */
+    public void markRead(Long receiverId, Long senderId, long upToId) {
+        Map<Long, Counter> bySender = counters.get(receiverId);
+        Counter counter = bySender != null ? bySender.get(senderId) : null;
+        if (counter != null) {
+            counter.markRead(upToId);
+        }
+    }
+
+    /**
+     * Conversaciones con mensajes sin leer del usuario: remitente -> cantidad
+     */
+    public Map<Long, Integer> getUnreadCounts(Long userId) {
+        Map<Long, Integer> result = new HashMap<>();
+        Map<Long, Counter> bySender = counters.get(userId);
+        if (bySender == null) {
+            return result;
+        }
+        bySender.forEach((senderId, counter) -> {
+            int unread = counter.get();
+            if (unread > 0) {
+                result.put(senderId, unread);
+            }
+        });
+        return result;
+    }
+
+    public int getConversationCount() {
+        return counters.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private Counter counter(Long receiverId, Long senderId) {
+        return counters.computeIfAbsent(receiverId, k -> new ConcurrentHashMap<>())
+                       .computeIfAbsent(senderId, k -> new Counter(receiverId, senderId));
+    }
+
+    /**
+     * Cuenta cada mensaje guardado después de lo leído, aunque su id llegue tarde y sea menor
+     * que otro ya contado. Si se lee solo una parte de la conversación no se sabe cuántos quedan:
+     * se recuenta en segundo plano y mientras tanto se sigue informando el valor anterior
+     */
+    private final class Counter {
+        private final Long receiverId;
+        private final Long senderId;
+        private int count;
+        private long lastId;
+        private long readUpTo;
+        // Cambia con cada lectura; un recuento que empezó antes ya no vale
+        private int generation;
+        private boolean recounting;
+        // Ids guardados mientras corre el recuento: se unen a su resultado sin contarlos dos veces
+        private Set<Long> savedDuringRecount;
+
+        Counter(Long receiverId, Long senderId) {
+            this.receiverId = receiverId;
+            this.senderId = senderId;
+        }
+
+        synchronized void reset(int count, long lastId) {
+            this.count = count;
+            this.lastId = lastId;
+        }
+
+        synchronized void increment(long messageId) {
+            if (messageId <= readUpTo) {
+                return;
+            }
+            if (savedDuringRecount != null) {
+                savedDuringRecount.add(messageId);
+            }
+            lastId = Math.max(lastId, messageId);
+            count++;
+        }
+
+        synchronized void markRead(long upToId) {
+            if (upToId <= readUpTo) {
+                return;
+            }
+            readUpTo = upToId;
+            generation++;
+            if (upToId >= lastId) {
+                count = 0;
+            } else {
+                scheduleRecount();
+            }
+        }
+
+        synchronized int get() {
+            return count;
+        }
+
+        // Con el lock tomado; si ya hay uno en curso, al terminar ve la nueva generación y repite
+        private void scheduleRecount() {
+            if (recounting) {
+                return;
+            }
+            recounting = true;
+            savedDuringRecount = new HashSet<>();
+            recounter.execute(this::recount);
+        }
+
+        private void recount() {
+            String sql = "SELECT id FROM messages " +
+                        "WHERE receiver_id = ? AND sender_id = ? AND id > ? AND is_read = FALSE";
+
+            long from;
+            int startedAt;
+            synchronized (this) {
+                from = readUpTo;
+                startedAt = generation;
+            }
+
+            Set<Long> unread = new HashSet<>();
+            boolean loaded = false;
+            try (Connection conn = databaseConfig.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+                stmt.setLong(1, receiverId);
+                stmt.setLong(2, senderId);
+                stmt.setLong(3, from);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        unread.add(rs.getLong("id"));
+                    }
+                }
+                loaded = true;
+
+            } catch (SQLException e) {
+                logger.error("Error recontando mensajes no leídos: " + e.getMessage());
+            }
+
+            synchronized (this) {
+                boolean again = false;
+                if (loaded && startedAt == generation) {
+                    unread.addAll(savedDuringRecount);
+                    count = unread.size();
+                    for (Long id : unread) {
+                        lastId = Math.max(lastId, id);
+                    }
+                } else if (loaded) {
+                    // Se leyó más mientras tanto; si no quedó todo leído hace falta otro recuento
+                    again = readUpTo < lastId;
+                }
+                recounting = false;
+                savedDuringRecount = null;
+                if (again) {
+                    scheduleRecount();
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.messaging.server.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.messaging.server.config.DatabaseConfig;
 import com.messaging.server.model.ClientConnection;
 import com.messaging.server.model.Message;
@@ -8,24 +8,24 @@ import com.messaging.server.model.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class UserService {
     
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
     
+    // Filas que el driver trae por cada viaje al leer historiales en streaming
+    private static final int STREAM_FETCH_SIZE = 200;
+    
     private final DatabaseConfig databaseConfig;
-    private final ObjectMapper objectMapper;
-    private User currentUser;
     
     public UserService(DatabaseConfig databaseConfig) {
         this.databaseConfig = databaseConfig;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule());
-        this.objectMapper.disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     }
     public User authenticateUser(String username, String password) {
         String sql = "SELECT * FROM users WHERE username = ? AND password = ? AND status = 'APPROVED'";
@@ -135,9 +135,15 @@ public class UserService {
         return users;
     }
     
+    /**
+     * Guarda un mensaje de texto; si trae clave del cliente, un reintento con la misma
+     * clave no inserta otra fila y se considera guardado
+     * Si la fila es nueva le asigna id y fecha al mensaje; en un reintento el id queda en null
+     */
     public boolean saveMessage(Message message) {
-        String sql = "INSERT INTO messages (sender_id, receiver_id, message_type, content, sent_at) " +
-                    "VALUES (?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO messages (sender_id, receiver_id, message_type, content, sent_at, client_message_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (sender_id, client_message_id) DO NOTHING RETURNING id, sent_at";
         
         try (Connection conn = databaseConfig.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -147,8 +153,20 @@ public class UserService {
             stmt.setString(3, message.getMessageType());
             stmt.setString(4, message.getContent());
             stmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+            // Sin clave (clientes antiguos) el NULL nunca choca con el índice único
+            stmt.setObject(6, message.getClientMessageId() != null ? UUID.fromString(message.getClientMessageId()) : null,
+                          Types.OTHER);
             
-            return stmt.executeUpdate() > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    message.setId(rs.getLong("id"));
+                    message.setCreatedAt(rs.getTimestamp("sent_at").toLocalDateTime());
+                } else {
+                    message.setId(null);
+                    logger.debug("Mensaje {} ya guardado, reintento ignorado", message.getClientMessageId());
+                }
+            }
+            return true;
             
         } catch (SQLException e) {
             logger.error("Error guardando mensaje: " + e.getMessage());
@@ -156,32 +174,77 @@ public class UserService {
         }
     }
     
-    public boolean saveFileMessage(Long senderId, Long receiverId, String messageType, 
-                                   String filePath, String fileName) {
-        String sql = "INSERT INTO messages (sender_id, receiver_id, message_type, content, file_name, sent_at) " +
-                    "VALUES (?, ?, ?, ?, ?, ?)";
+    /**
+     * Guarda el mensaje de archivo y suma una referencia al blob en la misma transacción
+     * Devuelve el mensaje guardado (con su id) o null si no se pudo guardar
+     */
+    public Message saveFileMessage(Long senderId, Long receiverId, String messageType, 
+                                   AttachmentStore.Blob blob, String fileName) {
+        String blobSql = "INSERT INTO attachment_blobs (sha256, blob_path, size_bytes, ref_count) " +
+                        "VALUES (?, ?, ?, 1) " +
+                        "ON CONFLICT (sha256) DO UPDATE SET ref_count = attachment_blobs.ref_count + 1, " +
+                        "last_referenced_at = CURRENT_TIMESTAMP";
+        String sql = "INSERT INTO messages (sender_id, receiver_id, message_type, content, file_name, " +
+                    "file_path, file_size, sent_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
         
-        try (Connection conn = databaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setLong(1, senderId);
-            stmt.setLong(2, receiverId);
-            stmt.setString(3, messageType);
-            stmt.setString(4, filePath);  // Ruta del archivo en el servidor
-            stmt.setString(5, fileName);  // Nombre original del archivo
-            stmt.setTimestamp(6, Timestamp.valueOf(LocalDateTime.now()));
+        try (Connection conn = databaseConfig.getBulkConnection()) {
+            conn.setAutoCommit(false);
             
-            int rowsAffected = stmt.executeUpdate();
-            logger.info("Mensaje de archivo guardado en DB: {} -> {} ({})", senderId, receiverId, fileName);
-            return rowsAffected > 0;
+            try (PreparedStatement blobStmt = conn.prepareStatement(blobSql);
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                
+                blobStmt.setString(1, blob.getSha256());
+                blobStmt.setString(2, blob.getRelativePath());
+                blobStmt.setLong(3, blob.getSize());
+                blobStmt.executeUpdate();
+                
+                stmt.setLong(1, senderId);
+                stmt.setLong(2, receiverId);
+                stmt.setString(3, messageType);
+                stmt.setString(4, blob.getRelativePath());  // El cliente descarga usando content
+                stmt.setString(5, fileName);  // Nombre original del archivo
+                stmt.setString(6, blob.getRelativePath());
+                stmt.setLong(7, blob.getSize());
+                LocalDateTime sentAt = LocalDateTime.now();
+                stmt.setTimestamp(8, Timestamp.valueOf(sentAt));
+                
+                Long id;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    id = rs.next() ? rs.getLong(1) : null;
+                }
+                conn.commit();
+                logger.info("Mensaje de archivo guardado en DB: {} -> {} ({})", senderId, receiverId, fileName);
+                return Message.builder()
+                    .id(id)
+                    .senderId(senderId)
+                    .receiverId(receiverId)
+                    .messageType(messageType)
+                    .content(blob.getRelativePath())
+                    .fileName(fileName)
+                    .filePath(blob.getRelativePath())
+                    .fileSize(blob.getSize())
+                    .createdAt(sentAt)
+                    .sentAt(sentAt)
+                    .build();
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
             
         } catch (SQLException e) {
             logger.error("Error guardando mensaje de archivo: " + e.getMessage());
-            return false;
+            return null;
         }
     }
     
-    public String getUserMessages(Long userId) {
+    /**
+     * Escribe los últimos 50 mensajes del usuario directamente en la secuencia de salida,
+     * fila a fila, sin construir la lista completa en memoria.
+     */
+    public int writeUserMessages(Long userId, SequenceWriter out) throws IOException {
         String sql = "SELECT m.*, u1.username as sender_name, u2.username as receiver_name " +
                     "FROM messages m " +
                     "JOIN users u1 ON m.sender_id = u1.id " +
@@ -189,7 +252,7 @@ public class UserService {
                     "WHERE m.sender_id = ? OR m.receiver_id = ? " +
                     "ORDER BY m.sent_at DESC LIMIT 50";
         
-        List<Message> messages = new ArrayList<>();
+        int count = 0;
         
         try (Connection conn = databaseConfig.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -207,22 +270,19 @@ public class UserService {
                         .messageType(rs.getString("message_type"))
                         .content(rs.getString("content"))
                         .sentAt(rs.getTimestamp("sent_at").toLocalDateTime())
-                        .isRead(false)
+                        .isRead(rs.getBoolean("is_read"))
                         .build();
-                    messages.add(message);
+                    out.write(message);
+                    count++;
                 }
             }
             
         } catch (SQLException e) {
-            logger.error("Error obteniendo mensajes: " + e.getMessage());
+            // Un resultado parcial no debe pasar por una lista completa
+            throw new IOException("Error obteniendo mensajes: " + e.getMessage(), e);
         }
         
-        try {
-            return objectMapper.writeValueAsString(messages);
-        } catch (Exception e) {
-            logger.error("Error serializando mensajes: " + e.getMessage());
-            return "[]";
-        }
+        return count;
     }
     
     public void registerConnection(ClientConnection connection) {
@@ -271,69 +331,73 @@ public class UserService {
         }
     }
     
-    public String getConnectedUsers() {
+    /**
+     * Escribe los usuarios conectados directamente en la secuencia de salida.
+     */
+    public int writeConnectedUsers(SequenceWriter out) throws IOException {
         String sql = "SELECT u.id, u.username, u.email, u.status, u.created_at, u.last_connection, " +
                     "u.connected, u.connection_count, u.max_connections, u.files_sent_count, u.max_files_per_day " +
                     "FROM users u " +
                     "WHERE u.status = 'APPROVED' AND u.connected = TRUE " +
                     "ORDER BY u.last_connection DESC NULLS LAST";
         
-        List<User> connectedUsers = new ArrayList<>();
+        int count = 0;
         
-        try (Connection conn = databaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql);
-             ResultSet rs = stmt.executeQuery()) {
-            
-            logger.info("Ejecutando consulta de usuarios conectados...");
+        try (Connection conn = databaseConfig.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            // El driver de PostgreSQL solo respeta el fetch size dentro de una transacción
+            conn.setAutoCommit(false);
             
-            while (rs.next()) {
-                User user = new User();
-                user.setId(rs.getLong("id"));
-                user.setUsername(rs.getString("username"));
-                user.setEmail(rs.getString("email"));
-                user.setStatus(rs.getString("status"));
-                
-                Timestamp createdAt = rs.getTimestamp("created_at");
-                if (createdAt != null) {
-                    user.setCreatedAt(createdAt.toLocalDateTime());
-                }
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
                 
-                Timestamp lastConnection = rs.getTimestamp("last_connection");
-                if (lastConnection != null) {
-                    user.setLastConnection(lastConnection.toLocalDateTime());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        User user = new User();
+                        user.setId(rs.getLong("id"));
+                        user.setUsername(rs.getString("username"));
+                        user.setEmail(rs.getString("email"));
+                        user.setStatus(rs.getString("status"));
+                        
+                        Timestamp createdAt = rs.getTimestamp("created_at");
+                        if (createdAt != null) {
+                            user.setCreatedAt(createdAt.toLocalDateTime());
+                        }
+                        
+                        Timestamp lastConnection = rs.getTimestamp("last_connection");
+                        if (lastConnection != null) {
+                            user.setLastConnection(lastConnection.toLocalDateTime());
+                        }
+                        
+                        user.setConnected(rs.getBoolean("connected"));
+                        user.setConnectionCount(rs.getInt("connection_count"));
+                        user.setMaxConnections(rs.getInt("max_connections"));
+                        user.setFilesSentCount(rs.getInt("files_sent_count"));
+                        user.setMaxFilesPerDay(rs.getInt("max_files_per_day"));
+                        
+                        out.write(user);
+                        count++;
+                    }
                 }
-                
-                user.setConnected(rs.getBoolean("connected"));
-                user.setConnectionCount(rs.getInt("connection_count"));
-                user.setMaxConnections(rs.getInt("max_connections"));
-                user.setFilesSentCount(rs.getInt("files_sent_count"));
-                user.setMaxFilesPerDay(rs.getInt("max_files_per_day"));
-                
-                logger.info("Usuario conectado encontrado: {} (ID: {})", user.getUsername(), user.getId());
-                connectedUsers.add(user);
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(autoCommit);
             }
             
-            logger.info("Total de usuarios conectados encontrados: {}", connectedUsers.size());
+            logger.debug("Usuarios conectados enviados: {}", count);
             
         } catch (SQLException e) {
-            logger.error("Error obteniendo usuarios conectados: {}", e.getMessage(), e);
+            throw new IOException("Error obteniendo usuarios conectados: " + e.getMessage(), e);
         }
         
-        try {
-            String json = objectMapper.writeValueAsString(connectedUsers);
-            logger.info("JSON generado con {} usuarios: {}", connectedUsers.size(), json);
-            return json;
-        } catch (Exception e) {
-            logger.error("Error serializando usuarios: {}", e.getMessage(), e);
-            return "[]";
-        }
+        return count;
     }
     
     public void cleanupInactiveUsers() {
         String sql = "UPDATE users SET connected = FALSE WHERE id NOT IN " +
                     "(SELECT DISTINCT user_id FROM active_connections)";
         
-        try (Connection conn = databaseConfig.getConnection();
+        try (Connection conn = databaseConfig.getBulkConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             int updated = stmt.executeUpdate();
@@ -363,56 +427,65 @@ public class UserService {
         }
     }
     
-    public String getMessagesWithUser(Long userId1, Long userId2) {
+    /**
+     * Escribe la conversación entre dos usuarios directamente en la secuencia de salida.
+     * Las filas se leen por bloques (fetch size) para no cargar historiales largos en memoria.
+     * Con afterId > 0 solo se envían los mensajes que el cliente aún no tiene en su caché.
+     */
+    public int writeMessagesWithUser(Long userId1, Long userId2, long afterId, SequenceWriter out) throws IOException {
         String sql = "SELECT m.id, m.sender_id, m.receiver_id, m.content, m.message_type, " +
-                    "m.file_name, m.sent_at, s.username as sender_username, r.username as receiver_username " +
+                    "m.file_name, m.sent_at, m.is_read, s.username as sender_username, r.username as receiver_username " +
                     "FROM messages m " +
                     "JOIN users s ON m.sender_id = s.id " +
                     "JOIN users r ON m.receiver_id = r.id " +
-                    "WHERE (m.sender_id = ? AND m.receiver_id = ?) OR " +
-                    "(m.sender_id = ? AND m.receiver_id = ?) " +
-                    "ORDER BY m.sent_at ASC";
+                    "WHERE ((m.sender_id = ? AND m.receiver_id = ?) OR " +
+                    "(m.sender_id = ? AND m.receiver_id = ?)) AND m.id > ? " +
+                    "ORDER BY m.id ASC";
         
-        List<Message> messages = new ArrayList<>();
+        int count = 0;
         
-        try (Connection conn = databaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setLong(1, userId1);
-            stmt.setLong(2, userId2);
-            stmt.setLong(3, userId2);
-            stmt.setLong(4, userId1);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    // Uso del patrón Builder para construir Message con todos sus campos
-                    Message message = Message.builder()
-                        .id(rs.getLong("id"))
-                        .senderId(rs.getLong("sender_id"))
-                        .receiverId(rs.getLong("receiver_id"))
-                        .content(rs.getString("content"))
-                        .messageType(rs.getString("message_type"))
-                        .fileName(rs.getString("file_name"))
-                        .createdAt(rs.getTimestamp("sent_at").toLocalDateTime())
-                        .senderUsername(rs.getString("sender_username"))
-                        .receiverUsername(rs.getString("receiver_username"))
-                        .isRead(false)
-                        .build();
-                    
-                    messages.add(message);
+        try (Connection conn = databaseConfig.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(STREAM_FETCH_SIZE);
+                stmt.setLong(1, userId1);
+                stmt.setLong(2, userId2);
+                stmt.setLong(3, userId2);
+                stmt.setLong(4, userId1);
+                stmt.setLong(5, afterId);
+                
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        // Uso del patrón Builder para construir Message con todos sus campos
+                        Message message = Message.builder()
+                            .id(rs.getLong("id"))
+                            .senderId(rs.getLong("sender_id"))
+                            .receiverId(rs.getLong("receiver_id"))
+                            .content(rs.getString("content"))
+                            .messageType(rs.getString("message_type"))
+                            .fileName(rs.getString("file_name"))
+                            .createdAt(rs.getTimestamp("sent_at").toLocalDateTime())
+                            .senderUsername(rs.getString("sender_username"))
+                            .receiverUsername(rs.getString("receiver_username"))
+                            .isRead(rs.getBoolean("is_read"))
+                            .build();
+                        
+                        out.write(message);
+                        count++;
+                    }
                 }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(autoCommit);
             }
             
         } catch (SQLException e) {
-            logger.error("Error obteniendo mensajes entre usuarios: " + e.getMessage());
+            throw new IOException("Error obteniendo mensajes entre usuarios: " + e.getMessage(), e);
         }
         
-        try {
-            return objectMapper.writeValueAsString(messages);
-        } catch (Exception e) {
-            logger.error("Error serializando mensajes: " + e.getMessage());
-            return "[]";
-        }
+        return count;
     }
     
     private User mapResultSetToUser(ResultSet rs) throws SQLException {
@@ -430,14 +503,8 @@ public class UserService {
         user.setMaxConnections(rs.getInt("max_connections"));
         user.setFilesSentCount(rs.getInt("files_sent_count"));
         user.setMaxFilesPerDay(rs.getInt("max_files_per_day"));
+        Date filesCountDate = rs.getDate("files_count_date");
+        user.setFilesCountDate(filesCountDate != null ? filesCountDate.toLocalDate() : null);
         return user;
     }
-    
-    public User getCurrentUser() {
-        return currentUser;
-    }
-    
-    public void setCurrentUser(User currentUser) {
-        this.currentUser = currentUser;
-    }
 }
@@ -0,0 +1,43 @@
+package com.messaging.server.service;
+
+import com.messaging.server.config.ServerConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Límites de la cola de escritura de cada conexión y conteo de clientes lentos desconectados
+ * Un cliente que deja de leer no puede bloquear a los hilos que le envían avisos
+ */
+public class WriteLimits {
+
+    // Ajustables en caliente; las conexiones abiertas conservan los límites con que empezaron
+    private volatile int maxQueuedBytes;
+    private volatile long writeTimeoutMillis;
+    private final AtomicLong slowConsumers;
+
+    public WriteLimits(ServerConfig serverConfig) {
+        applyConfig(serverConfig);
+        this.slowConsumers = new AtomicLong();
+    }
+
+    public void applyConfig(ServerConfig serverConfig) {
+        maxQueuedBytes = serverConfig.getWriteQueueBytes();
+        writeTimeoutMillis = serverConfig.getWriteTimeoutMillis();
+    }
+
+    public int getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public void slowConsumer() {
+        slowConsumers.incrementAndGet();
+    }
+
+    public void registerMetrics(MetricsService metricsService) {
+        metricsService.registerGauge("writes.slowConsumers", slowConsumers::get);
+    }
+}
@@ -21,10 +21,13 @@ public class Message {
     @Column(name = "sender_id", nullable = false)
     private Long senderId;
     
-    @NotNull(message = "El ID del destinatario es obligatorio")
-    @Column(name = "receiver_id", nullable = false)
+    // Nulo en los mensajes de grupo
+    @Column(name = "receiver_id")
     private Long receiverId;
     
+    @Column(name = "group_id")
+    private Long groupId;
+    
     @Enumerated(EnumType.STRING)
     @Column(name = "message_type", nullable = false)
     private MessageType messageType;
@@ -91,6 +94,14 @@ public class Message {
         this.receiverId = receiverId;
     }
     
+    public Long getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(Long groupId) {
+        this.groupId = groupId;
+    }
+    
     public MessageType getMessageType() {
         return messageType;
     }
@@ -201,7 +212,10 @@ public class Message {
     }
     
     public String getReceiverUsername() {
-        return receiver != null ? receiver.getUsername() : "Usuario " + receiverId;
+        if (receiver != null) {
+            return receiver.getUsername();
+        }
+        return groupId != null ? "Grupo " + groupId : "Usuario " + receiverId;
     }
     
     @Override
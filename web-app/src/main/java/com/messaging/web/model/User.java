@@ -5,6 +5,7 @@ import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 /**
@@ -53,9 +54,13 @@ public class User {
     @Column(name = "max_connections", nullable = false)
     private int maxConnections = 3;
     
-    @Column(name = "files_sent_count", nullable = false)
+    // El servidor de mensajería es dueño del cupo diario: la web solo lo lee
+    @Column(name = "files_sent_count", nullable = false, updatable = false)
     private int filesSentCount = 0;
     
+    @Column(name = "files_count_date", insertable = false, updatable = false)
+    private LocalDate filesCountDate;
+    
     @Column(name = "max_files_per_day", nullable = false)
     private int maxFilesPerDay = 10;
     
@@ -157,6 +162,14 @@ public class User {
         this.filesSentCount = filesSentCount;
     }
     
+    public LocalDate getFilesCountDate() {
+        return filesCountDate;
+    }
+    
+    public void setFilesCountDate(LocalDate filesCountDate) {
+        this.filesCountDate = filesCountDate;
+    }
+    
     public int getMaxFilesPerDay() {
         return maxFilesPerDay;
     }
@@ -4,6 +4,7 @@ import com.messaging.web.model.Message;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -138,4 +139,11 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
      */
     @Query("SELECT m FROM Message m ORDER BY m.sentAt DESC")
     List<Message> findAllByOrderBySentAtDesc(Pageable pageable);
+    
+    /**
+     * Liberar la referencia de un mensaje a su adjunto; el servidor borra el blob cuando llega a cero
+     */
+    @Modifying
+    @Query(value = "UPDATE attachment_blobs SET ref_count = ref_count - 1 WHERE blob_path = :blobPath AND ref_count > 0", nativeQuery = true)
+    int releaseAttachment(@Param("blobPath") String blobPath);
 }
@@ -7,12 +7,16 @@ import com.messaging.web.repository.UserRepository;
 import com.messaging.web.repository.MessageRepository;
 import com.messaging.web.repository.ConnectionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -31,6 +35,10 @@ public class WebService {
     @Autowired
     private ConnectionRepository connectionRepository;
 
+    // Debe coincidir con server.quota.timezone del servidor de mensajería
+    @Value("${messaging.quota.timezone:America/Bogota}")
+    private String quotaTimeZone;
+
     /**
      * Obtener estadísticas del dashboard
      */
@@ -224,6 +232,8 @@ public class WebService {
         info.put("messagesReceived", messageRepository.countByReceiverId(id));
         info.put("lastConnection", user.getLastConnection());
         info.put("status", user.isConnected() ? "connected" : "disconnected");
+        info.put("filesSentToday", getFilesSentToday(user));
+        info.put("maxFilesPerDay", user.getMaxFilesPerDay());
 
         return info;
     }
@@ -283,12 +293,22 @@ public class WebService {
             info.put("messagesReceived", messageRepository.countByReceiverId(user.getId()));
             info.put("lastConnection", user.getLastConnection());
             info.put("connected", user.isConnected());
+            info.put("filesSentToday", getFilesSentToday(user));
             usersInfo.add(info);
         }
 
         return usersInfo;
     }
     
+    /**
+     * Archivos enviados hoy según el cupo que persiste el servidor
+     * Si el último conteo es de otro día el cupo ya se reinició
+     */
+    public int getFilesSentToday(User user) {
+        LocalDate today = LocalDate.now(ZoneId.of(quotaTimeZone));
+        return today.equals(user.getFilesCountDate()) ? user.getFilesSentCount() : 0;
+    }
+    
     /**
      * Obtener usuario por ID
      */
@@ -378,7 +398,7 @@ public class WebService {
             
             return allMessages.stream()
                 .filter(msg -> senderId == null || msg.getSender().getId().equals(senderId))
-                .filter(msg -> receiverId == null || msg.getReceiver().getId().equals(receiverId))
+                .filter(msg -> receiverId == null || receiverId.equals(msg.getReceiverId()))
                 .filter(msg -> type == null || type.isEmpty() || msg.getMessageType().name().equals(type))
                 .filter(msg -> {
                     if (dateFrom == null) return true;
@@ -450,7 +470,13 @@ public class WebService {
     /**
      * Eliminar un mensaje
      */
+    @Transactional
     public void deleteMessage(Long messageId) {
-        messageRepository.deleteById(messageId);
+        messageRepository.findById(messageId).ifPresent(message -> {
+            if (message.getFilePath() != null) {
+                messageRepository.releaseAttachment(message.getFilePath());
+            }
+            messageRepository.delete(message);
+        });
     }
 }